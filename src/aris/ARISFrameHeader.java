@@ -3,18 +3,32 @@ package aris;
 import java.io.DataInput;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import tritechgemini.fileio.HeaderBuffer;
 
 /**
  * ARIS Frame header. https://github.com/SoundMetrics/aris-file-sdk/blob/master/type-definitions/C/FrameHeader.h
  * @author Doug Gillespie
  *
  */
-public class ARISFrameHeader extends ARISHeader implements Serializable {
+public class ARISFrameHeader extends ARISHeader implements Serializable, Cloneable {
 
 	private static final long serialVersionUID = 1L;
 
 	public static final int DATASIZE = 1024;
 
+	/**
+	 * Number of bytes at the start of the header holding the frame index, 
+	 * times and window, which are read by readHeaderStart. 
+	 */
+	public static final int STARTSIZE = 60;
+
+	/**
+	 * Position of SamplesPerBeam in the header. 
+	 */
+	public static final int SAMPLESPERBEAMPOS = 468;
+
 	// Frame number in file
 	private int FrameIndex;
 
@@ -483,174 +497,212 @@ public class ARISFrameHeader extends ARISHeader implements Serializable {
 
 	@Override
 	public void readHeader(DataInput dis) throws IOException {
-		FrameIndex = dis.readInt();
-		FrameTime = dis.readLong();
-		Version = dis.readInt();
-		Status = dis.readInt();
-		sonarTimeStamp = dis.readLong();
-		TS_Day = dis.readInt();
-		TS_Hour = dis.readInt();
-		TS_Minute = dis.readInt();
-		TS_Second = dis.readInt();
-		TS_Hsecond = dis.readInt();
-		TransmitMode = dis.readInt();
-		WindowStart = dis.readFloat();
-		WindowLength = dis.readFloat();
-		Threshold = dis.readInt();
-		Intensity = dis.readInt();
-		ReceiverGain = dis.readInt();
-		DegC1 = dis.readInt();
-		DegC2 = dis.readInt();
-		Humidity = dis.readInt();
-		Focus = dis.readInt();
-		Battery = dis.readInt();
+		readHeader(HeaderBuffer.read(dis, DATASIZE));
+	}
+
+	/**
+	 * Read the first STARTSIZE bytes of the header, which hold the frame index, 
+	 * times and window, leaving the other fields as they are. 
+	 * @param buffer little endian buffer, positioned at the start of the header. 
+	 */
+	public void readHeaderStart(ByteBuffer buffer) {
+		FrameIndex = buffer.getInt();
+		FrameTime = buffer.getLong();
+		Version = buffer.getInt();
+		Status = buffer.getInt();
+		sonarTimeStamp = buffer.getLong();
+		TS_Day = buffer.getInt();
+		TS_Hour = buffer.getInt();
+		TS_Minute = buffer.getInt();
+		TS_Second = buffer.getInt();
+		TS_Hsecond = buffer.getInt();
+		TransmitMode = buffer.getInt();
+		WindowStart = buffer.getFloat();
+		WindowLength = buffer.getFloat();
+	}
+
+	/**
+	 * Make a copy of this header for a frame at a different position in the file.
+	 * @param filePosition position of the copy's frame
+	 * @return copy of the header
+	 */
+	public ARISFrameHeader copy(long filePosition) {
+		ARISFrameHeader copy;
+		try {
+			copy = (ARISFrameHeader) super.clone();
+		} catch (CloneNotSupportedException e) {
+			return null;
+		}
+		copy.filePosition = filePosition;
+		// arrays are filled in place when a header is read, so can't be shared. 
+		copy.UserValues = UserValues == null ? null : UserValues.clone();
+		copy.GPSTimeStamp = GPSTimeStamp == null ? null : GPSTimeStamp.clone();
+		copy.tmatrix = tmatrix == null ? null : tmatrix.clone();
+		return copy;
+	}
+
+	/**
+	 * Read the header from a little endian buffer holding the whole 
+	 * DATASIZE bytes of the header, starting at the buffer's position.
+	 * @param buffer buffer
+	 */
+	public void readHeader(ByteBuffer buffer) {
+		readHeaderStart(buffer);
+		Threshold = buffer.getInt();
+		Intensity = buffer.getInt();
+		ReceiverGain = buffer.getInt();
+		DegC1 = buffer.getInt();
+		DegC2 = buffer.getInt();
+		Humidity = buffer.getInt();
+		Focus = buffer.getInt();
+		Battery = buffer.getInt();
 		if (UserValues == null) {
 			UserValues = new float[NUSERVALS];
 		}
 		for (int i = 0; i < NUSERVALS; i++) {
-			UserValues[i] = dis.readFloat();
+			UserValues[i] = buffer.getFloat();
 		}
-		Velocity = dis.readFloat();
-		Depth = dis.readFloat();
-		Altitude = dis.readFloat();
-		Pitch = dis.readFloat();
-		PitchRate = dis.readFloat();
-		Roll = dis.readFloat();
-		RollRate = dis.readFloat();
-		Heading = dis.readFloat();
-		HeadingRate = dis.readFloat();
-		CompassHeading = dis.readFloat();
-		CompassPitch = dis.readFloat();
-		CompassRoll = dis.readFloat();
-		Latitude = dis.readDouble();
-		Longitude = dis.readDouble();
-		SonarPosition = dis.readFloat();
-		ConfigFlags = dis.readInt();
-		BeamTilt = dis.readFloat();
-		TargetRange = dis.readFloat();
-		TargetBearing = dis.readFloat();
-		TargetPresent = dis.readInt();
-		FirmwareRevision = dis.readInt();
-		Flags = dis.readInt();
-		SourceFrame = dis.readInt();
-		WaterTemp = dis.readFloat();
-		TimerPeriod = dis.readInt();
-		SonarX = dis.readFloat();
-		SonarY = dis.readFloat();
-		SonarZ = dis.readFloat();
-		SonarPan = dis.readFloat();
-		SonarTilt = dis.readFloat();
-		SonarRoll = dis.readFloat();
-		PanPNNL = dis.readFloat();
-		TiltPNNL = dis.readFloat();
-		RollPNNL = dis.readFloat();
-		VehicleTime = dis.readDouble();
-		TimeGGK = dis.readFloat();
-		DateGGK = dis.readInt();
-		QualityGGK = dis.readInt();
-		NumSatsGGK = dis.readInt();
-		DOPGGK = dis.readFloat();
-		EHTGGK = dis.readFloat();
-		HeaveTSS = dis.readFloat();
+		Velocity = buffer.getFloat();
+		Depth = buffer.getFloat();
+		Altitude = buffer.getFloat();
+		Pitch = buffer.getFloat();
+		PitchRate = buffer.getFloat();
+		Roll = buffer.getFloat();
+		RollRate = buffer.getFloat();
+		Heading = buffer.getFloat();
+		HeadingRate = buffer.getFloat();
+		CompassHeading = buffer.getFloat();
+		CompassPitch = buffer.getFloat();
+		CompassRoll = buffer.getFloat();
+		Latitude = buffer.getDouble();
+		Longitude = buffer.getDouble();
+		SonarPosition = buffer.getFloat();
+		ConfigFlags = buffer.getInt();
+		BeamTilt = buffer.getFloat();
+		TargetRange = buffer.getFloat();
+		TargetBearing = buffer.getFloat();
+		TargetPresent = buffer.getInt();
+		FirmwareRevision = buffer.getInt();
+		Flags = buffer.getInt();
+		SourceFrame = buffer.getInt();
+		WaterTemp = buffer.getFloat();
+		TimerPeriod = buffer.getInt();
+		SonarX = buffer.getFloat();
+		SonarY = buffer.getFloat();
+		SonarZ = buffer.getFloat();
+		SonarPan = buffer.getFloat();
+		SonarTilt = buffer.getFloat();
+		SonarRoll = buffer.getFloat();
+		PanPNNL = buffer.getFloat();
+		TiltPNNL = buffer.getFloat();
+		RollPNNL = buffer.getFloat();
+		VehicleTime = buffer.getDouble();
+		TimeGGK = buffer.getFloat();
+		DateGGK = buffer.getInt();
+		QualityGGK = buffer.getInt();
+		NumSatsGGK = buffer.getInt();
+		DOPGGK = buffer.getFloat();
+		EHTGGK = buffer.getFloat();
+		HeaveTSS = buffer.getFloat();
 		if (GPSTimeStamp == null) {
 			GPSTimeStamp = new int[NGPSDATE];
 		}
 		for (int i = 0; i < NGPSDATE; i++) {
-			GPSTimeStamp[i] = dis.readInt(); 
+			GPSTimeStamp[i] = buffer.getInt(); 
 		}
-		SonarPanOffset = dis.readFloat();
-		SonarTiltOffset = dis.readFloat();
-		SonarRollOffset = dis.readFloat();
-		SonarXOffset = dis.readFloat();
-		SonarYOffset = dis.readFloat();
-		SonarZOffset = dis.readFloat();
+		SonarPanOffset = buffer.getFloat();
+		SonarTiltOffset = buffer.getFloat();
+		SonarRollOffset = buffer.getFloat();
+		SonarXOffset = buffer.getFloat();
+		SonarYOffset = buffer.getFloat();
+		SonarZOffset = buffer.getFloat();
 		if (tmatrix == null) {
 			tmatrix = new float[MATRIXLENGTH];
 		}
 		for (int i = 0; i < MATRIXLENGTH; i++) {
-			tmatrix[i] = dis.readFloat();
+			tmatrix[i] = buffer.getFloat();
 		}
-		SampleRate = dis.readFloat();
-		AccellX = dis.readFloat();
-		AccellY = dis.readFloat();
-		AccellZ = dis.readFloat();
-		PingMode = dis.readInt();
-		FrequencyHiLow = dis.readInt();
-		PulseWidth = dis.readInt();
-		CyclePeriod = dis.readInt();
-		SamplePeriod = dis.readInt();
-		TransmitEnable = dis.readInt();
-		FrameRate = dis.readFloat();
-		SoundSpeed = dis.readFloat();
-		SamplesPerBeam = dis.readInt();
-		Enable150V = dis.readInt();
-		SampleStartDelay = dis.readInt();
-		LargeLens = dis.readInt();
-		TheSystemType = dis.readInt();
-		SonarSerialNumber = dis.readInt();
-		ReservedEK = dis.readLong();
-		ArisErrorFlagsUint = dis.readInt();
-		MissedPackets = dis.readInt();
-		ArisAppVersion = dis.readInt();
-		Available2 = dis.readInt();
-		ReorderedSamples = dis.readInt();
-		Salinity = dis.readInt();
-		Pressure = dis.readFloat();
-		BatteryVoltage = dis.readFloat();
-		MainVoltage = dis.readFloat();
-		SwitchVoltage = dis.readFloat();
-		FocusMotorMoving = dis.readInt();
-		VoltageChanging = dis.readInt();
-		FocusTimeoutFault = dis.readInt();
-		FocusOverCurrentFault = dis.readInt();
-		FocusNotFoundFault = dis.readInt();
-		FocusStalledFault = dis.readInt();
-		FPGATimeoutFault = dis.readInt();
-		FPGABusyFault = dis.readInt();
-		FPGAStuckFault = dis.readInt();
-		CPUTempFault = dis.readInt();
-		PSUTempFault = dis.readInt();
-		WaterTempFault = dis.readInt();
-		HumidityFault = dis.readInt();
-		PressureFault = dis.readInt();
-		VoltageReadFault = dis.readInt();
-		VoltageWriteFault = dis.readInt();
-		FocusCurrentPosition = dis.readInt();
-		TargetPan = dis.readFloat();
-		TargetTilt = dis.readFloat();
-		TargetRoll = dis.readFloat();
-		PanMotorErrorCode = dis.readInt();
-		TiltMotorErrorCode = dis.readInt();
-		RollMotorErrorCode = dis.readInt();
-		PanAbsPosition = dis.readFloat();
-		TiltAbsPosition = dis.readFloat();
-		RollAbsPosition = dis.readFloat();
-		PanAccelX = dis.readFloat();
-		PanAccelY = dis.readFloat();
-		PanAccelZ = dis.readFloat();
-		TiltAccelX = dis.readFloat();
-		TiltAccelY = dis.readFloat();
-		TiltAccelZ = dis.readFloat();
-		RollAccelX = dis.readFloat();
-		RollAccelY = dis.readFloat();
-		RollAccelZ = dis.readFloat();
-		AppliedSettings = dis.readInt();
-		ConstrainedSettings = dis.readInt();
-		InvalidSettings = dis.readInt();
-		EnableInterpacketDelay = dis.readInt();
-		InterpacketDelayPeriod = dis.readInt();
-		Uptime = dis.readInt();
-		ArisAppVersionMajor = dis.readShort();
-		ArisAppVersionMinor = dis.readShort();
-		GoTime = dis.readLong();
-		PanVelocity = dis.readFloat();
-		TiltVelocity = dis.readFloat();
-		RollVelocity = dis.readFloat();
-		GpsTimeAge = dis.readInt();
-		SystemVariant = dis.readInt();
-		CompassRevision = dis.readInt();
-		CompassReserved1 = dis.readFloat();
-		dis.skipBytes(PADDING);
+		SampleRate = buffer.getFloat();
+		AccellX = buffer.getFloat();
+		AccellY = buffer.getFloat();
+		AccellZ = buffer.getFloat();
+		PingMode = buffer.getInt();
+		FrequencyHiLow = buffer.getInt();
+		PulseWidth = buffer.getInt();
+		CyclePeriod = buffer.getInt();
+		SamplePeriod = buffer.getInt();
+		TransmitEnable = buffer.getInt();
+		FrameRate = buffer.getFloat();
+		SoundSpeed = buffer.getFloat();
+		SamplesPerBeam = buffer.getInt();
+		Enable150V = buffer.getInt();
+		SampleStartDelay = buffer.getInt();
+		LargeLens = buffer.getInt();
+		TheSystemType = buffer.getInt();
+		SonarSerialNumber = buffer.getInt();
+		ReservedEK = buffer.getLong();
+		ArisErrorFlagsUint = buffer.getInt();
+		MissedPackets = buffer.getInt();
+		ArisAppVersion = buffer.getInt();
+		Available2 = buffer.getInt();
+		ReorderedSamples = buffer.getInt();
+		Salinity = buffer.getInt();
+		Pressure = buffer.getFloat();
+		BatteryVoltage = buffer.getFloat();
+		MainVoltage = buffer.getFloat();
+		SwitchVoltage = buffer.getFloat();
+		FocusMotorMoving = buffer.getInt();
+		VoltageChanging = buffer.getInt();
+		FocusTimeoutFault = buffer.getInt();
+		FocusOverCurrentFault = buffer.getInt();
+		FocusNotFoundFault = buffer.getInt();
+		FocusStalledFault = buffer.getInt();
+		FPGATimeoutFault = buffer.getInt();
+		FPGABusyFault = buffer.getInt();
+		FPGAStuckFault = buffer.getInt();
+		CPUTempFault = buffer.getInt();
+		PSUTempFault = buffer.getInt();
+		WaterTempFault = buffer.getInt();
+		HumidityFault = buffer.getInt();
+		PressureFault = buffer.getInt();
+		VoltageReadFault = buffer.getInt();
+		VoltageWriteFault = buffer.getInt();
+		FocusCurrentPosition = buffer.getInt();
+		TargetPan = buffer.getFloat();
+		TargetTilt = buffer.getFloat();
+		TargetRoll = buffer.getFloat();
+		PanMotorErrorCode = buffer.getInt();
+		TiltMotorErrorCode = buffer.getInt();
+		RollMotorErrorCode = buffer.getInt();
+		PanAbsPosition = buffer.getFloat();
+		TiltAbsPosition = buffer.getFloat();
+		RollAbsPosition = buffer.getFloat();
+		PanAccelX = buffer.getFloat();
+		PanAccelY = buffer.getFloat();
+		PanAccelZ = buffer.getFloat();
+		TiltAccelX = buffer.getFloat();
+		TiltAccelY = buffer.getFloat();
+		TiltAccelZ = buffer.getFloat();
+		RollAccelX = buffer.getFloat();
+		RollAccelY = buffer.getFloat();
+		RollAccelZ = buffer.getFloat();
+		AppliedSettings = buffer.getInt();
+		ConstrainedSettings = buffer.getInt();
+		InvalidSettings = buffer.getInt();
+		EnableInterpacketDelay = buffer.getInt();
+		InterpacketDelayPeriod = buffer.getInt();
+		Uptime = buffer.getInt();
+		ArisAppVersionMajor = buffer.getShort();
+		ArisAppVersionMinor = buffer.getShort();
+		GoTime = buffer.getLong();
+		PanVelocity = buffer.getFloat();
+		TiltVelocity = buffer.getFloat();
+		RollVelocity = buffer.getFloat();
+		GpsTimeAge = buffer.getInt();
+		SystemVariant = buffer.getInt();
+		CompassRevision = buffer.getInt();
+		CompassReserved1 = buffer.getFloat();
+		buffer.position(buffer.position() + PADDING);
 	}
 
 
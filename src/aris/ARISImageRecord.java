@@ -1,5 +1,6 @@
 package aris;
 
+import java.io.IOException;
 import java.util.Arrays;
 
 import tritechgemini.echogram.EchoLineStore;
@@ -7,22 +8,94 @@ import tritechgemini.imagedata.SonarImageRecordI;
 
 public class ARISImageRecord implements SonarImageRecordI {
 
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
+
+	/**
+	 * Reads a frame header from the file when it's wanted, so that 
+	 * catalogues don't have to hold the whole header of every frame. 
+	 */
+	public interface HeaderSource {
+
+		/**
+		 * Read a frame header
+		 * @param filePosition position of the frame in the file
+		 * @return frame header
+		 * @throws IOException
+		 */
+		public ARISFrameHeader readFrameHeader(long filePosition) throws IOException;
+
+	}
 	
 	private ARISFileHeader fileHeader;
-	private ARISFrameHeader frameHeader;
+
+	/**
+	 * Full frame header. This isn't kept in catalogues, but is read again 
+	 * from the header source if it's wanted. 
+	 */
+	private transient volatile ARISFrameHeader frameHeader;
+	private transient HeaderSource headerSource;
+
+	/*
+	 * Frame header fields needed for the catalogue.
+	 */
+	private long filePosition;
+	private int frameIndex;
+	private long frameTime;
+	private float windowStart, windowLength;
+	private int samplesPerBeam;
+	private float soundSpeed;
+	private int systemType;
+
 	private byte[] imageData;
 	private short[] shortImageData;
 	private double[] bearingTable;
 	private long loadTime;
-	private int extraRanges;
 
 	private transient EchoLineStore echoLineStore;
 
 	public ARISImageRecord(ARISFileHeader fileHeader, ARISFrameHeader frameHeader, double[] bearingTable) {
+		this(fileHeader, frameHeader, bearingTable, null);
+	}
+
+	/**
+	 * @param fileHeader file header
+	 * @param frameHeader frame header
+	 * @param bearingTable bearing table
+	 * @param headerSource source to read the frame header from when it's wanted. If this
+	 * isn't null, only the fields needed for the catalogue are kept from the frame header. 
+	 */
+	public ARISImageRecord(ARISFileHeader fileHeader, ARISFrameHeader frameHeader, double[] bearingTable, HeaderSource headerSource) {
 		this.fileHeader = fileHeader;
-		this.frameHeader = frameHeader;
 		this.bearingTable = bearingTable;
+		this.headerSource = headerSource;
+		setFrameHeader(frameHeader);
+		if (headerSource != null) {
+			this.frameHeader = null;
+		}
+	}
+
+	/**
+	 * Set the frame header, e.g. after it's been read again with the frame data. 
+	 * @param frameHeader frame header
+	 */
+	public void setFrameHeader(ARISFrameHeader frameHeader) {
+		filePosition = frameHeader.getFilePosition();
+		frameIndex = frameHeader.getFrameIndex();
+		frameTime = frameHeader.getFrameTime();
+		windowStart = frameHeader.getWindowStart();
+		windowLength = frameHeader.getWindowLength();
+		samplesPerBeam = frameHeader.getSamplesPerBeam();
+		soundSpeed = frameHeader.getSoundSpeed();
+		systemType = frameHeader.getTheSystemType();
+		this.frameHeader = frameHeader;
+	}
+
+	/**
+	 * Set the source to read the frame header from when it's not in memory. 
+	 * @param headerSource header source
+	 */
+	public void setHeaderSource(HeaderSource headerSource) {
+		this.headerSource = headerSource;
 	}
 
 	/**
@@ -33,10 +106,48 @@ public class ARISImageRecord implements SonarImageRecordI {
 	}
 
 	/**
-	 * @return the frameHeader
+	 * Get the full frame header, reading it from the file if it's not in memory. 
+	 * @return the frameHeader, or null if it's not in memory and can't be read. 
 	 */
 	public ARISFrameHeader getFrameHeader() {
-		return frameHeader;
+		ARISFrameHeader header = frameHeader;
+		if (header == null && headerSource != null) {
+			try {
+				header = headerSource.readFrameHeader(filePosition);
+				frameHeader = header;
+			} catch (IOException e) {
+				System.out.println("Unable to read ARIS frame header: " + e.getMessage());
+			}
+		}
+		return header;
+	}
+
+	/**
+	 * @return position of the frame in the file
+	 */
+	public long getFilePosition() {
+		return filePosition;
+	}
+
+	/**
+	 * @return number of samples in each beam in the file
+	 */
+	public int getSamplesPerBeam() {
+		return samplesPerBeam;
+	}
+
+	/**
+	 * @return window start in metres
+	 */
+	public float getWindowStart() {
+		return windowStart;
+	}
+
+	/**
+	 * @return window length in metres
+	 */
+	public float getWindowLength() {
+		return windowLength;
 	}
 
 	@Override
@@ -45,13 +156,13 @@ public class ARISImageRecord implements SonarImageRecordI {
 		 * ARIS time is microsecs since 1970. Same epoch, so simply
 		 * divide by 1000;
 		 */
-		long arisT = frameHeader.getFrameTime();
+		long arisT = frameTime;
 		return arisT/1000;
 	}
 
 	@Override
 	public int getSonarPlatform() {
-		return frameHeader.getTheSystemType();
+		return systemType;
 	}
 
 	@Override
@@ -97,12 +208,17 @@ public class ARISImageRecord implements SonarImageRecordI {
 
 	@Override
 	public int getnRange() {
-		return frameHeader.getSamplesPerBeam() + extraRanges;
+		return samplesPerBeam;
 	}
 
 	@Override
 	public double getMaxRange() {
-		return frameHeader.getWindowLength() + frameHeader.getWindowStart();
+		return windowLength + windowStart;
+	}
+
+	@Override
+	public double getMinRange() {
+		return windowStart;
 	}
 
 	@Override
@@ -117,17 +233,17 @@ public class ARISImageRecord implements SonarImageRecordI {
 
 	@Override
 	public int getRecordNumber() {
-		return frameHeader.getFrameIndex();
+		return frameIndex;
 	}
 
 	@Override
 	public int getSonarType() {
-		return frameHeader.getTheSystemType();
+		return systemType;
 	}
 
 	@Override
 	public double getSoS() {
-		return frameHeader.getSoundSpeed();
+		return soundSpeed;
 	}
 
 	@Override
@@ -150,6 +266,16 @@ public class ARISImageRecord implements SonarImageRecordI {
 	public void freeImageData() {
 		imageData = null;
 		shortImageData = null;
+		if (headerSource != null) {
+			// can be read again if it's wanted. 
+			frameHeader = null;
+		}
+	}
+
+	@Override
+	public long getDataBytes() {
+		// byte data and the short copy, which is kept once it's been made. 
+		return 3L * getnBeam() * getnRange();
 	}
 
 	@Override
@@ -191,14 +317,10 @@ public class ARISImageRecord implements SonarImageRecordI {
 
 	@Override
 	public int getRangeIndex(double range) {
-		int ind = (int) Math.round(range * getnRange() / getMaxRange());
+		int ind = (int) Math.round((range - windowStart) * samplesPerBeam / windowLength);
 		return ind;
 	}
 
-	public void setExtraRanges(int extras) {
-		extraRanges = extras;
-	}
-
 	@Override
 	public EchoLineStore getEchoLineStore() {
 		if (echoLineStore == null) {
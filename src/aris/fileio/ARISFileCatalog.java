@@ -1,12 +1,22 @@
 package aris.fileio;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import aris.ARISFileHeader;
 import aris.ARISFrameHeader;
@@ -27,25 +37,67 @@ import tritechgemini.imagedata.SonarImageRecordI;
  * @author Doug Gillespie
  *
  */
-public class ARISFileCatalog extends GeminiFileCatalog<ARISImageRecord> {
+public class ARISFileCatalog extends GeminiFileCatalog<ARISImageRecord> implements ARISImageRecord.HeaderSource {
 
 	private static final long serialVersionUID = 1L;
 	
 	private ARISFileHeader fileHeader;
 	private volatile boolean continueStream;
 
+	/**
+	 * Channel kept open for reading frames by position, so that loading a 
+	 * frame is a single read without opening the file. 
+	 */
+	private transient FileChannel dataChannel;
+
+	/**
+	 * Buffers for reading a frame header and its data with one read. Each thread has 
+	 * its own, since frames may be loaded in several threads at once. 
+	 */
+	private static ThreadLocal<ByteBuffer> frameBuffer = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(ARISFrameHeader.DATASIZE).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	};
+
+	/**
+	 * Catalogue files by working out where the frames are from the frame size
+	 * rather than reading every frame header.  
+	 */
+	private static boolean fastCatalogue = false;
+
+	/**
+	 * Number of frames spread through the file at which the frame size is 
+	 * checked when cataloguing with computed offsets. 
+	 */
+	private static final int STRIDECHECKS = 32;
+
+	/**
+	 * Number of buffers frames are read into when streaming. 
+	 */
+	private static final int STREAMSLOTS = 4;
+
 	public ARISFileCatalog(String filePath) {
 		super(filePath);
 	}
 
 	@Override
 	protected void checkDeserialisedCatalog(String filePath) {
-		// TODO Auto-generated method stub
-
+		// frame headers aren't kept in the catalogue, so are read from the file when wanted. 
+		ArrayList<ARISImageRecord> records = getImageRecords();
+		if (records != null) {
+			for (ARISImageRecord record : records) {
+				record.setHeaderSource(this);
+			}
+		}
 	}
 
 	@Override
 	public boolean buildCatalogue(ArrayList<ARISImageRecord> imageRecords) throws Exception {
+		if (fastCatalogue && buildFastCatalogue(imageRecords)) {
+			return true;
+		}
 		InputStream is = new BufferedInputStream(new FileInputStream(getFilePath()));
 		CountingInputStream cis;
 		DataInput dis = new LittleEndianDataInputStream(cis = new CountingInputStream(is));
@@ -58,7 +110,7 @@ public class ARISFileCatalog extends GeminiFileCatalog<ARISImageRecord> {
 			try {
 				ARISFrameHeader frameHeader = new ARISFrameHeader(cis.getPos());
 				frameHeader.readHeader(dis);
-				ARISImageRecord im = new ARISImageRecord(fileHeader, frameHeader, bearingTable);
+				ARISImageRecord im = new ARISImageRecord(fileHeader, frameHeader, bearingTable, this);
 				imageRecords.add(im);
 				int dataSize = frameHeader.getSamplesPerBeam() * fileHeader.getNumRawBeams();
 				dis.skipBytes(dataSize);
@@ -74,86 +126,291 @@ public class ARISFileCatalog extends GeminiFileCatalog<ARISImageRecord> {
 		return true;
 	}
 
+	/**
+	 * Catalogue the file without reading every frame header. All frames are the
+	 * same size so long as the number of samples per beam doesn't change, so their
+	 * positions can be worked out. The number of samples is checked at frames spread
+	 * through the file, then just the start of each frame header, with the index,
+	 * times and window, is read. The sound speed and system type are taken from the 
+	 * first frame until the frame is loaded. 
+	 * @param imageRecords records
+	 * @return true if catalogued, false if the frame size isn't constant, in which 
+	 * case the file has to be catalogued by reading every frame.  
+	 * @throws IOException
+	 */
+	private boolean buildFastCatalogue(ArrayList<ARISImageRecord> imageRecords) throws IOException {
+		long fileLength = new File(getFilePath()).length();
+		int headBytes = ARISFileHeader.DATASIZE;
+		if (fileLength < headBytes + ARISFrameHeader.DATASIZE) {
+			return false;
+		}
+		ByteBuffer buffer = readFrame(0, headBytes);
+		ARISFileHeader fileHead = new ARISFileHeader(getFilePath());
+		fileHead.readHeader(new LittleEndianDataInputStream(new ByteArrayInputStream(buffer.array(), 0, headBytes)));
+		int nBeam = fileHead.getNumRawBeams();
+		ARISFrameHeader firstHead = new ARISFrameHeader(headBytes);
+		firstHead.readHeader(readFrame(headBytes, ARISFrameHeader.DATASIZE));
+		int samplesPerBeam = firstHead.getSamplesPerBeam();
+		if (nBeam <= 0 || samplesPerBeam <= 0) {
+			return false;
+		}
+		long frameBytes = ARISFrameHeader.DATASIZE + (long) samplesPerBeam * nBeam;
+		long nFrames = (fileLength - headBytes) / frameBytes;
+		int nCheck = (int) Math.min(nFrames, STRIDECHECKS);
+		for (int i = 1; i < nCheck; i++) {
+			long iFrame = (nFrames-1) * i / (nCheck-1);
+			buffer = readFrame(headBytes + iFrame * frameBytes + ARISFrameHeader.SAMPLESPERBEAMPOS, Integer.BYTES);
+			if (buffer.getInt() != samplesPerBeam) {
+				return false;
+			}
+		}
+		ARISBeamData beamData = ARISBeamData.getBeamData(nBeam);
+		double[] bearingTable = beamData.getBeamCentresRadians();
+		ArrayList<ARISImageRecord> newRecords = new ArrayList<>((int) nFrames);
+		for (long iFrame = 0; iFrame < nFrames; iFrame++) {
+			long filePos = headBytes + iFrame * frameBytes;
+			ARISFrameHeader frameHeader = firstHead.copy(filePos);
+			frameHeader.readHeaderStart(readFrame(filePos, ARISFrameHeader.STARTSIZE));
+			if (frameHeader.getVersion() != firstHead.getVersion()) {
+				// not at the start of a frame, so frame size must have changed between checks. 
+				return false;
+			}
+			newRecords.add(new ARISImageRecord(fileHead, frameHeader, bearingTable, this));
+		}
+		fileHeader = fileHead;
+		imageRecords.addAll(newRecords);
+		return true;
+	}
+
+	/**
+	 * @return true if files are catalogued by working out the frame positions
+	 * from the frame size, rather than reading every frame header. 
+	 */
+	public static boolean isFastCatalogue() {
+		return fastCatalogue;
+	}
+
+	/**
+	 * Set whether files are catalogued by working out the frame positions from the
+	 * frame size, rather than reading every frame header. Only the start of each 
+	 * frame header, with its times and window, is read, so the sound speed and system 
+	 * type will be those of the first frame until a frame is loaded. Files where the 
+	 * frame size changes are still catalogued by reading every frame header. 
+	 * @param fastCatalogue true to catalogue with computed frame positions
+	 */
+	public static void setFastCatalogue(boolean fastCatalogue) {
+		ARISFileCatalog.fastCatalogue = fastCatalogue;
+	}
+
 	@Override
 	public boolean loadFullRecord(ARISImageRecord arisRecord) throws IOException {
 		/*
-		 * Gets a little complex since the ARIS data often doesn't start until some min
-		 * distance (unlike Tritech - though I think Tritech support this too !). 
-		 * So for now, pack the data at low values to fill the fan, but do something more
-		 * clever later on. 
+		 * ARIS data often don't start until some min distance (unlike Tritech), so
+		 * the record gives the window start as its minimum range. 
 		 */
-		InputStream is = new BufferedInputStream(new FileInputStream(getFilePath()));
-		DataInput dataInput = new LittleEndianDataInputStream(is);
-		ARISFrameHeader frameHead = arisRecord.getFrameHeader();
-		dataInput.skipBytes((int) frameHead.getFilePosition());
-		readFullRecord(arisRecord, dataInput);
-		is.close();
+		long nStart = System.nanoTime();
+		int nBeam = arisRecord.getFileHeader().getNumRawBeams();
+		int dataSize = arisRecord.getSamplesPerBeam() * nBeam;
+		ByteBuffer buffer = readFrame(arisRecord.getFilePosition(), ARISFrameHeader.DATASIZE + dataSize);
+		ARISFrameHeader frameHead = new ARISFrameHeader(arisRecord.getFilePosition());
+		frameHead.readHeader(buffer);
+		if (frameHead.getSamplesPerBeam() * nBeam != dataSize) {
+			// file doesn't match the catalogue
+			return false;
+		}
+		arisRecord.setFrameHeader(frameHead);
+		byte[] data = new byte[dataSize];
+		buffer.get(data);
+		arisRecord.setImageData(data);
+		arisRecord.setLoadTime(System.nanoTime()-nStart);
 		return true;
 	}
-	private boolean readFullRecord(ARISImageRecord arisRecord, DataInput dataInput) throws IOException {
-		long nStart = System.nanoTime();
-		ARISFileHeader fileHead = arisRecord.getFileHeader();
-		ARISFrameHeader frameHead = arisRecord.getFrameHeader();
 
-		frameHead.readHeader(dataInput);
-		int nBeam = fileHead.getNumRawBeams();
-		int dataSize = frameHead.getSamplesPerBeam() * nBeam;
-		/*
-		 * sort out any packing that's needed. 
+	@Override
+	public ARISFrameHeader readFrameHeader(long filePosition) throws IOException {
+		ARISFrameHeader frameHead = new ARISFrameHeader(filePosition);
+		frameHead.readHeader(readFrame(filePosition, ARISFrameHeader.DATASIZE));
+		return frameHead;
+	}
+
+	/**
+	 * Read a frame from the file with one positional read. 
+	 * @param filePosition position of the frame in the file
+	 * @param nBytes number of bytes to read
+	 * @return little endian buffer holding the data. This is reused by the next 
+	 * call in the same thread. 
+	 * @throws IOException if the data can't be read. EOFException if the file ends
+	 * before all the data have been read. 
+	 */
+	private ByteBuffer readFrame(long filePosition, int nBytes) throws IOException {
+		ByteBuffer buffer = frameBuffer.get();
+		if (buffer.capacity() < nBytes) {
+			buffer = ByteBuffer.allocate(nBytes).order(ByteOrder.LITTLE_ENDIAN);
+			frameBuffer.set(buffer);
+		}
+		buffer.clear();
+		buffer.limit(nBytes);
+		FileChannel channel = getDataChannel(null);
+		boolean reopened = false;
+		while (buffer.hasRemaining()) {
+			int n;
+			try {
+				n = channel.read(buffer, filePosition + buffer.position());
+			}
+			catch (ClosedByInterruptException e) {
+				throw e;
+			}
+			catch (ClosedChannelException e) {
+				/*
+				 * closed by closeDataFile, or by another thread being interrupted 
+				 * while reading, so open it again.  
+				 */
+				if (reopened) {
+					throw e;
+				}
+				channel = getDataChannel(channel);
+				reopened = true;
+				continue;
+			}
+			if (n < 0) {
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Get the channel for reading the data file, opening it if it's not open. 
+	 * @param closedChannel channel which has been found to be closed, or null
+	 * @return open channel
+	 * @throws IOException if the file can't be opened
+	 */
+	private synchronized FileChannel getDataChannel(FileChannel closedChannel) throws IOException {
+		if (dataChannel == null || dataChannel == closedChannel || dataChannel.isOpen() == false) {
+			dataChannel = FileChannel.open(Paths.get(getFilePath()), StandardOpenOption.READ);
+		}
+		return dataChannel;
+	}
+
+	/**
+	 * Close the data file if it's been opened to load frames. It's opened
+	 * again if more frames are loaded. 
+	 */
+	@Override
+	public synchronized void closeDataFile() {
+		if (dataChannel == null) {
+			return;
+		}
+		try {
+			dataChannel.close();
+		} catch (IOException e) {
+			System.out.println("Error closing ARIS file " + getFilePath() + ": " + e.getMessage());
+		}
+		dataChannel = null;
+	}
+
+	/**
+	 * One of a ring of buffers used to pass frames read from the file to the 
+	 * thread streaming them. 
+	 */
+	private static class StreamSlot {
+
+		private ByteBuffer buffer = ByteBuffer.allocate(ARISFrameHeader.DATASIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		private long filePosition;
+
+		/**
+		 * Error reading the file, set in the slot that marks the end of the stream. 
 		 */
-		double rPerM =  frameHead.getSamplesPerBeam() / (frameHead.getWindowLength());
-		int extras = (int) (frameHead.getWindowStart() * rPerM);
-		int extraBytes = extras * nBeam;
+		private Throwable error;
 
-		byte[] data = new byte[dataSize + extraBytes];
-		dataInput.readFully(data,extraBytes,dataSize);
-		arisRecord.setExtraRanges(extras);
-		arisRecord.setImageData(data);
-		long nEnd = System.nanoTime();
-		arisRecord.setLoadTime(nEnd-nStart);
-		return true;
 	}
 
 	@Override
 	public CatalogStreamSummary streamCatalog(CatalogStreamObserver streamObserver) throws CatalogException {
 		int nFrames = 0;
 		long firstTime = 0, lastTime = 0;
+		continueStream = true;
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(Paths.get(getFilePath()), StandardOpenOption.READ);
+		}
+		catch (IOException e) {
+			throw new CatalogException(e);
+		}
+		Thread reader = null;
 		try {
-			InputStream is = new BufferedInputStream(new FileInputStream(getFilePath()));
-			CountingInputStream cis;
-			DataInput dis = new LittleEndianDataInputStream(cis = new CountingInputStream(is));
+			ByteBuffer headBuffer = ByteBuffer.allocate(ARISFileHeader.DATASIZE);
+			if (readFully(channel, headBuffer, 0) == false) {
+				throw new EOFException("No file header in ARIS file " + getFilePath());
+			}
 			fileHeader = new ARISFileHeader(getFilePath());
-			fileHeader.readHeader(dis);
-			ARISBeamData beamData = ARISBeamData.getBeamData(fileHeader.getNumRawBeams());
+			fileHeader.readHeader(new LittleEndianDataInputStream(new ByteArrayInputStream(headBuffer.array())));
+			final int nBeam = fileHeader.getNumRawBeams();
+			ARISBeamData beamData = ARISBeamData.getBeamData(nBeam);
 			double[] bearingTable = beamData.getBeamCentresRadians();
-			continueStream = true;
 			ArrayList<ARISImageRecord> catalogRecords = new ArrayList<ARISImageRecord>();
 			setImageRecords(catalogRecords);
+			/*
+			 * frames are read in another thread into a ring of buffers, so reading the 
+			 * next frames goes on while the observer works on this one.  
+			 */
+			final ArrayBlockingQueue<StreamSlot> freeSlots = new ArrayBlockingQueue<>(STREAMSLOTS);
+			final ArrayBlockingQueue<StreamSlot> fullSlots = new ArrayBlockingQueue<>(STREAMSLOTS+1);
+			for (int i = 0; i < STREAMSLOTS; i++) {
+				freeSlots.add(new StreamSlot());
+			}
+			final StreamSlot endSlot = new StreamSlot();
+			reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					readStreamFrames(channel, nBeam, freeSlots, fullSlots, endSlot);
+				}
+			}, "ARIS stream reader");
+			reader.setDaemon(true);
+			reader.start();
 			while (continueStream) {
-				try {
-					ARISFrameHeader frameHeader = new ARISFrameHeader(cis.getPos());
-					ARISImageRecord imageRecord = new ARISImageRecord(fileHeader, frameHeader, bearingTable);
-					readFullRecord(imageRecord, dis);
-					if (streamObserver != null) {
-						continueStream = streamObserver.newImageRecord(imageRecord);
+				StreamSlot slot = fullSlots.take();
+				if (slot == endSlot) {
+					if (slot.error != null) {
+						throw new CatalogException(slot.error);
 					}
-					ARISImageRecord clonedRecord = imageRecord.clone();
-					clonedRecord.freeImageData();
-					catalogRecords.add(clonedRecord);
-					if (firstTime == 0) {
-						firstTime = imageRecord.getRecordTime();
-					}
-					lastTime = imageRecord.getRecordTime();
-					nFrames ++;
-				}
-				catch (EOFException e) {
 					break;
 				}
+				long nStart = System.nanoTime();
+				ARISFrameHeader frameHeader = new ARISFrameHeader(slot.filePosition);
+				frameHeader.readHeader(slot.buffer);
+				byte[] data = new byte[frameHeader.getSamplesPerBeam() * nBeam];
+				slot.buffer.get(data);
+				freeSlots.add(slot);
+				ARISImageRecord imageRecord = new ARISImageRecord(fileHeader, frameHeader, bearingTable);
+				imageRecord.setImageData(data);
+				imageRecord.setLoadTime(System.nanoTime()-nStart);
+				// catalogue record only keeps what's needed from the header, and no data. 
+				catalogRecords.add(new ARISImageRecord(fileHeader, frameHeader, bearingTable, this));
+				if (streamObserver != null) {
+					continueStream = streamObserver.newImageRecord(imageRecord);
+				}
+				if (firstTime == 0) {
+					firstTime = imageRecord.getRecordTime();
+				}
+				lastTime = imageRecord.getRecordTime();
+				nFrames ++;
 			}
 		}
 		catch (Exception e) {
 			throw new CatalogException(e);
 		}
+		finally {
+			if (reader != null) {
+				reader.interrupt();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
 		CatalogStreamSummary cs;
 		if (continueStream == false) {
 			// if we told it to stop. If it was EOF, continueStream will still be true
@@ -168,6 +425,85 @@ public class ARISFileCatalog extends GeminiFileCatalog<ARISImageRecord> {
 		return cs;
 	}
 
+	/**
+	 * Read frames in order into free buffers and queue them for streaming. This runs in 
+	 * its own thread until the end of the file, or until it's interrupted. 
+	 * @param channel file channel
+	 * @param nBeam number of beams
+	 * @param freeSlots buffers waiting to be filled
+	 * @param fullSlots frames waiting to be streamed
+	 * @param endSlot slot to queue at the end of the file or if there's an error
+	 */
+	private void readStreamFrames(FileChannel channel, int nBeam, ArrayBlockingQueue<StreamSlot> freeSlots, 
+			ArrayBlockingQueue<StreamSlot> fullSlots, StreamSlot endSlot) {
+		long filePosition = ARISFileHeader.DATASIZE;
+		try {
+			while (true) {
+				StreamSlot slot = freeSlots.take();
+				ByteBuffer buffer = slot.buffer;
+				buffer.clear();
+				buffer.limit(ARISFrameHeader.DATASIZE);
+				if (readFully(channel, buffer, filePosition) == false) {
+					break;
+				}
+				long dataBytes = (long) buffer.getInt(ARISFrameHeader.SAMPLESPERBEAMPOS) * nBeam;
+				if (dataBytes < 0 || dataBytes > Integer.MAX_VALUE - ARISFrameHeader.DATASIZE) {
+					throw new IOException("Bad ARIS frame size at file position " + filePosition);
+				}
+				int frameBytes = ARISFrameHeader.DATASIZE + (int) dataBytes;
+				if (frameBytes > channel.size() - filePosition) {
+					// last frame wasn't completely written, or the header is corrupt. Either 
+					// way, there is no more data to stream and no point in allocating for it. 
+					break;
+				}
+				if (frameBytes > buffer.capacity()) {
+					// only happens for the first frames, or if frames get bigger. 
+					ByteBuffer newBuffer = ByteBuffer.allocate(frameBytes).order(ByteOrder.LITTLE_ENDIAN);
+					buffer.flip();
+					newBuffer.put(buffer);
+					slot.buffer = buffer = newBuffer;
+				}
+				buffer.limit(frameBytes);
+				if (readFully(channel, buffer, filePosition) == false) {
+					// last frame wasn't completely written. 
+					break;
+				}
+				buffer.flip();
+				slot.filePosition = filePosition;
+				filePosition += frameBytes;
+				fullSlots.put(slot);
+			}
+		}
+		catch (InterruptedException | ClosedByInterruptException e) {
+			// streaming has stopped. 
+		}
+		catch (Throwable e) {
+			endSlot.error = e;
+		}
+		finally {
+			// always queue the end, or the streaming thread will wait for ever. There
+			// is always room for it since it's one more than the number of buffers. 
+			fullSlots.add(endSlot);
+		}
+	}
+
+	/**
+	 * Fill the rest of a buffer from the file. 
+	 * @param channel file channel
+	 * @param buffer buffer, filled from its position up to its limit
+	 * @param filePosition file position of the start of the buffer
+	 * @return false if the file ended before the buffer was full. 
+	 * @throws IOException
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long filePosition) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, filePosition + buffer.position()) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public void stopCatalogStream() {
 		continueStream = false;
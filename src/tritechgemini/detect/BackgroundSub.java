@@ -19,6 +19,12 @@ public class BackgroundSub {
 	 * Store number of bins in background so we can handle resizing sensibly. 
 	 */
 	private int backgroundNRange, backgroundNBearing;
+
+	/**
+	 * Range of the first range bin in the background. Only changes for 
+	 * sonars which don't start at zero range, e.g. ARIS. 
+	 */
+	private double backgroundMinRange;
 	
 	/**
 	 * Trying to do everything with fixed point maths, so we  
@@ -62,6 +68,7 @@ public class BackgroundSub {
 	 * @return clone of the input record with updated background. 
 	 */
 	public SonarImageRecordI removeBackground(SonarImageRecordI geminiRecord, boolean updateFirst) {
+		alignBackground(geminiRecord);
 		byte[] data = geminiRecord.getImageData();
 		byte[] newData = removeBackground(data, geminiRecord.getnBeam(), geminiRecord.getnRange(), updateFirst);
 		lastBackgroundRecord = geminiRecord;
@@ -71,7 +78,67 @@ public class BackgroundSub {
 	}
 	
 	/**
-	 * Remove background from raw image data
+	 * Images which don't start at zero range (e.g. ARIS windows) can move in or 
+	 * out between frames, so shift the background so that each of its bins 
+	 * stays at the same range as the image bins. 
+	 * @param imageRecord image record
+	 */
+	private void alignBackground(SonarImageRecordI imageRecord) {
+		double minRange = imageRecord.getMinRange();
+		if (background == null) {
+			backgroundMinRange = minRange;
+			return;
+		}
+		int nRange = imageRecord.getnRange();
+		if (minRange == backgroundMinRange || nRange <= 0) {
+			return;
+		}
+		double rangeStep = (imageRecord.getMaxRange() - minRange) / nRange;
+		if (rangeStep <= 0) {
+			return;
+		}
+		int shift = (int) Math.round((minRange - backgroundMinRange) / rangeStep);
+		if (Math.abs(shift) >= backgroundNRange) {
+			// no overlap, so start again. 
+			background = null;
+			backgroundMinRange = minRange;
+			return;
+		}
+		if (shift == 0) {
+			return;
+		}
+		background = shiftRanges(background, shift);
+		if (variance != null) {
+			variance = shiftRanges(variance, shift);
+		}
+		backgroundMinRange += shift * rangeStep;
+	}
+
+	/**
+	 * Shift background data by a number of range bins, copying the 
+	 * first or last range into bins that weren't in the old data. 
+	 * @param data background data
+	 * @param shift number of bins to shift by. Positive if the image has moved out. 
+	 * @return shifted data
+	 */
+	private int[] shiftRanges(int[] data, int shift) {
+		int nBearing = backgroundNBearing;
+		if (nBearing <= 0) {
+			return data;
+		}
+		int nRange = data.length / nBearing;
+		int[] newData = new int[data.length];
+		for (int r = 0; r < nRange; r++) {
+			int oldR = Math.max(0, Math.min(r + shift, nRange-1));
+			System.arraycopy(data, oldR*nBearing, newData, r*nBearing, nBearing);
+		}
+		return newData;
+	}
+
+	/**
+	 * Remove background from raw image data. This can't tell if the image 
+	 * has moved in range, so use removeBackground(SonarImageRecordI, boolean) 
+	 * for images which don't start at zero range. 
 	 * @param data raw image data 
 	 * @param updateFirst update the background measurement before subtraction
 	 * @return new array of data with background subtracted. 
@@ -178,9 +178,11 @@ public class DetectedRegion extends TwoThresholdDetector {
 		// reverse these since the tabel is backwards. 
 		maxBearing = bearingTable[minBearingBin];
 		minBearing = bearingTable[maxBearingBin];
-		minRange = geminiRecord.getMaxRange() * (double) minRangeBin / (double) geminiRecord.getnRange();
-		maxRange = geminiRecord.getMaxRange() * (double) maxRangeBin / (double) geminiRecord.getnRange();
-		peakRange = geminiRecord.getMaxRange() * (double) peakRangeBin / (double) geminiRecord.getnRange();
+		double rangeStart = geminiRecord.getMinRange();
+		double rangeStep = (geminiRecord.getMaxRange() - rangeStart) / (double) geminiRecord.getnRange();
+		minRange = rangeStart + rangeStep * minRangeBin;
+		maxRange = rangeStart + rangeStep * maxRangeBin;
+		peakRange = rangeStart + rangeStep * peakRangeBin;
 		peakBearing = bearingTable[peakBearingBin];
 		/*
 		 * now work out a single size value for the object in metres. This is basically
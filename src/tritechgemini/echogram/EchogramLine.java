@@ -29,7 +29,8 @@ public class EchogramLine {
 	}
 
 	/**
-	 * @return the data
+	 * @return the data, with the first bin at zero range. Images which start 
+	 * further out have empty bins up to the start of their data. 
 	 */
 	public short[] getData() {
 		return data;
@@ -54,18 +54,35 @@ public class StandardEchogramLineMaker implements EchogramLineMaker {
 			}
 		}
 		short[] shortData = imageRecord.getShortImageData();
+		if (hasIm == false && multiFileCatalog != null) {
+			// only loaded to make the line, so the data can be freed when they're needed. 
+			multiFileCatalog.releaseRecord(imageRecord);
+		}
 		if (shortData == null) {
 			return null;
 		}
 		int nRange = imageRecord.getnRange();
 		int nBearing = imageRecord.getnBeam();
-		short[] echoData = new short[nRange];
+		/*
+		 * Echogram lines start at zero range, so if the image starts further out
+		 * (e.g. an ARIS window start) pad the start of the line with empty bins
+		 * of the same size as the image range bins. 
+		 */
+		int nPad = 0;
+		double minRange = imageRecord.getMinRange();
+		if (minRange > 0 && nRange > 0) {
+			double rangeStep = (imageRecord.getMaxRange() - minRange) / nRange;
+			if (rangeStep > 0) {
+				nPad = (int) Math.round(minRange / rangeStep);
+			}
+		}
+		short[] echoData = new short[nPad + nRange];
 		int bb0 = checkbinRange(echoLineDef.bearingBin1, nBearing);
 		int bb1 = checkbinRange(echoLineDef.bearingBin2, nBearing);
 		for (int ir = 0; ir < nRange; ir++) {
 			int s0 = nBearing*ir + bb0;
 			int s1 = nBearing*ir + bb1;
-			echoData[ir] = pickValue(shortData, s0, s1, echoLineDef);
+			echoData[nPad + ir] = pickValue(shortData, s0, s1, echoLineDef);
 		}
 		
 		return new EchogramLine(imageRecord, echoLineDef, echoData);
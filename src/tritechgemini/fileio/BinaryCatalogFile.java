@@ -0,0 +1,672 @@
+package tritechgemini.fileio;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+import tritechgemini.imagedata.SonarImageRecordI;
+
+/**
+ * Compact binary catalogue file. This replaces the Java serialized catalogues
+ * for GLF and ECD files, which were large and slow to load since every record was
+ * written as a separate object.
+ * <p>
+ * Everything is little endian. The file has a short header, the sonar summary
+ * information, a single copy of each different bearing table, then the
+ * catalogue specific data which are mostly columns of record values, i.e. all
+ * the file positions, then all the times, etc.
+ * <br>The whole file is read into memory in one go and records are only
+ * made from the columns when they are needed.
+ * <p>
+ * Old serialized catalogues are still read, but are replaced with this format
+ * the next time they are written.
+ * @author Doug Gillespie
+ *
+ */
+public class BinaryCatalogFile {
+
+	/**
+	 * Magic number at start of file, "GCAT" in little endian order. Serialized
+	 * files start with 0xACED so there is no confusion between the two.
+	 */
+	public static final int MAGIC = 0x54414347;
+
+	/**
+	 * Version 2 added the length of the data file and the position of the end
+	 * of the last record, so that files still being written can be catalogued
+	 * from where the catalogue ended. Version 3 added the modification time and
+	 * sampled hash of the data file, to tell if it's been replaced. Version 4 added
+	 * the times of the first and last records, so that a summary of the catalogue
+	 * can be read from the start of the file without reading the rest.
+	 */
+	public static final int VERSION = 4;
+
+	/**
+	 * Number of bytes to read when reading only the summary. More are read
+	 * if there are a lot of sonars.
+	 */
+	private static final int SUMMARYBYTES = 1024;
+
+	public static final int TYPE_GLF = 1;
+
+	public static final int TYPE_ECD = 2;
+
+	private ByteBuffer buffer;
+
+	private int version;
+
+	private int catalogType;
+
+	private int nRecords;
+
+	private long dataFileLength;
+
+	private long dataEndPosition;
+
+	private long dataFileTime;
+
+	private long dataFileHash;
+
+	private long firstRecordTime = Long.MIN_VALUE;
+
+	private long lastRecordTime = Long.MIN_VALUE;
+
+	private double[][] bearingTables;
+
+	private int bearingColumn;
+
+	private int position;
+
+	private BinaryCatalogFile(ByteBuffer buffer) {
+		this.buffer = buffer;
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Check whether a catalogue file is in this binary format.
+	 * @param catFile catalogue file
+	 * @return true if it has the right magic number.
+	 */
+	public static boolean isBinaryCatalog(File catFile) {
+		if (catFile == null || catFile.length() < 4) {
+			return false;
+		}
+		try {
+			FileInputStream fis = new FileInputStream(catFile);
+			LittleEndianDataInputStream dis = new LittleEndianDataInputStream(fis);
+			int magic = dis.readInt();
+			dis.close();
+			return magic == MAGIC;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Read a binary catalogue file and make the catalogue. The records are
+	 * not made until they are used.
+	 * @param catFile catalogue file
+	 * @param filePath path of the data file
+	 * @return file catalogue or null if the file could not be read.
+	 */
+	public static GeminiFileCatalog<?> readCatalog(File catFile, String filePath) {
+		ByteBuffer buffer;
+		try {
+			buffer = readFile(catFile);
+		} catch (IOException e) {
+			System.out.println("Unable to read binary Gemini catalogue file: " + e.getMessage());
+			return null;
+		}
+		return readCatalog(buffer, catFile.getName(), filePath);
+	}
+
+	/**
+	 * Make a catalogue from binary catalogue data that have already been read 
+	 * into memory, e.g. as part of a FolderCatalogIndex. The buffer is kept by 
+	 * the catalogue to make records from when they are needed, so must not be changed. 
+	 * @param buffer catalogue data, starting at position 0. 
+	 * @param catName name of catalogue, for error messages. 
+	 * @param filePath path of the data file
+	 * @return file catalogue or null if the data are not a valid catalogue.
+	 */
+	public static GeminiFileCatalog<?> readCatalog(ByteBuffer buffer, String catName, String filePath) {
+		BinaryCatalogFile binaryFile = open(buffer, catName);
+		if (binaryFile == null) {
+			return null;
+		}
+		GeminiFileCatalog<?> catalog = makeCatalog(binaryFile, catName, filePath);
+		if (catalog == null || binaryFile.readInto(catalog, catName) == false) {
+			return null;
+		}
+		return catalog;
+	}
+
+	/**
+	 * Read a catalogue file back into an existing catalogue whose records have been
+	 * unloaded, which must be the same type as the catalogue in the file.
+	 * @param catFile catalogue file
+	 * @param catalog file catalogue
+	 * @return true if the catalogue was read successfully
+	 */
+	public static boolean reloadCatalog(File catFile, GeminiFileCatalog<?> catalog) {
+		BinaryCatalogFile binaryFile;
+		try {
+			binaryFile = open(readFile(catFile), catFile.getName());
+		} catch (IOException e) {
+			System.out.println("Unable to read binary Gemini catalogue file: " + e.getMessage());
+			return false;
+		}
+		if (binaryFile == null || binaryFile.catalogType != catalog.getBinaryCatalogType()) {
+			return false;
+		}
+		return binaryFile.readInto(catalog, catFile.getName());
+	}
+
+	/**
+	 * Read only the summary information from the start of a catalogue file, i.e. the
+	 * number of records, the times of the first and last records and the sonar
+	 * information, and make a catalogue whose records will be read when they are
+	 * first used.
+	 * @param catFile catalogue file
+	 * @param filePath path of the data file
+	 * @return catalogue with only the summary information, or null if the file is not
+	 * a binary catalogue file or is too old to have the summary information.
+	 */
+	public static GeminiFileCatalog<?> readSummary(File catFile, String filePath) {
+		if (catFile.exists() == false) {
+			return null;
+		}
+		BinaryCatalogFile binaryFile;
+		ArrayList<CatalogSonarInfo> sonars;
+		try {
+			FileInputStream fis = new FileInputStream(catFile);
+			try {
+				FileChannel channel = fis.getChannel();
+				ByteBuffer buffer = readStart(channel, SUMMARYBYTES);
+				binaryFile = open(buffer, catFile.getName());
+				if (binaryFile == null || binaryFile.version < 4) {
+					return null;
+				}
+				int nSonars = buffer.limit() >= binaryFile.position + Integer.BYTES ? binaryFile.buffer.getInt(binaryFile.position) : 0;
+				int needed = binaryFile.position + Integer.BYTES + nSonars * 4 * Integer.BYTES;
+				if (needed > buffer.limit()) {
+					binaryFile.buffer = readStart(channel, needed).order(ByteOrder.LITTLE_ENDIAN);
+				}
+				sonars = binaryFile.readSonars();
+			}
+			finally {
+				fis.close();
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			System.out.println("Unable to read binary Gemini catalogue summary " + catFile.getName() + ": " + e.getMessage());
+			return null;
+		}
+		GeminiFileCatalog<?> catalog = makeCatalog(binaryFile, catFile.getName(), filePath);
+		if (catalog == null) {
+			return null;
+		}
+		binaryFile.setFileInfo(catalog);
+		catalog.setSummary(sonars, binaryFile.nRecords, binaryFile.firstRecordTime, binaryFile.lastRecordTime);
+		return catalog;
+	}
+
+	/**
+	 * Read the start of a file.
+	 * @param channel file channel
+	 * @param nBytes number of bytes to read
+	 * @return buffer, which may be shorter than nBytes if the file is short.
+	 * @throws IOException
+	 */
+	private static ByteBuffer readStart(FileChannel channel, int nBytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(nBytes, channel.size()));
+		long pos = 0;
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, pos);
+			if (n < 0) {
+				break;
+			}
+			pos += n;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Make an empty catalogue of the right type for the file.
+	 * @param binaryFile binary file
+	 * @param catName name of catalogue, for error messages.
+	 * @param filePath path of the data file
+	 * @return empty catalogue, or null if the type is unknown.
+	 */
+	private static GeminiFileCatalog<?> makeCatalog(BinaryCatalogFile binaryFile, String catName, String filePath) {
+		switch (binaryFile.catalogType) {
+		case TYPE_GLF:
+			return new GLFFileCatalog(filePath);
+		case TYPE_ECD:
+			return new ECDFileCatalog(filePath);
+		default:
+			System.out.printf("Unknown binary catalogue type %d in %s\n", binaryFile.catalogType, catName);
+			return null;
+		}
+	}
+
+	/**
+	 * Read the rest of the file into a catalogue.
+	 * @param catalog file catalogue
+	 * @param catName name of catalogue, for error messages.
+	 * @return true if read successfully.
+	 */
+	private boolean readInto(GeminiFileCatalog<?> catalog, String catName) {
+		try {
+			catalog.readBinaryCatalog(this);
+			setFileInfo(catalog);
+		}
+		catch (RuntimeException e) {
+			// most likely a truncated file, which will run off the end of the buffer.
+			System.out.println("Error in binary Gemini catalogue file " + catName + ": " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Set the information about the data file in a catalogue.
+	 * @param catalog file catalogue
+	 */
+	private void setFileInfo(GeminiFileCatalog<?> catalog) {
+		catalog.setCatalogFileLength(dataFileLength);
+		catalog.setCatalogEndPosition(dataEndPosition);
+		catalog.setCatalogFileTime(dataFileTime);
+		catalog.setCatalogFileHash(dataFileHash);
+	}
+
+	/**
+	 * Read the whole file in a single read.
+	 * @param catFile catalogue file
+	 * @return buffer holding the whole file
+	 * @throws IOException
+	 */
+	static ByteBuffer readFile(File catFile) throws IOException {
+		FileInputStream fis = new FileInputStream(catFile);
+		ByteBuffer buffer;
+		try {
+			FileChannel channel = fis.getChannel();
+			long len = channel.size();
+			if (len > Integer.MAX_VALUE) {
+				throw new CatalogException("Catalogue file " + catFile.getName() + " is too large");
+			}
+			buffer = ByteBuffer.allocate((int) len);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+		}
+		finally {
+			fis.close();
+		}
+		return buffer;
+	}
+
+	/**
+	 * Check the header of catalogue data. 
+	 * @param buffer catalogue data
+	 * @param catName name of catalogue, for error messages
+	 * @return binary file, ready to read the catalogue specific parts, or null if
+	 * it's not a valid file.
+	 */
+	private static BinaryCatalogFile open(ByteBuffer buffer, String catName) {
+		BinaryCatalogFile binaryFile = new BinaryCatalogFile(buffer);
+		if (buffer.limit() < 12 || binaryFile.readInt() != MAGIC) {
+			return null;
+		}
+		binaryFile.version = binaryFile.readShort();
+		binaryFile.catalogType = binaryFile.readShort();
+		binaryFile.nRecords = binaryFile.readInt();
+		if (binaryFile.version > VERSION) {
+			System.out.printf("Binary catalogue %s is version %d, which is newer than this software\n",
+					catName, binaryFile.version);
+			return null;
+		}
+		if (binaryFile.version >= 2) {
+			if (buffer.limit() < 28) {
+				return null;
+			}
+			binaryFile.dataFileLength = binaryFile.readLong();
+			binaryFile.dataEndPosition = binaryFile.readLong();
+		}
+		if (binaryFile.version >= 3) {
+			if (buffer.limit() < 44) {
+				return null;
+			}
+			binaryFile.dataFileTime = binaryFile.readLong();
+			binaryFile.dataFileHash = binaryFile.readLong();
+		}
+		if (binaryFile.version >= 4) {
+			if (buffer.limit() < 60) {
+				return null;
+			}
+			binaryFile.firstRecordTime = binaryFile.readLong();
+			binaryFile.lastRecordTime = binaryFile.readLong();
+		}
+		return binaryFile;
+	}
+
+	/**
+	 * Write a catalogue to a binary file. It's written to a temporary file first,
+	 * then put in place of the old catalogue file, so that a failed write never 
+	 * leaves a truncated catalogue. 
+	 * @param catFile catalogue file
+	 * @param catalog file catalogue. Must have a binary type.
+	 * @throws IOException
+	 */
+	public static void writeCatalog(File catFile, GeminiFileCatalog<?> catalog) throws IOException {
+		// unique name, since the same catalogue could be written by two threads at once. 
+		File tempFile = File.createTempFile(catFile.getName(), ".tmp", catFile.getAbsoluteFile().getParentFile());
+		boolean written = false;
+		try {
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile), 65536);
+			try {
+				writeCatalog(os, catalog);
+			}
+			finally {
+				os.close();
+			}
+			Files.move(tempFile.toPath(), catFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			written = true;
+		}
+		finally {
+			if (written == false) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Write a catalogue in the binary format to a stream. 
+	 * @param os output stream, which is flushed but not closed. 
+	 * @param catalog file catalogue. Must have a binary type.
+	 * @throws IOException
+	 */
+	public static void writeCatalog(OutputStream os, GeminiFileCatalog<?> catalog) throws IOException {
+		writeRecords(os, catalog);
+	}
+
+	/**
+	 * Write a catalogue in the binary format to a stream. Typed by the catalogue's 
+	 * record class so that its records can be passed back to it to write the columns. 
+	 * @param os output stream
+	 * @param catalog file catalogue
+	 * @throws IOException
+	 */
+	private static <T extends SonarImageRecordI> void writeRecords(OutputStream os, GeminiFileCatalog<T> catalog) throws IOException {
+		ArrayList<T> records = catalog.getImageRecords();
+		if (records == null) {
+			records = new ArrayList<>();
+		}
+		int n = records.size();
+		LittleEndianDataOutputStream dos = new LittleEndianDataOutputStream(os);
+		dos.writeInt(MAGIC);
+		dos.writeShort(VERSION);
+		dos.writeShort(catalog.getBinaryCatalogType());
+		dos.writeInt(n);
+		dos.writeLong(catalog.getCatalogFileLength());
+		dos.writeLong(catalog.getCatalogEndPosition());
+		dos.writeLong(catalog.getCatalogFileTime());
+		dos.writeLong(catalog.getCatalogFileHash());
+		dos.writeLong(catalog.getFirstRecordTime());
+		dos.writeLong(catalog.getLastRecordTime());
+
+		Collection<CatalogSonarInfo> sonars = catalog.getSonarInfos();
+		dos.writeInt(sonars.size());
+		for (CatalogSonarInfo sonarInfo : sonars) {
+			dos.writeInt(sonarInfo.getSonarIndex());
+			dos.writeInt(sonarInfo.getSonarId());
+			dos.writeInt(sonarInfo.getFirstFrame());
+			dos.writeInt(sonarInfo.getnFrames());
+		}
+
+		/*
+		 * Bearing tables are nearly always the same for every record, so only
+		 * write each different one once. Most records share the same array,
+		 * so check references before comparing the values.
+		 */
+		ArrayList<double[]> tables = new ArrayList<>();
+		IdentityHashMap<double[], Integer> tableMap = new IdentityHashMap<>();
+		int[] tableIndex = new int[n];
+		for (int i = 0; i < n; i++) {
+			double[] table = records.get(i).getBearingTable();
+			if (table == null) {
+				tableIndex[i] = -1;
+				continue;
+			}
+			Integer ind = tableMap.get(table);
+			if (ind == null) {
+				for (int t = 0; t < tables.size(); t++) {
+					if (Arrays.equals(table, tables.get(t))) {
+						ind = t;
+						break;
+					}
+				}
+				if (ind == null) {
+					ind = tables.size();
+					tables.add(table);
+				}
+				tableMap.put(table, ind);
+			}
+			tableIndex[i] = ind;
+		}
+		dos.writeInt(tables.size());
+		for (double[] table : tables) {
+			dos.writeInt(table.length);
+			for (int i = 0; i < table.length; i++) {
+				dos.writeDouble(table[i]);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(tableIndex[i]);
+		}
+
+		catalog.writeBinaryColumns(dos, records);
+		dos.flush();
+	}
+
+	/**
+	 * Read the sonar summary information and the bearing tables, which come
+	 * before the catalogue specific data.
+	 * @return sonar information
+	 */
+	protected ArrayList<CatalogSonarInfo> readSonarInfo() {
+		ArrayList<CatalogSonarInfo> sonars = readSonars();
+		readBearingTables();
+		return sonars;
+	}
+
+	/**
+	 * Read the sonar summary information.
+	 * @return sonar information
+	 */
+	private ArrayList<CatalogSonarInfo> readSonars() {
+		int nSonars = readInt();
+		ArrayList<CatalogSonarInfo> sonars = new ArrayList<>(nSonars);
+		for (int i = 0; i < nSonars; i++) {
+			int sonarIndex = readInt();
+			int sonarId = readInt();
+			int firstFrame = readInt();
+			CatalogSonarInfo sonarInfo = new CatalogSonarInfo(sonarIndex, sonarId, firstFrame);
+			sonarInfo.addFrameCount(readInt());
+			sonars.add(sonarInfo);
+		}
+		return sonars;
+	}
+
+	/**
+	 * Read the bearing tables. 
+	 */
+	private void readBearingTables() {
+		int nTables = readInt();
+		bearingTables = new double[nTables][];
+		for (int t = 0; t < nTables; t++) {
+			bearingTables[t] = new double[readInt()];
+			for (int i = 0; i < bearingTables[t].length; i++) {
+				bearingTables[t][i] = buffer.getDouble(position);
+				position += Double.BYTES;
+			}
+		}
+		bearingColumn = nextColumn(Integer.BYTES);
+	}
+
+	/**
+	 * Write a string as a count of characters followed by the characters.
+	 * @param dos output stream
+	 * @param string string (can be null)
+	 * @throws IOException
+	 */
+	public static void writeString(LittleEndianDataOutputStream dos, String string) throws IOException {
+		if (string == null) {
+			dos.writeShort(-1);
+			return;
+		}
+		dos.writeShort(string.length());
+		for (int i = 0; i < string.length(); i++) {
+			dos.writeShort(string.charAt(i));
+		}
+	}
+
+	/**
+	 * Read a string written with writeString
+	 * @return string or null
+	 */
+	public String readString() {
+		int len = readShort();
+		if (len < 0) {
+			return null;
+		}
+		char[] chars = new char[len];
+		for (int i = 0; i < len; i++) {
+			chars[i] = buffer.getChar(position);
+			position += Character.BYTES;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Read an int from the next position in the file.
+	 * @return int value
+	 */
+	public int readInt() {
+		int val = buffer.getInt(position);
+		position += Integer.BYTES;
+		return val;
+	}
+
+	/**
+	 * Read a short from the next position in the file.
+	 * @return short value
+	 */
+	public short readShort() {
+		short val = buffer.getShort(position);
+		position += Short.BYTES;
+		return val;
+	}
+
+	/**
+	 * Read a long from the next position in the file.
+	 * @return long value
+	 */
+	public long readLong() {
+		long val = buffer.getLong(position);
+		position += Long.BYTES;
+		return val;
+	}
+
+	/**
+	 * Get the start of the next column of record data and move on to the
+	 * start of the following column.
+	 * @param bytesPerRecord size of each value in the column
+	 * @return offset of column in the file to use in the get functions
+	 */
+	public int nextColumn(int bytesPerRecord) {
+		int column = position;
+		position += bytesPerRecord*nRecords;
+		if (position > buffer.limit()) {
+			throw new IndexOutOfBoundsException("Binary catalogue file is too short");
+		}
+		return column;
+	}
+
+	public byte getByte(int column, int iRecord) {
+		return buffer.get(column + iRecord);
+	}
+
+	public short getShort(int column, int iRecord) {
+		return buffer.getShort(column + iRecord*Short.BYTES);
+	}
+
+	public int getInt(int column, int iRecord) {
+		return buffer.getInt(column + iRecord*Integer.BYTES);
+	}
+
+	public long getLong(int column, int iRecord) {
+		return buffer.getLong(column + iRecord*Long.BYTES);
+	}
+
+	public float getFloat(int column, int iRecord) {
+		return buffer.getFloat(column + iRecord*Float.BYTES);
+	}
+
+	public double getDouble(int column, int iRecord) {
+		return buffer.getDouble(column + iRecord*Double.BYTES);
+	}
+
+	/**
+	 * Get the bearing table for a record. Records with the same
+	 * bearing table will share the same array.
+	 * @param iRecord record index
+	 * @return bearing table or null
+	 */
+	public double[] getBearingTable(int iRecord) {
+		int ind = getInt(bearingColumn, iRecord);
+		if (ind < 0 || ind >= bearingTables.length) {
+			return null;
+		}
+		return bearingTables[ind];
+	}
+
+	/**
+	 * @return the file format version
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the catalogue type, TYPE_GLF or TYPE_ECD
+	 */
+	public int getCatalogType() {
+		return catalogType;
+	}
+
+	/**
+	 * @return the number of records in the catalogue
+	 */
+	public int getnRecords() {
+		return nRecords;
+	}
+
+}
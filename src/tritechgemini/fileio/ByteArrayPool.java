@@ -0,0 +1,74 @@
+package tritechgemini.fileio;
+
+import java.util.ArrayList;
+
+/**
+ * Pool of byte arrays which can be reused rather than allocating new ones for
+ * every image, which makes a lot of work for the garbage collector when
+ * processing at high frame rates.
+ * @author Doug Gillespie
+ *
+ */
+public class ByteArrayPool {
+
+	private int maxArrays;
+
+	private ArrayList<byte[]> arrays = new ArrayList<>();
+
+	/**
+	 * @param maxArrays maximum number of arrays to keep in the pool.
+	 */
+	public ByteArrayPool(int maxArrays) {
+		this.maxArrays = maxArrays;
+	}
+
+	/**
+	 * Get an array of at least the given length, which may be longer. Use this
+	 * for working buffers.
+	 * @param minLength minimum length
+	 * @return array from the pool or a new array
+	 */
+	public synchronized byte[] get(int minLength) {
+		for (int i = arrays.size()-1; i >= 0; i--) {
+			if (arrays.get(i).length >= minLength) {
+				return arrays.remove(i);
+			}
+		}
+		return new byte[minLength];
+	}
+
+	/**
+	 * Get an array of exactly the given length. Use this for image data, where
+	 * the length of the array must be the size of the image.
+	 * @param length length
+	 * @return array from the pool or a new array
+	 */
+	public synchronized byte[] getExact(int length) {
+		for (int i = arrays.size()-1; i >= 0; i--) {
+			if (arrays.get(i).length == length) {
+				return arrays.remove(i);
+			}
+		}
+		return new byte[length];
+	}
+
+	/**
+	 * Put an array back in the pool. The array must not be used by
+	 * anything after this.
+	 * @param array array (can be null)
+	 */
+	public synchronized void release(byte[] array) {
+		if (array == null || arrays.size() >= maxArrays) {
+			return;
+		}
+		arrays.add(array);
+	}
+
+	/**
+	 * @return number of arrays currently in the pool
+	 */
+	public synchronized int getSize() {
+		return arrays.size();
+	}
+
+}
@@ -0,0 +1,386 @@
+package tritechgemini.fileio;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds catalogues for sonar files in the background, so that a program can
+ * carry on with files which are already catalogued while others are being done.
+ * Files are catalogued on a pool of threads, writing the catalogue files and, for
+ * GLF files, the fast index file.
+ * <p>
+ * Files waiting to be catalogued are kept in a job file, one file path per line.
+ * Files are only taken out when they have been catalogued, so if a run is stopped
+ * or the program ends, calling resume with the same job file carries on where it
+ * left off. The job file is deleted when everything has been done.
+ * @author Doug Gillespie
+ *
+ */
+public class CatalogBuilder {
+
+	private File jobFile;
+
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Files queued or being catalogued, in the order they were queued.
+	 */
+	private LinkedHashSet<String> pendingFiles = new LinkedHashSet<>();
+
+	private ArrayList<CatalogObserver> catalogObservers = new ArrayList<>();
+
+	private int totalFiles;
+
+	private int doneFiles;
+
+	private volatile boolean stopped;
+
+	/**
+	 * Incremented each time the builder is stopped, so that files still being 
+	 * catalogued from a stopped run don't change the state of a later one. 
+	 */
+	private volatile int generation;
+
+	/**
+	 * @param jobFile file to keep the list of files waiting to be catalogued in
+	 */
+	public CatalogBuilder(File jobFile) {
+		this(jobFile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param jobFile file to keep the list of files waiting to be catalogued in
+	 * @param nThreads number of files to catalogue at the same time
+	 */
+	public CatalogBuilder(File jobFile, int nThreads) {
+		this.jobFile = jobFile;
+		nThreads = Math.max(1, nThreads);
+		executor = new ThreadPoolExecutor(nThreads, nThreads, 5, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private int nThread = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Sonar background catalogue " + ++nThread);
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Check whether a file needs cataloguing, i.e. it has no catalogue file, the data file
+	 * has grown or changed since it was catalogued, or for GLF files, there is no fast 
+	 * index file.
+	 * @param filePath data file path
+	 * @return true if the file needs cataloguing
+	 */
+	public static boolean needsCatalog(String filePath) {
+		if (isCatalogCurrent(filePath) == false) {
+			return true;
+		}
+		if (filePath.endsWith(GeminiFileCatalog.GLFEND)) {
+			return GLFFastInputStream.getGlfFastFile(new File(filePath)).exists() == false;
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether a file has a catalogue file which is up to date. Binary catalogues
+	 * are checked against the fingerprint of the data file, as when they are read. 
+	 * Older catalogues can only be checked by reading them, so are taken as up to date. 
+	 * @param filePath data file path
+	 * @return true if there is a catalogue file and the data file hasn't changed since. 
+	 */
+	private static boolean isCatalogCurrent(String filePath) {
+		File catFile = new File(GeminiFileCatalog.getCatalogName(filePath));
+		if (catFile.exists() == false) {
+			return false;
+		}
+		GeminiFileCatalog<?> summary = BinaryCatalogFile.readSummary(catFile, filePath);
+		File dataFile = new File(filePath);
+		if (summary == null || dataFile.exists() == false) {
+			return true;
+		}
+		return FileFingerprint.check(dataFile, summary.getCatalogFileLength(), summary.getCatalogFileTime(), 
+				summary.getCatalogFileHash()) == FileFingerprint.UNCHANGED;
+	}
+
+	/**
+	 * Queue files left in the job file from an earlier run that didn't finish.
+	 * @return number of files queued
+	 */
+	public int resume() {
+		if (jobFile.exists() == false) {
+			return 0;
+		}
+		ArrayList<String> files = new ArrayList<>();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(jobFile), StandardCharsets.UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() > 0) {
+						files.add(line);
+					}
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Unable to read sonar catalogue job file: " + e.getMessage());
+			return 0;
+		}
+		int nAdded = addFiles(files.toArray(new String[files.size()]));
+		synchronized (this) {
+			if (pendingFiles.isEmpty()) {
+				// everything in the job file has already been done. 
+				saveJobs();
+			}
+		}
+		return nAdded;
+	}
+
+	/**
+	 * Queue all the files in a folder which need cataloguing.
+	 * @param folder folder
+	 * @param subFolders include sub folders
+	 * @return number of files queued
+	 */
+	public int addFolder(String folder, boolean subFolders) {
+		SonarFileList fileList = new SonarFileList(folder, subFolders);
+		return addFiles(fileList.getFiles());
+	}
+
+	/**
+	 * Queue files for cataloguing. Files which are already catalogued or already
+	 * queued are left out.
+	 * @param filePaths file paths
+	 * @return number of files queued
+	 */
+	public int addFiles(String[] filePaths) {
+		int nAdded = 0;
+		synchronized (this) {
+			stopped = false;
+			for (int i = 0; i < filePaths.length; i++) {
+				final String filePath = filePaths[i];
+				if (pendingFiles.contains(filePath) || needsCatalog(filePath) == false) {
+					continue;
+				}
+				pendingFiles.add(filePath);
+				totalFiles++;
+				nAdded++;
+				final int runGeneration = generation;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						buildCatalog(filePath, runGeneration);
+					}
+				});
+			}
+			if (nAdded > 0) {
+				saveJobs();
+			}
+		}
+		return nAdded;
+	}
+
+	/**
+	 * Catalogue one file and take it off the list.
+	 * @param filePath file path
+	 * @param runGeneration generation of the run the file was queued in
+	 */
+	private void buildCatalog(String filePath, int runGeneration) {
+		if (runGeneration != generation) {
+			return;
+		}
+		GeminiFileCatalog<?> catalog = null;
+		try {
+			if (new File(filePath).exists()) {
+				// check again, since it may have been catalogued since it was queued.
+				if (isCatalogCurrent(filePath) == false) {
+					catalog = GeminiFileCatalog.getFileCatalog(filePath, true);
+				}
+				if (filePath.endsWith(GeminiFileCatalog.GLFEND)) {
+					File glfFile = new File(filePath);
+					if (GLFFastInputStream.getGlfFastFile(glfFile).exists() == false) {
+						// constructor makes and saves the index.
+						new GLFFastInputStream(glfFile).close();
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			System.out.printf("Error cataloguing sonar file %s: %s\n", filePath, e.getMessage());
+		}
+		finally {
+			fileDone(filePath, catalog, runGeneration);
+		}
+	}
+
+	/**
+	 * Take a file off the list once it's been catalogued, or failed, and 
+	 * tell the observers. 
+	 * @param filePath file path
+	 * @param catalog catalogue, or null if it wasn't made
+	 * @param runGeneration generation of the run the file was queued in
+	 */
+	private void fileDone(String filePath, GeminiFileCatalog<?> catalog, int runGeneration) {
+		OfflineCatalogProgress progress, complete = null;
+		synchronized (this) {
+			if (runGeneration != generation) {
+				/*
+				 * stopped since it was queued, so leave it in the job file. If it's been 
+				 * queued again, that's a different task which will take it off the list. 
+				 */
+				return;
+			}
+			pendingFiles.remove(filePath);
+			doneFiles++;
+			progress = new OfflineCatalogProgress(CatalogObserver.BUILDING, totalFiles, doneFiles, filePath, catalog);
+			if (pendingFiles.isEmpty()) {
+				complete = new OfflineCatalogProgress(CatalogObserver.COMPLETE, totalFiles, doneFiles, null, null);
+			}
+			saveJobs();
+		}
+		notifyObservers(progress);
+		if (complete != null) {
+			notifyObservers(complete);
+		}
+	}
+
+	/**
+	 * Write the list of files still to do to the job file, or delete
+	 * it if there is nothing left to do. The list is written to a temporary
+	 * file first so that the job file is never left half written.
+	 */
+	private synchronized void saveJobs() {
+		if (pendingFiles.isEmpty()) {
+			jobFile.delete();
+			return;
+		}
+		File tempFile = new File(jobFile.getPath() + ".tmp");
+		try {
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+			try {
+				for (String filePath : pendingFiles) {
+					writer.write(filePath);
+					writer.newLine();
+				}
+			}
+			finally {
+				writer.close();
+			}
+			Files.move(tempFile.toPath(), jobFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			System.out.println("Unable to write sonar catalogue job file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stop cataloguing. Files already being catalogued are finished, but no more
+	 * are started. Everything not done is left in the job file so that it can be
+	 * resumed later.
+	 */
+	public void stop() {
+		executor.getQueue().clear();
+		synchronized (this) {
+			stopped = true;
+			generation++;
+			saveJobs();
+			/*
+			 * everything not done is in the job file, so clear the list so that the
+			 * files can be queued again by resume or addFiles. 
+			 */
+			pendingFiles.clear();
+			totalFiles = doneFiles = 0;
+		}
+	}
+
+	/**
+	 * Wait until all queued files have been catalogued, or the builder is stopped.
+	 * @param timeoutMillis maximum time to wait in milliseconds
+	 * @return true if there is nothing left to do.
+	 * @throws InterruptedException
+	 */
+	public boolean waitForCompletion(long timeoutMillis) throws InterruptedException {
+		long endTime = System.currentTimeMillis() + timeoutMillis;
+		while (getNumPending() > 0 && stopped == false) {
+			long wait = endTime - System.currentTimeMillis();
+			if (wait <= 0) {
+				break;
+			}
+			Thread.sleep(Math.min(wait, 50));
+		}
+		return getNumPending() == 0;
+	}
+
+	/**
+	 * @return number of files queued or being catalogued
+	 */
+	public synchronized int getNumPending() {
+		return pendingFiles.size();
+	}
+
+	/**
+	 * @return true if stop has been called
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * @return the job file
+	 */
+	public File getJobFile() {
+		return jobFile;
+	}
+
+	public void addObserver(CatalogObserver observer) {
+		synchronized (catalogObservers) {
+			catalogObservers.add(observer);
+		}
+	}
+
+	public void removeObserver(CatalogObserver observer) {
+		synchronized (catalogObservers) {
+			catalogObservers.remove(observer);
+		}
+	}
+
+	/**
+	 * Notify observers. Note that this is called from the threads
+	 * building the catalogues.
+	 * @param progress progress information
+	 */
+	private void notifyObservers(OfflineCatalogProgress progress) {
+		ArrayList<CatalogObserver> observers;
+		synchronized (catalogObservers) {
+			observers = new ArrayList<>(catalogObservers);
+		}
+		for (CatalogObserver observer : observers) {
+			observer.catalogChanged(progress);
+		}
+	}
+
+}
@@ -19,6 +19,12 @@ public class CatalogSonarInfo implements Cloneable, Serializable {
 	private int nFrames;
 
 	private int firstFrame;
+	
+	/**
+	 * Positions of this sonar's records in the file catalogue, so that 
+	 * the nth record for this sonar can be found without searching. 
+	 */
+	private transient int[] recordPositions;
 
 	/**
 	 * 
@@ -45,6 +51,13 @@ public class CatalogSonarInfo implements Cloneable, Serializable {
 		return nFrames;
 	}
 
+	/**
+	 * @return index of first frame for this sonar in the file. 
+	 */
+	public int getFirstFrame() {
+		return firstFrame;
+	}
+
 	/**
 	 * Increase frame count by one
 	 * @return total number of frames. 
@@ -63,10 +76,28 @@ public class CatalogSonarInfo implements Cloneable, Serializable {
 		return nFrames;
 	}
 
+	/**
+	 * @return positions of this sonar's records in the file catalogue. May be null
+	 * if they've not been worked out yet. 
+	 */
+	public int[] getRecordPositions() {
+		return recordPositions;
+	}
+
+	/**
+	 * @param recordPositions positions of this sonar's records in the file catalogue
+	 */
+	public void setRecordPositions(int[] recordPositions) {
+		this.recordPositions = recordPositions;
+	}
+
 	@Override
 	protected CatalogSonarInfo clone() {
 		try {
-			return (CatalogSonarInfo) super.clone();
+			CatalogSonarInfo clone = (CatalogSonarInfo) super.clone();
+			// positions only mean anything for the catalogue this came from.
+			clone.recordPositions = null;
+			return clone;
 		} catch (CloneNotSupportedException e) {
 			e.printStackTrace();
 			return null;
@@ -1,9 +1,373 @@
 package tritechgemini.fileio;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import tritechgemini.imagedata.GLFStatusData;
+import tritechgemini.imagedata.SonarImageRecordI;
+
+/**
+ * Streams many files to a single CatalogStreamObserver, streaming several files
+ * at the same time in different threads. Records from the files being streamed
+ * are merged so that the observer gets them in time order, which for each sonar
+ * is the order they were recorded in. Each file's catalogue is written as it's
+ * streamed, as with GeminiFileCatalog.streamCatalog.
+ * <br>Files should be given in time order, e.g. from SonarFileList. Only files
+ * being streamed at the same time are merged, so this sorts out files from
+ * different sonars that overlap in time, but not a whole list of files in a
+ * random order.
+ * <br>Each file is streamed in a single thread, since the files are already being 
+ * streamed in parallel. 
+ * @author Doug Gillespie
+ *
+ */
 public class CatalogStreamer {
 
+	/**
+	 * Number of files to stream at the same time.
+	 */
+	private int streamThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Number of records which can be waiting in each file's queue.
+	 */
+	private int queueLength = 16;
+
+	private volatile boolean stopStreaming;
+
+	private ArrayList<FileStream> activeStreams = new ArrayList<>();
+
+	/**
+	 * Files which couldn't be streamed in the last call to streamFiles and why. 
+	 */
+	private LinkedHashMap<String, Exception> failedFiles = new LinkedHashMap<>();
+
 	public CatalogStreamer() {
-		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * A record read from a file, or the end of the file if it's got no
+	 * image or status data.
+	 */
+	private class StreamItem {
+
+		private SonarImageRecordI imageRecord;
+
+		private GLFStatusData statusData;
+
+		private long time;
+
+		private long sequence;
+
+		private Exception exception;
+
+	}
+
+	/**
+	 * A file being streamed and the queue of records read from it.
+	 */
+	private class FileStream implements Runnable, CatalogStreamObserver {
+
+		private int fileIndex;
+
+		private String filePath;
+
+		private GeminiFileCatalog<?> catalog;
+
+		private ArrayBlockingQueue<StreamItem> queue = new ArrayBlockingQueue<>(queueLength);
+
+		private StreamItem head;
+
+		private long lastImageTime = Long.MIN_VALUE;
+
+		private long nItems;
+
+		private FileStream(int fileIndex, String filePath) {
+			this.fileIndex = fileIndex;
+			this.filePath = filePath;
+		}
+
+		@Override
+		public void run() {
+			StreamItem endItem = new StreamItem();
+			try {
+				synchronized (this) {
+					if (stopStreaming == false) {
+						catalog = GeminiFileCatalog.getFileCatalog(filePath, false);
+					}
+				}
+				if (catalog != null) {
+					// the files are the parallel part, so don't also start threads for each file. 
+					catalog.setSingleThreadStream(true);
+					catalog.streamCatalog(this);
+				}
+				else if (stopStreaming == false) {
+					endItem.exception = new CatalogException("Unable to catalogue sonar file " + filePath);
+				}
+			}
+			catch (Exception e) {
+				endItem.exception = e;
+			}
+			put(endItem);
+		}
+
+		@Override
+		public boolean newImageRecord(SonarImageRecordI imageRecord) {
+			StreamItem item = new StreamItem();
+			item.imageRecord = imageRecord;
+			item.time = lastImageTime = imageRecord.getRecordTime();
+			return put(item);
+		}
+
+		@Override
+		public boolean newStatusData(GLFStatusData statusData) {
+			// status data have no time, so keep them after the image before them.
+			StreamItem item = new StreamItem();
+			item.statusData = statusData;
+			item.time = lastImageTime;
+			return put(item);
+		}
+
+		/**
+		 * Put an item in the queue, waiting if it's full.
+		 * @param item stream item
+		 * @return false if streaming has been stopped.
+		 */
+		private boolean put(StreamItem item) {
+			item.sequence = nItems++;
+			while (stopStreaming == false) {
+				try {
+					if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				} catch (InterruptedException e) {
+					return false;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Take the next item from the queue, waiting until there is one.
+		 * @return next item, or null if streaming has been stopped.
+		 */
+		private StreamItem take() {
+			while (stopStreaming == false) {
+				try {
+					StreamItem item = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (item != null) {
+						return item;
+					}
+				} catch (InterruptedException e) {
+					return null;
+				}
+			}
+			return null;
+		}
+
+		private synchronized void stop() {
+			if (catalog != null) {
+				catalog.stopCatalogStream();
+			}
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Stream a list of files.
+	 * <p>
+	 * Records are passed on in time order, so a file can only be read as far ahead
+	 * of the files before it as its queue allows (see setQueueLength). Files from 
+	 * different sonars which overlap in time are read in parallel, but a list of 
+	 * consecutive files from a single sonar is read little faster than one file 
+	 * at a time unless the queues are long enough to hold a good part of each file, 
+	 * which costs memory for every record waiting. 
+	 * <p>
+	 * Files which fail are skipped, in which case the summary end reason is 
+	 * READERROR and the files and their errors are available from getFailedFiles. 
+	 * @param filePaths file paths, in time order.
+	 * @param streamObserver observer to receive all records from all files in time order.
+	 * @return summary of all records streamed.
+	 */
+	public CatalogStreamSummary streamFiles(String[] filePaths, CatalogStreamObserver streamObserver) {
+		stopStreaming = false;
+		synchronized (failedFiles) {
+			failedFiles.clear();
+		}
+		int nThreads = Math.max(1, Math.min(streamThreads, filePaths.length));
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int nThread = 0;
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Sonar file streamer " + ++nThread);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		FileStream[] fileStreams = new FileStream[filePaths.length];
+		for (int i = 0; i < filePaths.length; i++) {
+			fileStreams[i] = new FileStream(i, filePaths[i]);
+			executor.execute(fileStreams[i]);
+		}
+		/*
+		 * Merge the records from the files being streamed, always taking the earliest.
+		 * Only as many files as there are threads are merged at once, since those are
+		 * the only ones that can be being read.
+		 */
+		PriorityQueue<FileStream> heads = new PriorityQueue<>(nThreads, new Comparator<FileStream>() {
+			@Override
+			public int compare(FileStream o1, FileStream o2) {
+				int c = Long.compare(o1.head.time, o2.head.time);
+				if (c == 0) {
+					c = Integer.compare(o1.fileIndex, o2.fileIndex);
+				}
+				if (c == 0) {
+					c = Long.compare(o1.head.sequence, o2.head.sequence);
+				}
+				return c;
+			}
+		});
+		int nRec = 0;
+		long firstRecordTime = 0, lastRecordTime = 0;
+		int nextFile = 0;
+		boolean continueStream = true;
+		try {
+			while (continueStream) {
+				// start merging more files if there are fewer than the number of threads.
+				while (activeStreams.size() < nThreads && nextFile < fileStreams.length) {
+					FileStream fileStream = fileStreams[nextFile++];
+					synchronized (activeStreams) {
+						activeStreams.add(fileStream);
+					}
+					if (nextHead(fileStream)) {
+						heads.add(fileStream);
+					}
+				}
+				FileStream fileStream = heads.poll();
+				if (fileStream == null || stopStreaming) {
+					break;
+				}
+				StreamItem item = fileStream.head;
+				if (item.imageRecord != null) {
+					continueStream = streamObserver.newImageRecord(item.imageRecord);
+					if (firstRecordTime == 0) {
+						firstRecordTime = item.time;
+					}
+					lastRecordTime = item.time;
+					nRec++;
+				}
+				else {
+					streamObserver.newStatusData(item.statusData);
+				}
+				if (nextHead(fileStream)) {
+					heads.add(fileStream);
+				}
+			}
+		}
+		finally {
+			if (continueStream == false || stopStreaming) {
+				stopStreaming();
+			}
+			executor.shutdownNow();
+			synchronized (activeStreams) {
+				activeStreams.clear();
+			}
+		}
+		boolean stopped = continueStream == false || stopStreaming;
+		int endReason = CatalogStreamSummary.FILEEND;
+		if (stopped) {
+			endReason = CatalogStreamSummary.PROCESSSTOP;
+		}
+		else if (getFailedFiles().size() > 0) {
+			endReason = CatalogStreamSummary.READERROR;
+		}
+		return new CatalogStreamSummary(nRec, firstRecordTime, lastRecordTime, endReason);
+	}
+
+	/**
+	 * Get the next item from a file. If it's the end of the file, the file is
+	 * finished with and taken out of the active list.
+	 * @param fileStream file stream
+	 * @return true if there is a new item, false if the file has ended.
+	 */
+	private boolean nextHead(FileStream fileStream) {
+		StreamItem item = fileStream.take();
+		if (item != null && (item.imageRecord != null || item.statusData != null)) {
+			fileStream.head = item;
+			return true;
+		}
+		if (item != null && item.exception != null) {
+			System.out.printf("Error streaming sonar file %s: %s\n", fileStream.filePath, item.exception.getMessage());
+			synchronized (failedFiles) {
+				failedFiles.put(fileStream.filePath, item.exception);
+			}
+		}
+		fileStream.head = null;
+		synchronized (activeStreams) {
+			activeStreams.remove(fileStream);
+		}
+		return false;
+	}
+
+	/**
+	 * Stop streaming. Can be called from any thread.
+	 */
+	public void stopStreaming() {
+		stopStreaming = true;
+		synchronized (activeStreams) {
+			for (FileStream fileStream : activeStreams) {
+				fileStream.stop();
+			}
+		}
+	}
+
+	/**
+	 * Get the files which couldn't be streamed in the last call to streamFiles. 
+	 * These were skipped and their catalogues weren't written. 
+	 * @return file paths and the error for each one, in the order they failed. 
+	 */
+	public LinkedHashMap<String, Exception> getFailedFiles() {
+		synchronized (failedFiles) {
+			return new LinkedHashMap<>(failedFiles);
+		}
+	}
+
+	/**
+	 * @return the number of files streamed at the same time
+	 */
+	public int getStreamThreads() {
+		return streamThreads;
+	}
+
+	/**
+	 * @param streamThreads the number of files to stream at the same time
+	 */
+	public void setStreamThreads(int streamThreads) {
+		this.streamThreads = Math.max(1, streamThreads);
+	}
+
+	/**
+	 * @return the number of records which can be waiting to be merged from each file
+	 */
+	public int getQueueLength() {
+		return queueLength;
+	}
+
+	/**
+	 * A longer queue lets files be read further ahead of the files before them, 
+	 * which is what allows consecutive files from a single sonar to be read in 
+	 * parallel, but every record waiting in a queue holds its image data. 
+	 * @param queueLength the number of records which can be waiting to be merged from each file
+	 */
+	public void setQueueLength(int queueLength) {
+		this.queueLength = Math.max(1, queueLength);
 	}
 
 }
@@ -0,0 +1,203 @@
+package tritechgemini.fileio;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TimeZone;
+
+/**
+ * Time index of the records in a file catalogue, so that the closest record
+ * to a given time can be found with a binary search rather than working through
+ * the whole catalogue. There is one index of all records and one for each sonar,
+ * by both ID and index.
+ * <br>Record times depend on the time zone set in GeminiFileCatalog, so the
+ * index is only valid for the time zone it was made with.
+ * @author Doug Gillespie
+ *
+ */
+public class CatalogTimeIndex {
+
+	private TimeZone timeZone;
+
+	private int nRecords;
+
+	private SortedTimes allRecords;
+
+	private HashMap<Integer, SortedTimes> sonarIdTimes = new HashMap<>();
+
+	private HashMap<Integer, SortedTimes> sonarIndexTimes = new HashMap<>();
+
+	/**
+	 * Record times in ascending order with the index of each record in
+	 * the catalogue.
+	 */
+	private static class SortedTimes {
+
+		private long[] times;
+
+		private int[] records;
+
+		private SortedTimes(long[] times, int[] records) {
+			this.times = times;
+			this.records = records;
+		}
+
+		/**
+		 * Find the record closest in time. If two are equally close,
+		 * take the earlier one.
+		 * @param timeMillis time in milliseconds
+		 * @return record index or -1 if there are no records.
+		 */
+		private int findClosest(long timeMillis) {
+			int n = times.length;
+			if (n == 0) {
+				return -1;
+			}
+			// first time after timeMillis
+			int lo = 0, hi = n;
+			while (lo < hi) {
+				int mid = (lo+hi) >>> 1;
+				if (times[mid] <= timeMillis) {
+					lo = mid+1;
+				}
+				else {
+					hi = mid;
+				}
+			}
+			if (lo == 0) {
+				return records[0];
+			}
+			if (lo == n) {
+				return records[n-1];
+			}
+			long before = timeMillis - times[lo-1];
+			long after = times[lo] - timeMillis;
+			return after < before ? records[lo] : records[lo-1];
+		}
+	}
+
+	/**
+	 * Make a time index.
+	 * @param recordTimes times of all records in catalogue order
+	 * @param sonarIds sonar ID of all records
+	 * @param sonarIndexes sonar index of all records
+	 * @param timeZone time zone used to get the record times.
+	 */
+	public CatalogTimeIndex(long[] recordTimes, int[] sonarIds, int[] sonarIndexes, TimeZone timeZone) {
+		this.timeZone = timeZone;
+		this.nRecords = recordTimes.length;
+		int[] order = sortOrder(recordTimes);
+		allRecords = makeSortedTimes(recordTimes, order, null, 0);
+		makeSonarTimes(recordTimes, order, sonarIds, sonarIdTimes);
+		makeSonarTimes(recordTimes, order, sonarIndexes, sonarIndexTimes);
+	}
+
+	/**
+	 * Get the order of records sorted by time. They will nearly always be
+	 * in order already, in which case there is no need to sort.
+	 * @param recordTimes record times
+	 * @return index of records in time order
+	 */
+	private static int[] sortOrder(final long[] recordTimes) {
+		int n = recordTimes.length;
+		int[] order = new int[n];
+		boolean sorted = true;
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+			if (i > 0 && recordTimes[i] < recordTimes[i-1]) {
+				sorted = false;
+			}
+		}
+		if (sorted) {
+			return order;
+		}
+		Integer[] boxed = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			boxed[i] = i;
+		}
+		// stable sort, so records with the same time stay in catalogue order.
+		Arrays.sort(boxed, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Long.compare(recordTimes[o1], recordTimes[o2]);
+			}
+		});
+		for (int i = 0; i < n; i++) {
+			order[i] = boxed[i];
+		}
+		return order;
+	}
+
+	private static void makeSonarTimes(long[] recordTimes, int[] order, int[] sonars, HashMap<Integer, SortedTimes> sonarMap) {
+		HashSet<Integer> sonarSet = new HashSet<>();
+		for (int i = 0; i < sonars.length; i++) {
+			sonarSet.add(sonars[i]);
+		}
+		for (Integer sonar : sonarSet) {
+			sonarMap.put(sonar, makeSortedTimes(recordTimes, order, sonars, sonar));
+		}
+	}
+
+	private static SortedTimes makeSortedTimes(long[] recordTimes, int[] order, int[] sonars, int sonar) {
+		int n = 0;
+		for (int i = 0; i < order.length; i++) {
+			if (sonars == null || sonars[order[i]] == sonar) {
+				n++;
+			}
+		}
+		long[] times = new long[n];
+		int[] records = new int[n];
+		n = 0;
+		for (int i = 0; i < order.length; i++) {
+			int iRec = order[i];
+			if (sonars == null || sonars[iRec] == sonar) {
+				times[n] = recordTimes[iRec];
+				records[n++] = iRec;
+			}
+		}
+		return new SortedTimes(times, records);
+	}
+
+	/**
+	 * Find the closest record to a time
+	 * @param timeMillis time in milliseconds
+	 * @return index of closest record in the catalogue or -1 if there are no records
+	 */
+	public int findClosestRecord(long timeMillis) {
+		return allRecords.findClosest(timeMillis);
+	}
+
+	/**
+	 * Find the closest record to a time for a sonar
+	 * @param sonarId sonar ID
+	 * @param timeMillis time in milliseconds
+	 * @return index of closest record in the catalogue or -1 if there are no records for that sonar
+	 */
+	public int findClosestSonarIdRecord(int sonarId, long timeMillis) {
+		SortedTimes sonarTimes = sonarIdTimes.get(sonarId);
+		return sonarTimes == null ? -1 : sonarTimes.findClosest(timeMillis);
+	}
+
+	/**
+	 * Find the closest record to a time for a sonar
+	 * @param sonarIndex sonar index
+	 * @param timeMillis time in milliseconds
+	 * @return index of closest record in the catalogue or -1 if there are no records for that sonar
+	 */
+	public int findClosestSonarIndexRecord(int sonarIndex, long timeMillis) {
+		SortedTimes sonarTimes = sonarIndexTimes.get(sonarIndex);
+		return sonarTimes == null ? -1 : sonarTimes.findClosest(timeMillis);
+	}
+
+	/**
+	 * Check the index is still valid for a catalogue
+	 * @param nRecords number of records now in the catalogue
+	 * @param timeZone current time zone
+	 * @return true if the index can be used
+	 */
+	public boolean isValid(int nRecords, TimeZone timeZone) {
+		return this.nRecords == nRecords && this.timeZone == timeZone;
+	}
+
+}
@@ -112,6 +112,25 @@ public class CountingInputStream extends InputStream {
 	}
 	
 
+	/**
+	 * Skip forward to a position in the stream. 
+	 * @param position position to move to
+	 * @return true if the position was reached, false if the stream ended first. 
+	 * @throws IOException
+	 */
+	public boolean skipTo(long position) throws IOException {
+		while (pos < position) {
+			if (skip(position - pos) <= 0) {
+				// skip can return 0 without being at the end, so check with a read. 
+				if (parentStream.read() < 0) {
+					return false;
+				}
+				pos++;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * @return the pos
 	 */
@@ -2,11 +2,19 @@ package tritechgemini.fileio;
 
 import java.io.BufferedInputStream;
 import java.io.DataInput;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import tritechgemini.imagedata.ECDImageRecord;
 
@@ -34,86 +42,437 @@ public class ECDFileCatalog extends GeminiFileCatalog<ECDImageRecord> {
 
 	private String head_msg;
 
-	private double[] lastBearingTable = { 0. };
+	/**
+	 * Last bearing table read, shared by records with the same number of beams. 
+	 * Records can be read in several threads, so a new table is only put here 
+	 * once it's been filled. 
+	 */
+	private volatile double[] lastBearingTable = { 0. };
 
 	private volatile boolean continueStream;
 
+	/**
+	 * Maximum number of threads used to catalogue a large file. 
+	 */
+	private static int catalogThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Smallest part of a file to scan in a separate thread. 
+	 */
+	private static final long MINRANGEBYTES = 16L<<20;
+
+	/**
+	 * Size of blocks read when looking for the start of a record. 
+	 */
+	private static final int SYNCBLOCKBYTES = 65536;
+
+	/**
+	 * Size in bytes of each column of record data in a binary catalogue file. 
+	 * These are in the order they are written in writeBinaryColumns. 
+	 */
+	private static final int[] BINARYCOLUMNSIZES = {4, 4, 2, 1, 4, 1, 1, 4, 2, 2, 2, 2, 2, 2, 4, 2,
+			4, 2, 2, 4, 4, 4, 4, 2, 2, 2, 2, 1, 1, 1, 1, 2,
+			2, 8, 8, 8, 8, 4, 1, 4, 4, 4, 4, 4, 4, 4, 4, 4,
+			1, 2, 2, 4, 2, 1};
+
+	/**
+	 * Positions of columns in a binary catalogue file. 
+	 */
+	private transient int[] binaryColumns;
+
+	/**
+	 * Binary catalogue columns holding the device id (m_rx1) and the record time. 
+	 */
+	private static final int BINARYDEVICECOLUMN = 23, BINARYTIMECOLUMN = 33;
+
 	public ECDFileCatalog(String filePath) {
 		super(filePath);
 	}
 
 	@Override
 	public boolean buildCatalogue(ArrayList<ECDImageRecord> imageRecords) throws Exception {
+		long fileLength = new File(getFilePath()).length();
+		int nRanges = (int) Math.min(catalogThreads, fileLength / MINRANGEBYTES);
+		if (nRanges > 1) {
+			return scanParallel(imageRecords, nRanges);
+		}
+		return scanCatalogue(imageRecords, 0);
+	}
+
+	@Override
+	protected boolean extendCatalogue(ArrayList<ECDImageRecord> imageRecords, long startPosition) throws Exception {
+		return scanCatalogue(imageRecords, startPosition);
+	}
+
+	/**
+	 * Catalogue the file from a given position, adding records to the end of the list. 
+	 * @param imageRecords records
+	 * @param startPosition position in the file to start from, which must be the start
+	 * of a record, or 0 to start at the beginning and read the file header.  
+	 * @return true if catalogued OK. 
+	 * @throws Exception
+	 */
+	private boolean scanCatalogue(ArrayList<ECDImageRecord> imageRecords, long startPosition) throws Exception {
+		ECDImageRecord ecdRecord = null;
+		int frameNumber = 0;
+		if (startPosition > 0 && imageRecords.size() > 0) {
+			// ping tail and zoom records after this point belong to the last image. 
+			ecdRecord = getRecord(imageRecords.size()-1);
+			frameNumber = ecdRecord.getRecordNumber()+1;
+		}
+		ScanRange range = scanRange(new File(getFilePath()), startPosition, Long.MAX_VALUE, ecdRecord, frameNumber);
+		if (range == null) {
+			return false;
+		}
+		imageRecords.addAll(range.records);
+		setCatalogEndPosition(range.endPosition);
+		return true;
+	}
+
+	/**
+	 * Records found when scanning part of a file. 
+	 */
+	private static class ScanRange {
+
+		/**
+		 * Position the scan started from. 
+		 */
+		private long startPosition;
+
+		/**
+		 * Good image records. 
+		 */
+		private ArrayList<ECDImageRecord> records = new ArrayList<>();
+
+		/**
+		 * Last image record, which may be a bad one that isn't in the list. 
+		 */
+		private ECDImageRecord lastImage;
+
+		/**
+		 * Number of image records, including bad ones. 
+		 */
+		private int nFrames;
+
+		/**
+		 * End of the last complete record. 
+		 */
+		private long endPosition;
+
+		/**
+		 * Start of the first record at or after the stop position, or -1 if the
+		 * scan ended before it got there, at the end of the file or a bad record.  
+		 */
+		private long stopPosition = -1;
+
+		/**
+		 * Ping tail and acoustic zoom records before the first image, which belong
+		 * to the last image of the range before. 
+		 */
+		private boolean hasPingTail, hasAcousticZoom;
+		private GeminiPingTail pingTail;
+		private GeminiAcousticZoom acousticZoom;
+
+		private ScanRange(long startPosition) {
+			this.startPosition = startPosition;
+		}
+	}
+
+	/**
+	 * Scan part of the file for image records. 
+	 * @param ecdFile ECD file
+	 * @param startPosition start of a record, or 0 to start at the beginning and read the file header. 
+	 * @param stopPosition stop at the first record starting at or after this position
+	 * @param lastImage last image before the start position, or null if not known. 
+	 * @param firstFrame frame number of the first image record
+	 * @return records found, or null if the file is shorter than the start position. 
+	 * @throws IOException
+	 */
+	private ScanRange scanRange(File ecdFile, long startPosition, long stopPosition, ECDImageRecord lastImage, int firstFrame) throws IOException {
+		ScanRange range = new ScanRange(startPosition);
+		FileInputStream fis = new FileInputStream(ecdFile);
 		try {
-			File ecdFile = new File(getFilePath());
-			FileInputStream fis = new FileInputStream(ecdFile);
 			BufferedInputStream bis = new BufferedInputStream(fis);
 			CountingInputStream cis = new CountingInputStream(bis);
 			DataInput dis = new LittleEndianDataInputStream(cis);
 
-			this.head_ver = dis.readInt();
-			this.end_inf = dis.readInt();
-			this.head_msg = readUnicodeString(dis, 9);
+			ECDImageRecord ecdRecord = lastImage;
 
-			ECDImageRecord ecdRecord = null;
+			int frameNumber = firstFrame;
+			if (startPosition > 0) {
+				if (cis.skipTo(startPosition) == false) {
+					return null;
+				}
+			}
+			else {
+				this.head_ver = dis.readInt();
+				this.end_inf = dis.readInt();
+				this.head_msg = readUnicodeString(dis, 9);
+			}
 
-			int frameNumber = 0;
+			/*
+			 * end of the last complete record. If the file is still being written, the
+			 * last record may be incomplete and will be catalogued when the file is updated.  
+			 */
+			long endPosition = cis.getPos();
 			while (true) {
 				long filePos = cis.getPos();
-				int type = dis.readUnsignedShort(); // first record is TARGET_IMAGE_RECORD
-				if (type == ECDImageRecord.END_TAG) {
+				if (filePos >= stopPosition) {
+					range.stopPosition = filePos;
+					break;
+				}
+				int type, ver;
+				try {
+					type = dis.readUnsignedShort(); // first record is TARGET_IMAGE_RECORD
+					if (type == ECDImageRecord.END_TAG) {
+						break;
+					}
+					ver = dis.readUnsignedShort();
+				}
+				catch (EOFException e) {
+					// no end tag, so file is probably still being written. 
 					break;
 				}
-				int ver = dis.readUnsignedShort();
 				// System.out.printf("Reading type %d version %d\n", type, ver);
 				boolean ok = ECDImageRecord.checkTypeVersion(type, ver);
 				if (ok == false) {
 					break;
 				}
-				switch (type) {
-				case ECDImageRecord.TYPE_SENSOR_RECORD:
-					// readSensorRecord(ecdFile, type, ver, dis);
-					gotoNextEndTag(dis);
-					break;
-				case ECDImageRecord.TYPE_TARGET_RECORD:
-					// readSensorRecord(ecdFile, type, ver, dis);
-					gotoNextEndTag(dis);
-					break;
-				case ECDImageRecord.TYPE_TARGET_IMAGE_RECORD:
-					ecdRecord = new ECDImageRecord(getFilePath(), (int) cis.getPos(), frameNumber++);
-					boolean recOK = readTargetImageRecord(ecdRecord, type, ver, dis, false);
-					if (recOK) {
-						imageRecords.add(ecdRecord);
-					}
+				boolean recordComplete = true;
+				try {
+					switch (type) {
+					case ECDImageRecord.TYPE_SENSOR_RECORD:
+						// readSensorRecord(ecdFile, type, ver, dis);
+						recordComplete = gotoNextEndTag(dis) >= 0;
+						break;
+					case ECDImageRecord.TYPE_TARGET_RECORD:
+						// readSensorRecord(ecdFile, type, ver, dis);
+						recordComplete = gotoNextEndTag(dis) >= 0;
+						break;
+					case ECDImageRecord.TYPE_TARGET_IMAGE_RECORD:
+						ECDImageRecord newRecord = new ECDImageRecord(getFilePath(), (int) cis.getPos(), frameNumber);
+						// not read fully, so ranges scanned in parallel don't share bearing tables. 
+						boolean recOK = readTargetImageRecord(newRecord, type, ver, dis, false);
+						ecdRecord = newRecord;
+						frameNumber++;
+						range.nFrames++;
+						if (recOK) {
+							range.records.add(ecdRecord);
+						}
 
-					// System.out.println("Read target image record " + nImage);
-					// }
-					break;
-				case ECDImageRecord.TYPE_PING_TAIL_RECORD:
-					GeminiPingTail pingTail = readPingTailRecord(ecdFile, type, ver, dis);
-					ecdRecord.setPingTail(pingTail);
-					gotoNextEndTag(dis);
-					break;
-				case ECDImageRecord.TYPE_ACOUSTIC_ZOOM_RECORD:
-					GeminiAcousticZoom acousticZoom = readAcousticZoomRecord(ecdFile, type, ver, dis);
-					ecdRecord.setAcousticZoom(acousticZoom);
-					gotoNextEndTag(dis);
+						// System.out.println("Read target image record " + nImage);
+						// }
+						break;
+					case ECDImageRecord.TYPE_PING_TAIL_RECORD:
+						GeminiPingTail pingTail = readPingTailRecord(ecdFile, type, ver, dis);
+						recordComplete = gotoNextEndTag(dis) >= 0;
+						if (recordComplete) {
+							if (ecdRecord != null) {
+								ecdRecord.setPingTail(pingTail);
+							}
+							else {
+								range.hasPingTail = true;
+								range.pingTail = pingTail;
+							}
+						}
+						break;
+					case ECDImageRecord.TYPE_ACOUSTIC_ZOOM_RECORD:
+						GeminiAcousticZoom acousticZoom = readAcousticZoomRecord(ecdFile, type, ver, dis);
+						recordComplete = gotoNextEndTag(dis) >= 0;
+						if (recordComplete) {
+							if (ecdRecord != null) {
+								ecdRecord.setAcousticZoom(acousticZoom);
+							}
+							else {
+								range.hasAcousticZoom = true;
+								range.acousticZoom = acousticZoom;
+							}
+						}
+						break;
+					default:
+						System.err.printf("Unknown gemini record type %d version %d in file %s\n", type, ver,
+								ecdFile.getAbsolutePath());
+					}
+				}
+				catch (EOFException e) {
+					recordComplete = false;
+				}
+				if (recordComplete == false) {
 					break;
-				default:
-					System.err.printf("Unknown gemini record type %d version %d in file %s\n", type, ver,
-							ecdFile.getAbsolutePath());
 				}
+				endPosition = cis.getPos();
 			}
-
+			range.endPosition = endPosition;
+			range.lastImage = ecdRecord;
+		}
+		finally {
 			fis.close();
-
-		} catch (IOException e) {
-			throw e;
 		}
+		return range;
+	}
 
+	/**
+	 * Catalogue a large file by splitting it into byte ranges which are scanned 
+	 * at the same time. Each range after the first starts at the first place after 
+	 * its nominal start where an end tag is followed by a valid record type and version.
+	 * That may occasionally be inside a record, so the ranges are joined in order and
+	 * a range is only used if the range before it stopped exactly where it started. 
+	 * If not, it's scanned again from where the range before stopped, so the result
+	 * is always the same as scanning the whole file in order. 
+	 * @param imageRecords records
+	 * @param nRanges number of ranges to split the file into
+	 * @return true if catalogued OK. 
+	 * @throws Exception
+	 */
+	private boolean scanParallel(ArrayList<ECDImageRecord> imageRecords, int nRanges) throws Exception {
+		final File ecdFile = new File(getFilePath());
+		long fileLength = ecdFile.length();
+		ArrayList<Long> starts = new ArrayList<>();
+		starts.add(0L);
+		for (int i = 1; i < nRanges; i++) {
+			long start = findRecordStart(ecdFile, fileLength * i / nRanges);
+			if (start < 0) {
+				break;
+			}
+			if (start > starts.get(starts.size()-1)) {
+				starts.add(start);
+			}
+		}
+		int n = starts.size();
+		ExecutorService executor = Executors.newFixedThreadPool(n, new ThreadFactory() {
+			private int nThread = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ECD catalogue scanner " + ++nThread);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ArrayList<Future<ScanRange>> futures = new ArrayList<>(n);
+		try {
+			for (int i = 0; i < n; i++) {
+				final long start = starts.get(i);
+				final long stop = i < n-1 ? starts.get(i+1) : Long.MAX_VALUE;
+				futures.add(executor.submit(new Callable<ScanRange>() {
+					@Override
+					public ScanRange call() throws Exception {
+						return scanRange(ecdFile, start, stop, null, 0);
+					}
+				}));
+			}
+			long position = 0;
+			long endPosition = 0;
+			ECDImageRecord lastImage = null;
+			int frameNumber = 0;
+			for (int i = 0; i < n; i++) {
+				long stop = i < n-1 ? starts.get(i+1) : Long.MAX_VALUE;
+				ScanRange range;
+				try {
+					range = futures.get(i).get();
+				}
+				catch (ExecutionException e) {
+					range = null;
+				}
+				if (range != null && range.startPosition == position) {
+					for (ECDImageRecord rec : range.records) {
+						rec.setRecordNumber(rec.getRecordNumber() + frameNumber);
+					}
+					if (lastImage != null && range.hasPingTail) {
+						lastImage.setPingTail(range.pingTail);
+					}
+					if (lastImage != null && range.hasAcousticZoom) {
+						lastImage.setAcousticZoom(range.acousticZoom);
+					}
+				}
+				else {
+					// range started in the wrong place, or failed, so scan it again from the end of the last one. 
+					range = scanRange(ecdFile, position, stop, lastImage, frameNumber);
+					if (range == null) {
+						break;
+					}
+				}
+				imageRecords.addAll(range.records);
+				if (range.lastImage != null) {
+					lastImage = range.lastImage;
+				}
+				frameNumber += range.nFrames;
+				endPosition = range.endPosition;
+				if (range.stopPosition < 0) {
+					// reached the end of the file or a bad record, so stop, as for a single scan. 
+					break;
+				}
+				position = range.stopPosition;
+			}
+			setCatalogEndPosition(endPosition);
+		}
+		finally {
+			for (Future<ScanRange> future : futures) {
+				future.cancel(true);
+			}
+			executor.shutdown();
+		}
 		return true;
 	}
 
+	/**
+	 * Find the first place at or after a position in the file where there is an 
+	 * end tag followed by a valid record type and version, which is probably the start
+	 * of a record. 
+	 * @param ecdFile ECD file
+	 * @param position position to search from
+	 * @return position of the record start, or -1 if there isn't one. 
+	 * @throws IOException
+	 */
+	private static long findRecordStart(File ecdFile, long position) throws IOException {
+		byte[] block = new byte[SYNCBLOCKBYTES];
+		RandomAccessFile raf = new RandomAccessFile(ecdFile, "r");
+		try {
+			long fileLength = raf.length();
+			// block starts two bytes early so that an end tag just before position is found. 
+			long blockStart = Math.max(0, position-2);
+			while (blockStart < fileLength) {
+				int n = (int) Math.min(block.length, fileLength-blockStart);
+				raf.seek(blockStart);
+				raf.readFully(block, 0, n);
+				for (int i = 2; i+4 <= n; i++) {
+					if ((block[i-2] & 0xFF) != ECDImageRecord.HALF_END_TAG || (block[i-1] & 0xFF) != ECDImageRecord.HALF_END_TAG) {
+						continue;
+					}
+					int type = (block[i] & 0xFF) | (block[i+1] & 0xFF) << 8;
+					int ver = (block[i+2] & 0xFF) | (block[i+3] & 0xFF) << 8;
+					if (ECDImageRecord.checkTypeVersion(type, ver)) {
+						return blockStart + i;
+					}
+				}
+				if (blockStart + n >= fileLength) {
+					break;
+				}
+				// overlap blocks so that a tag, type and version across the join are found. 
+				blockStart += n-5;
+			}
+		}
+		finally {
+			raf.close();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the maximum number of threads used to catalogue a large file. 
+	 */
+	public static int getCatalogThreads() {
+		return catalogThreads;
+	}
+
+	/**
+	 * Set the maximum number of threads used to catalogue a large file. Files 
+	 * are split into parts of at least 16MB which are scanned at the same time.
+	 * @param catalogThreads number of threads. 1 to scan files in order in one thread.  
+	 */
+	public static void setCatalogThreads(int catalogThreads) {
+		ECDFileCatalog.catalogThreads = Math.max(1, catalogThreads);
+	}
+
 	private void readSensorRecord(File ecdFile, int type, int ver, DataInput dis) {
 		try {
 			short dfdf = dis.readShort();
@@ -149,6 +508,7 @@ public class ECDFileCatalog extends GeminiFileCatalog<ECDImageRecord> {
 		dis.skipBytes(geminiRecord.filePos);
 		boolean ok = readTargetImageRecord(geminiRecord, 0, 0, dis, true);
 		fis.close();
+		geminiRecord.isFullyRead = ok;
 
 		return ok;
 	}
@@ -226,19 +586,22 @@ public class ECDFileCatalog extends GeminiFileCatalog<ECDImageRecord> {
 			/**
 			 * Bearing tables are (nearly) always the same, so don't bother reading them.
 			 */
-			if (lastBearingTable != null && lastBearingTable.length == m_numBeams) {
-				ecdRecord.bearingTable = lastBearingTable;
+			double[] lastTable = lastBearingTable;
+			if (lastTable != null && lastTable.length == m_numBeams) {
+				ecdRecord.bearingTable = lastTable;
 				dis.skipBytes(m_numBeams * Double.BYTES);
 			} else {
-				ecdRecord.bearingTable = new double[m_numBeams];
-				lastBearingTable = ecdRecord.bearingTable;
+				double[] table = new double[m_numBeams];
 				for (int i = 0; i < m_numBeams; i++) {
 					/*
 					 * Sweet - clearly OK at this point since I get to read an array of 512 angles
 					 * in radians that goes from +60 deg to -60 deg..
 					 */
-					ecdRecord.bearingTable[i] = dis.readDouble();
+					table[i] = dis.readDouble();
 				}
+				// only share it once it's complete, i.e. not if the file ended part way through. 
+				ecdRecord.bearingTable = table;
+				lastBearingTable = table;
 			}
 		} else {
 			dis.skipBytes(m_numBeams * Double.BYTES);
@@ -304,6 +667,7 @@ public class ECDFileCatalog extends GeminiFileCatalog<ECDImageRecord> {
 	 * end of every record.
 	 * 
 	 * @param dis
+	 * @return number of bytes read, or -1 if the file ended before the end flag. 
 	 */
 	private int gotoNextEndTag(DataInput dis) {
 		int prevByte = 0;
@@ -318,8 +682,11 @@ public class ECDFileCatalog extends GeminiFileCatalog<ECDImageRecord> {
 				prevByte = aByte;
 			}
 
+		} catch (EOFException e) {
+			return -1;
 		} catch (IOException e) {
 			System.out.println("Error in ECD gogNextEndTag: " + e.getLocalizedMessage());
+			return -1;
 		}
 		return nRead;
 	}
@@ -330,6 +697,14 @@ public class ECDFileCatalog extends GeminiFileCatalog<ECDImageRecord> {
 		continueStream = true;
 		int recordsRead = 0;
 		long firstRecordTime = 0, lastRecordTime = 0;
+		/*
+		 * Build a catalogue of copies of the records while streaming, as for GLF files. Each
+		 * copy is made once the ping tail and acoustic zoom records following the image have 
+		 * been read.  
+		 */
+		ArrayList<ECDImageRecord> catalogRecords = new ArrayList<>();
+		setImageRecords(catalogRecords);
+		ECDImageRecord streamedRecord = null;
 		try {
 			File ecdFile = new File(getFilePath());
 			FileInputStream fis = new FileInputStream(ecdFile);
@@ -365,6 +740,10 @@ public class ECDFileCatalog extends GeminiFileCatalog<ECDImageRecord> {
 					gotoNextEndTag(dis);
 					break;
 				case ECDImageRecord.TYPE_TARGET_IMAGE_RECORD:
+					if (streamedRecord != null) {
+						catalogRecords.add(makeCatalogCopy(streamedRecord));
+						streamedRecord = null;
+					}
 					ecdRecord = new ECDImageRecord(getFilePath(), (int) cis.getPos(), frameNumber++);
 					boolean recOK = readTargetImageRecord(ecdRecord, type, ver, dis, true);
 					// imageRecords.add(ecdRecord);
@@ -375,6 +754,7 @@ public class ECDFileCatalog extends GeminiFileCatalog<ECDImageRecord> {
 						}
 						lastRecordTime = ecdRecord.getRecordTime();
 						continueStream = streamObserver.newImageRecord(ecdRecord);
+						streamedRecord = ecdRecord;
 					}
 
 					// System.out.println("Read target image record " + nImage);
@@ -401,16 +781,318 @@ public class ECDFileCatalog extends GeminiFileCatalog<ECDImageRecord> {
 		} catch (IOException e) {
 			throw new CatalogException(e.getMessage());
 		}
+		
+		// save the catalogue, but only if the whole file was streamed
+		if (continueStream) {
+			if (streamedRecord != null) {
+				catalogRecords.add(makeCatalogCopy(streamedRecord));
+			}
+			analyseCatalog();
+			writeSerializedCatalog(getFilePath(), this);
+		}
 
 		return new CatalogStreamSummary(recordsRead, firstRecordTime, lastRecordTime,
 				continueStream ? CatalogStreamSummary.FILEEND : CatalogStreamSummary.DATAGAP);
 	}
 
+	/**
+	 * Make a copy of a streamed record without the image data for the stored catalogue, 
+	 * so that data aren't freed from records that may be waiting to be processed. 
+	 * @param ecdRecord streamed record
+	 * @return copy for the catalogue
+	 */
+	private ECDImageRecord makeCatalogCopy(ECDImageRecord ecdRecord) {
+		ECDImageRecord clonedRecord = ecdRecord.clone();
+		clonedRecord.freeImageData();
+		return clonedRecord;
+	}
+
 	@Override
 	public void stopCatalogStream() {
 		continueStream = false;
 	}
 
+	@Override
+	protected int getBinaryCatalogType() {
+		return BinaryCatalogFile.TYPE_ECD;
+	}
+
+	@Override
+	protected void writeBinaryColumns(LittleEndianDataOutputStream dos, ArrayList<ECDImageRecord> records)
+			throws IOException {
+		dos.writeInt(head_ver);
+		dos.writeInt(end_inf);
+		BinaryCatalogFile.writeString(dos, head_msg);
+		int n = records.size();
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).filePos);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).recordIndex);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_version);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_pid);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_halfArr);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_txLength);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_scanRate);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeFloat(records.get(i).m_sosAtXd);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_shading);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_mainGain);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_gainBlank);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_adcInput);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_spreadGain);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_absorbGain);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_bfFocus);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_bfGain);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeFloat(records.get(i).m_bfAperture);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_txStart);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_txLen);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeFloat(records.get(i).m_txRadius);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeFloat(records.get(i).m_txRng);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_modFreq);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeFloat(records.get(i).m_sosAtXd_2);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_rx1);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_rx2);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_tx1);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_pingFlags);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_rx1Arr);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_rx2Arr);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_tx1Arr);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_tx2Arr);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_tid);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_pid2);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeDouble(records.get(i).m_txTime);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeDouble(records.get(i).m_endTime);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeDouble(records.get(i).m_txAngle);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeDouble(records.get(i).m_sosAvg);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).mask);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_bpp);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_nRngs);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_b0);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_b1);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_r0);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_r1);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).dual);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_nBrgs);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_Brgs_2);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).sCount);
+		}
+		// acoustic zoom data
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).getAcousticZoom() == null ? 0 : 1);
+		}
+		for (int i = 0; i < n; i++) {
+			GeminiAcousticZoom zoom = records.get(i).getAcousticZoom();
+			dos.writeShort(zoom == null ? 0 : zoom.m_acousticVer);
+		}
+		for (int i = 0; i < n; i++) {
+			GeminiAcousticZoom zoom = records.get(i).getAcousticZoom();
+			dos.writeShort(zoom == null ? 0 : zoom.m_headType);
+		}
+		for (int i = 0; i < n; i++) {
+			GeminiAcousticZoom zoom = records.get(i).getAcousticZoom();
+			dos.writeInt(zoom == null ? 0 : zoom.m_chirp);
+		}
+		for (int i = 0; i < n; i++) {
+			GeminiAcousticZoom zoom = records.get(i).getAcousticZoom();
+			dos.writeShort(zoom == null ? 0 : zoom.m_azID);
+		}
+		for (int i = 0; i < n; i++) {
+			GeminiAcousticZoom zoom = records.get(i).getAcousticZoom();
+			dos.writeByte(zoom == null ? 0 : zoom.m_Active);
+		}
+	}
+
+	@Override
+	protected void readBinaryColumns(BinaryCatalogFile binaryFile) {
+		head_ver = binaryFile.readInt();
+		end_inf = binaryFile.readInt();
+		head_msg = binaryFile.readString();
+		binaryColumns = new int[BINARYCOLUMNSIZES.length];
+		for (int i = 0; i < BINARYCOLUMNSIZES.length; i++) {
+			binaryColumns[i] = binaryFile.nextColumn(BINARYCOLUMNSIZES[i]);
+		}
+	}
+
+	@Override
+	protected boolean readBinaryIndex(BinaryCatalogFile binaryFile, long[] times, int[] deviceIds, int[] sonarIndexes) {
+		int[] col = binaryColumns;
+		if (col == null) {
+			return false;
+		}
+		int n = binaryFile.getnRecords();
+		for (int i = 0; i < n; i++) {
+			if (times != null) {
+				times[i] = cDateToMillis(binaryFile.getDouble(col[BINARYTIMECOLUMN], i));
+			}
+			if (deviceIds != null) {
+				deviceIds[i] = binaryFile.getShort(col[BINARYDEVICECOLUMN], i);
+			}
+			if (sonarIndexes != null) {
+				// same as ECDImageRecord.getSonarIndex
+				sonarIndexes[i] = 0;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected ECDImageRecord unpackBinaryRecord(BinaryCatalogFile binaryFile, int iRecord) {
+		int[] col = binaryColumns;
+		int c = 0;
+		int filePos = binaryFile.getInt(col[c++], iRecord);
+		int recordIndex = binaryFile.getInt(col[c++], iRecord);
+		ECDImageRecord ecdRecord = new ECDImageRecord(getFilePath(), filePos, recordIndex);
+		ecdRecord.m_version = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_pid = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		ecdRecord.m_halfArr = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_txLength = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		ecdRecord.m_scanRate = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		ecdRecord.m_sosAtXd = binaryFile.getFloat(col[c++], iRecord);
+		ecdRecord.m_shading = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_mainGain = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_gainBlank = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_adcInput = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_spreadGain = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_absorbGain = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_bfFocus = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_bfGain = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_bfAperture = binaryFile.getFloat(col[c++], iRecord);
+		ecdRecord.m_txStart = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_txLen = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_txRadius = binaryFile.getFloat(col[c++], iRecord);
+		ecdRecord.m_txRng = binaryFile.getFloat(col[c++], iRecord);
+		ecdRecord.m_modFreq = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_sosAtXd_2 = binaryFile.getFloat(col[c++], iRecord);
+		ecdRecord.m_rx1 = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_rx2 = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_tx1 = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_pingFlags = binaryFile.getShort(col[c++], iRecord);
+		ecdRecord.m_rx1Arr = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		ecdRecord.m_rx2Arr = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		ecdRecord.m_tx1Arr = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		ecdRecord.m_tx2Arr = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		ecdRecord.m_tid = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+		ecdRecord.m_pid2 = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+		ecdRecord.m_txTime = binaryFile.getDouble(col[c++], iRecord);
+		ecdRecord.m_endTime = binaryFile.getDouble(col[c++], iRecord);
+		ecdRecord.m_txAngle = binaryFile.getDouble(col[c++], iRecord);
+		ecdRecord.m_sosAvg = binaryFile.getDouble(col[c++], iRecord);
+		ecdRecord.mask = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_bpp = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		ecdRecord.m_nRngs = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_b0 = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_b1 = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_r0 = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_r1 = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.dual = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_nBrgs = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.m_Brgs_2 = binaryFile.getInt(col[c++], iRecord);
+		ecdRecord.sCount = binaryFile.getInt(col[c++], iRecord);
+		if (binaryFile.getByte(col[c++], iRecord) != 0) {
+			GeminiAcousticZoom zoom = new GeminiAcousticZoom();
+			zoom.m_acousticVer = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+			zoom.m_headType = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+			zoom.m_chirp = binaryFile.getInt(col[c++], iRecord);
+			zoom.m_azID = binaryFile.getShort(col[c++], iRecord);
+			zoom.m_Active = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+			ecdRecord.setAcousticZoom(zoom);
+		}
+		ecdRecord.bearingTable = binaryFile.getBearingTable(iRecord);
+		return ecdRecord;
+	}
+
 	@Override
 	protected void checkDeserialisedCatalog(String filePath2) {
 		// TODO Auto-generated method stub
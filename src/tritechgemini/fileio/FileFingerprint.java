@@ -0,0 +1,177 @@
+package tritechgemini.fileio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.zip.CRC32;
+
+/**
+ * Length, modification time and a hash of a few samples of a data file, kept
+ * with catalogues and indexes so that they can tell if the data file has been
+ * changed since they were made. The length and time are checked first, which costs
+ * nothing. The hash is only worked out if they are different, e.g. because the file
+ * has been copied to another drive, and only reads a few small blocks of the file.
+ * <br>The hash is of the data up to the length when the fingerprint was made, so a
+ * file which has grown since can be told apart from one that has been replaced.
+ * @author Doug Gillespie
+ *
+ */
+public class FileFingerprint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * File has the same length and modification time.
+	 */
+	public static final int UNCHANGED = 0;
+
+	/**
+	 * File has the same length and data, but a different modification time,
+	 * e.g. if it's been copied.
+	 */
+	public static final int MOVED = 1;
+
+	/**
+	 * File is longer, but the data that were there before haven't changed.
+	 */
+	public static final int GROWN = 2;
+
+	/**
+	 * File is a different file, or has been rewritten.
+	 */
+	public static final int CHANGED = 3;
+
+	/**
+	 * Number of blocks sampled for the hash
+	 */
+	private static final int NSAMPLES = 8;
+
+	/**
+	 * Size of each sampled block
+	 */
+	private static final int SAMPLESIZE = 4096;
+
+	private long length;
+
+	private long lastModified;
+
+	private long sampleHash;
+
+	public FileFingerprint(long length, long lastModified, long sampleHash) {
+		this.length = length;
+		this.lastModified = lastModified;
+		this.sampleHash = sampleHash;
+	}
+
+	/**
+	 * Make a fingerprint of a file
+	 * @param file data file
+	 * @return fingerprint
+	 * @throws IOException if the file can't be read
+	 */
+	public static FileFingerprint make(File file) throws IOException {
+		long lastModified = file.lastModified();
+		long length = file.length();
+		return new FileFingerprint(length, lastModified, sampleHash(file, length));
+	}
+
+	/**
+	 * Hash blocks of data spread evenly through the first length bytes of the
+	 * file, including the first and last blocks. Small files are hashed completely.
+	 * @param file data file
+	 * @param length length of data to hash, which can be less than the file length.
+	 * @return hash, which is never 0.
+	 * @throws IOException if the file can't be read or is shorter than length.
+	 */
+	public static long sampleHash(File file, long length) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] block = new byte[SAMPLESIZE];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (length <= (long) NSAMPLES * SAMPLESIZE) {
+				long pos = 0;
+				while (pos < length) {
+					int n = (int) Math.min(SAMPLESIZE, length-pos);
+					raf.readFully(block, 0, n);
+					crc.update(block, 0, n);
+					pos += n;
+				}
+			}
+			else {
+				long step = (length - SAMPLESIZE) / (NSAMPLES-1);
+				for (int i = 0; i < NSAMPLES; i++) {
+					raf.seek(i == NSAMPLES-1 ? length-SAMPLESIZE : i*step);
+					raf.readFully(block);
+					crc.update(block);
+				}
+			}
+		}
+		finally {
+			raf.close();
+		}
+		// put the length in the lower half, which also makes sure it's not 0.
+		return crc.getValue() << 32 | ((length & 0x7FFFFFFFL) | 0x80000000L);
+	}
+
+	/**
+	 * Check whether a file has changed since this fingerprint was made.
+	 * @param file data file
+	 * @return UNCHANGED, MOVED, GROWN or CHANGED
+	 */
+	public int check(File file) {
+		return check(file, length, lastModified, sampleHash);
+	}
+
+	/**
+	 * Check whether a file has changed since it had the given fingerprint. If the hash
+	 * isn't known (0), which will be the case for older catalogue files, then a file
+	 * with the same length is MOVED and a longer file is GROWN.
+	 * @param file data file
+	 * @param length length of file
+	 * @param lastModified modification time of file
+	 * @param sampleHash hash from sampleHash, or 0 if not known.
+	 * @return UNCHANGED, MOVED, GROWN or CHANGED
+	 */
+	public static int check(File file, long length, long lastModified, long sampleHash) {
+		long fileLength = file.length();
+		if (fileLength < length) {
+			return CHANGED;
+		}
+		if (fileLength == length && file.lastModified() == lastModified) {
+			return UNCHANGED;
+		}
+		if (sampleHash != 0) {
+			try {
+				if (sampleHash(file, length) != sampleHash) {
+					return CHANGED;
+				}
+			} catch (IOException e) {
+				return CHANGED;
+			}
+		}
+		return fileLength == length ? MOVED : GROWN;
+	}
+
+	/**
+	 * @return the length of the file
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the modification time of the file
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the hash of sampled data
+	 */
+	public long getSampleHash() {
+		return sampleHash;
+	}
+
+}
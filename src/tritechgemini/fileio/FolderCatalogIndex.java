@@ -0,0 +1,419 @@
+package tritechgemini.fileio;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A single index file for a whole folder tree holding the catalogues of every
+ * data file in it, so that a large survey can be opened with one sequential read
+ * instead of opening thousands of separate catalogue files.
+ * <p>
+ * The index is a list of entries, each holding a data file's path relative to the
+ * folder, the times of its first and last records and its catalogue in the same
+ * format as the catalogue file. New and changed catalogues are added to the end
+ * of the file, so the index is updated without writing it all again. A later entry
+ * for the same file replaces an earlier one, and the file is rewritten without the
+ * old entries if they get to be more than half of it.
+ * <br>Catalogues are only made from the index data when they are first used, and
+ * are checked against the data file when they are, so files which have changed
+ * since they were indexed are catalogued again.
+ * @author Doug Gillespie
+ *
+ */
+public class FolderCatalogIndex {
+
+	/**
+	 * Name of the index file in the top folder.
+	 */
+	public static final String INDEXNAME = "SonarCatalogIndex.gidx";
+
+	/**
+	 * "GIDX" in little endian order.
+	 */
+	public static final int MAGIC = 0x58444947;
+
+	public static final int VERSION = 1;
+
+	private static final int HEADERSIZE = 8;
+
+	private File folder;
+
+	private File indexFile;
+
+	/**
+	 * Entries in the index, by absolute data file path.
+	 */
+	private HashMap<String, IndexEntry> entries = new HashMap<>();
+
+	/**
+	 * Entries waiting to be added to the end of the file.
+	 */
+	private ArrayList<IndexEntry> newEntries = new ArrayList<>();
+
+	/**
+	 * Length of the file up to the end of the last complete entry.
+	 */
+	private long indexLength;
+
+	/**
+	 * Bytes in the file taken up by entries which have been replaced.
+	 */
+	private long replacedBytes;
+
+	private boolean loaded;
+
+	/**
+	 * One data file in the index.
+	 */
+	private class IndexEntry {
+
+		private String relativePath;
+
+		private long startTime, endTime;
+
+		private ByteBuffer catalogData;
+
+		private GeminiFileCatalog<?> catalog;
+
+		/**
+		 * Entry has been added since the index was read or saved. 
+		 */
+		private boolean isNew;
+
+		/**
+		 * Size of the entry in the file.
+		 */
+		private int entryBytes;
+
+	}
+
+	/**
+	 * @param folder top folder of the data. The index file is kept in this folder.
+	 */
+	public FolderCatalogIndex(String folder) {
+		this.folder = new File(folder).getAbsoluteFile();
+		indexFile = new File(this.folder, INDEXNAME);
+	}
+
+	/**
+	 * Read the index file, if it exists. This is called automatically the
+	 * first time a catalogue is wanted.
+	 * @return number of files in the index
+	 */
+	public synchronized int load() {
+		loaded = true;
+		entries.clear();
+		newEntries.clear();
+		indexLength = 0;
+		replacedBytes = 0;
+		if (indexFile.exists() == false) {
+			return 0;
+		}
+		ByteBuffer buffer;
+		try {
+			buffer = BinaryCatalogFile.readFile(indexFile);
+		} catch (IOException e) {
+			System.out.println("Unable to read sonar catalogue index " + indexFile + ": " + e.getMessage());
+			return 0;
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.limit() < HEADERSIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) > VERSION) {
+			System.out.println("Sonar catalogue index " + indexFile + " is not a valid index file and will be replaced");
+			return 0;
+		}
+		int pos = HEADERSIZE;
+		while (pos + Integer.BYTES <= buffer.limit()) {
+			int entryBytes = buffer.getInt(pos);
+			int end = pos + Integer.BYTES + entryBytes;
+			if (entryBytes < 0 || end > buffer.limit() || end < 0) {
+				// incomplete entry at the end of the file, which will get written over.
+				break;
+			}
+			IndexEntry entry = new IndexEntry();
+			entry.entryBytes = end-pos;
+			int p = pos + Integer.BYTES;
+			int nameLen = buffer.getShort(p) & 0xFFFF;
+			p += Short.BYTES;
+			char[] chars = new char[nameLen];
+			for (int i = 0; i < nameLen; i++, p += Character.BYTES) {
+				chars[i] = buffer.getChar(p);
+			}
+			entry.relativePath = new String(chars);
+			entry.startTime = buffer.getLong(p);
+			p += Long.BYTES;
+			entry.endTime = buffer.getLong(p);
+			p += Long.BYTES;
+			buffer.position(p);
+			buffer.limit(end);
+			entry.catalogData = buffer.slice();
+			buffer.limit(buffer.capacity());
+			IndexEntry oldEntry = entries.put(getDataFile(entry.relativePath).getPath(), entry);
+			if (oldEntry != null) {
+				replacedBytes += oldEntry.entryBytes;
+			}
+			pos = end;
+		}
+		indexLength = pos;
+		return entries.size();
+	}
+
+	/**
+	 * Get the catalogue for a data file from the index. The catalogue is checked
+	 * against the data file and if the file has changed, the catalogue is updated,
+	 * and will be written to the index next time it's saved.
+	 * @param filePath data file path
+	 * @return catalogue, or null if the file isn't in the index.
+	 */
+	public GeminiFileCatalog<?> getCatalog(String filePath) {
+		IndexEntry entry;
+		synchronized (this) {
+			if (loaded == false) {
+				load();
+			}
+			entry = entries.get(new File(filePath).getAbsolutePath());
+		}
+		if (entry == null) {
+			return null;
+		}
+		synchronized (entry) {
+			if (entry.catalog == null) {
+				entry.catalog = GeminiFileCatalog.readCatalogData(entry.catalogData, entry.relativePath, filePath);
+				if (entry.catalog == null) {
+					return null;
+				}
+				if (entry.catalog.updateCatalogue()) {
+					addCatalog(entry.catalog);
+				}
+			}
+			return entry.catalog;
+		}
+	}
+
+	/**
+	 * Add a catalogue to the index, replacing any there is already for the
+	 * same data file. It's not written to the index file until save is called.
+	 * @param catalog file catalogue
+	 */
+	public synchronized void addCatalog(GeminiFileCatalog<?> catalog) {
+		if (catalog == null || catalog.getFilePath() == null) {
+			return;
+		}
+		if (loaded == false) {
+			load();
+		}
+		File dataFile = new File(catalog.getFilePath()).getAbsoluteFile();
+		IndexEntry entry = new IndexEntry();
+		entry.relativePath = getRelativePath(dataFile);
+		entry.catalog = catalog;
+		entry.isNew = true;
+		IndexEntry oldEntry = entries.put(dataFile.getPath(), entry);
+		if (oldEntry != null) {
+			if (oldEntry.isNew) {
+				newEntries.remove(oldEntry);
+			}
+			else {
+				replacedBytes += oldEntry.entryBytes;
+			}
+		}
+		newEntries.add(entry);
+	}
+
+	/**
+	 * Write new and changed catalogues to the index file. They are added to
+	 * the end of the file unless more than half the file would then be
+	 * replaced entries, in which case the whole file is written again.
+	 * @return true if the index was written successfully
+	 */
+	public synchronized boolean save() {
+		if (newEntries.isEmpty()) {
+			return true;
+		}
+		try {
+			if (indexLength == 0 || replacedBytes > indexLength/2) {
+				rewrite();
+			}
+			else {
+				append();
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Unable to write sonar catalogue index " + indexFile + ": " + e.getMessage());
+			return false;
+		}
+		newEntries.clear();
+		return true;
+	}
+
+	/**
+	 * Add new entries to the end of the file, after the last complete entry.
+	 * @throws IOException
+	 */
+	private void append() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+		try {
+			// get rid of any part written entry from an earlier failed write
+			raf.setLength(indexLength);
+		}
+		finally {
+			raf.close();
+		}
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(indexFile, true), 65536);
+		try {
+			for (IndexEntry entry : newEntries) {
+				indexLength += writeEntry(os, entry);
+			}
+		}
+		finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Write the whole index to a temporary file, then put it in place of
+	 * the old index file.
+	 * @throws IOException
+	 */
+	private void rewrite() throws IOException {
+		File tempFile = new File(indexFile.getPath() + ".tmp");
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile), 65536);
+		long length = HEADERSIZE;
+		try {
+			LittleEndianDataOutputStream dos = new LittleEndianDataOutputStream(os);
+			dos.writeInt(MAGIC);
+			dos.writeShort(VERSION);
+			dos.writeShort(0);
+			for (IndexEntry entry : entries.values()) {
+				length += writeEntry(os, entry);
+			}
+		}
+		finally {
+			os.close();
+		}
+		Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		indexLength = length;
+		replacedBytes = 0;
+	}
+
+	/**
+	 * Write an entry. Catalogue data read from the index are written as they
+	 * are, others are made from the catalogue.
+	 * @param os output stream
+	 * @param entry index entry
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	private int writeEntry(OutputStream os, IndexEntry entry) throws IOException {
+		byte[] catData;
+		int catOffset, catLength;
+		if (entry.isNew == false) {
+			catData = entry.catalogData.array();
+			catOffset = entry.catalogData.arrayOffset();
+			catLength = entry.catalogData.limit();
+		}
+		else {
+			catData = GeminiFileCatalog.getCatalogData(entry.catalog);
+			catOffset = 0;
+			catLength = catData.length;
+			entry.startTime = entry.catalog.getFirstRecordTime();
+			entry.endTime = entry.catalog.getLastRecordTime();
+		}
+		int entryBytes = Short.BYTES + entry.relativePath.length()*Character.BYTES + 2*Long.BYTES + catLength;
+		LittleEndianDataOutputStream dos = new LittleEndianDataOutputStream(os);
+		dos.writeInt(entryBytes);
+		dos.writeShort(entry.relativePath.length());
+		for (int i = 0; i < entry.relativePath.length(); i++) {
+			dos.writeShort(entry.relativePath.charAt(i));
+		}
+		dos.writeLong(entry.startTime);
+		dos.writeLong(entry.endTime);
+		os.write(catData, catOffset, catLength);
+		entry.entryBytes = entryBytes + Integer.BYTES;
+		entry.isNew = false;
+		return entry.entryBytes;
+	}
+
+	/**
+	 * Get the path of a data file relative to the index folder, using / as
+	 * the separator so that the index works on any system. Files outside the
+	 * folder are kept with their absolute path.
+	 * @param dataFile data file
+	 * @return path to store in the index
+	 */
+	private String getRelativePath(File dataFile) {
+		String folderPath = folder.getPath();
+		String path = dataFile.getPath();
+		if (path.startsWith(folderPath + File.separator)) {
+			path = path.substring(folderPath.length()+1);
+		}
+		return path.replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Get a data file from the path stored in the index.
+	 * @param relativePath path stored in the index
+	 * @return data file
+	 */
+	private File getDataFile(String relativePath) {
+		File file = new File(relativePath.replace('/', File.separatorChar));
+		if (file.isAbsolute() == false) {
+			file = new File(folder, file.getPath());
+		}
+		return file;
+	}
+
+	/**
+	 * Get the times of the first and last records in a file, from the
+	 * index, without making the catalogue.
+	 * @param filePath data file path
+	 * @return first and last record times in milliseconds, or null if
+	 * the file isn't in the index.
+	 */
+	public synchronized long[] getTimeRange(String filePath) {
+		if (loaded == false) {
+			load();
+		}
+		IndexEntry entry = entries.get(new File(filePath).getAbsolutePath());
+		if (entry == null) {
+			return null;
+		}
+		if (entry.isNew) {
+			return new long[] {entry.catalog.getFirstRecordTime(), entry.catalog.getLastRecordTime()};
+		}
+		return new long[] {entry.startTime, entry.endTime};
+	}
+
+	/**
+	 * @return number of data files in the index
+	 */
+	public synchronized int getNumFiles() {
+		if (loaded == false) {
+			load();
+		}
+		return entries.size();
+	}
+
+	/**
+	 * @return the index file
+	 */
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	/**
+	 * @return the top folder of the data
+	 */
+	public File getFolder() {
+		return folder;
+	}
+
+}
@@ -15,6 +15,7 @@ public class GLFCatalogCheck {
 	
 	public static final int ADD_GLFFASTCATALOG = 1;
 	public static final int ADD_DATFILECATALOG = 2;
+	public static final int REBUILT_DATFILECATALOG = 4;
 
 	public GLFCatalogCheck() {
 	}
@@ -22,8 +23,9 @@ public class GLFCatalogCheck {
 	/**
 	 * Check a file with a specific name. 
 	 * @param filePath full path to file
-	 * @return -1 for error, 0, 1, 2, or 3 as a bitmap of whether it was 
-	 * necessary to create the glf and or the dat catalogues. 
+	 * @return -1 for error, or a bitmap of whether it was necessary to 
+	 * create the glf and or the dat catalogues, or to rebuild the dat catalogue
+	 * because the data file had changed since it was catalogued. 
 	 */
 	public int checkCatalogues(String filePath) {
 		int added = 0;
@@ -47,6 +49,9 @@ public class GLFCatalogCheck {
 		}
 			try {
 				GeminiFileCatalog geminiCatalog = GeminiFileCatalog.getFileCatalog(filePath, true);
+				if (geminiCatalog != null && geminiCatalog.getDataFileState() == FileFingerprint.CHANGED) {
+					added |= REBUILT_DATFILECATALOG;
+				}
 			} catch (CatalogException e) {
 				e.printStackTrace();
 				return -1;
@@ -25,7 +25,33 @@ public class GLFFastData implements Serializable {
 	 */
 	protected ArrayList<GLFFastBlockData> datBlockStarts = new ArrayList<GLFFastBlockData>();
 	
+	/**
+	 * True if the dat file is really compressed, in which case datBlockStarts
+	 * will be empty and the data are read by inflating from the nearest of 
+	 * the inflatePoints. 
+	 */
+	protected boolean compressed;
+	
+	/**
+	 * Points at which decompression can be restarted in a compressed dat file. 
+	 */
+	protected ArrayList<GLFInflatePoint> inflatePoints;
+	
+	/**
+	 * End of the compressed dat data in the glf file. 
+	 */
+	protected long datCompressedEnd;
+	
+	/**
+	 * Fingerprint of the glf file when it was indexed, so that the index can be
+	 * made again if the file is replaced. Null for older index files. 
+	 */
+	protected FileFingerprint fingerprint;
+	
 	public long getFileBytes() {
+		if (compressed) {
+			return datCompressedEnd;
+		}
 		if (datBlockStarts.size() == 0) {
 			return 0;
 		}
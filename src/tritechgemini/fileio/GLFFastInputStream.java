@@ -14,6 +14,10 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
@@ -28,6 +32,9 @@ import java.util.zip.ZipInputStream;
  * so far as I can tell, only the .dat file is important. This class makes it 
  * possible to read the dat file from the GLF file without actually unzipping
  * the archive.  
+ * <br>Compressed GLF files are also supported by keeping restart points every
+ * MB or so through the deflated data, so that any record can be reached by inflating 
+ * from the nearest point rather than from the start of the file. 
  * @author Doug Gillespie
  *
  */
@@ -52,6 +59,70 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 	 */
 	private static final int BLOCKHEADLENGTH = 5;
 	
+	/**
+	 * Size of each memory mapped section of the glf file. Files can be
+	 * bigger than the 2GB which can be held in a single MappedByteBuffer, so 
+	 * the file is mapped in sections, each of which overlaps the next by 
+	 * more than the maximum size of a block, so that any block is always 
+	 * entirely within the section containing its first byte. 
+	 */
+	private static final long MAPSECTIONSIZE = 1L<<30;
+	
+	/**
+	 * Overlap between mapped sections. Must be more than the maximum 
+	 * block length of 65535 + the block header. 
+	 */
+	private static final long MAPSECTIONOVERLAP = 1L<<17;
+	
+	/**
+	 * Memory mapped sections of the glf file, created as needed. 
+	 */
+	private transient MappedByteBuffer[] mappedSections;
+	
+	/**
+	 * Minimum spacing of restart points in compressed dat files. Each point
+	 * holds up to 32k of window data, so this is a trade off between the size
+	 * of the index and how much has to be inflated to get to any record. 
+	 */
+	private static final long INFLATEPOINTSPACING = 1L<<20;
+	
+	/**
+	 * Amount of data inflated into the buffer at a time from compressed files.
+	 */
+	private static final int INFLATECHUNKSIZE = 65536;
+	
+	/**
+	 * Amount of compressed data passed to the inflater at a time. 
+	 */
+	private static final int INFLATEINPUTSIZE = 16384;
+	
+	/**
+	 * Inflater for compressed dat files. 
+	 */
+	private transient Inflater inflater;
+	
+	/**
+	 * Buffer of compressed data to pass to the inflater. 
+	 */
+	private transient byte[] inflaterInput;
+	
+	/**
+	 * Position in the virtual dat file of the next byte the inflater will output. 
+	 */
+	private transient long inflaterNextByte;
+	
+	/**
+	 * Position in the glf file of the next byte to pass to the inflater. 
+	 */
+	private transient long inflaterFilePos;
+	
+	/**
+	 * Bit offset of the start of the block the inflater was last restarted at. This
+	 * is non zero when the block did not start on a byte boundary and is cleared 
+	 * once the first input has been passed to the inflater. 
+	 */
+	private transient int inflaterBitOffset;
+	
 	public static CPUMonitor skipMonitor = new CPUMonitor();
 	public static CPUMonitor readMonitor = new CPUMonitor();
 	public static CPUMonitor loadMonitor = new CPUMonitor();
@@ -89,8 +160,9 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 	public GLFFastInputStream(File glfFile) throws FileNotFoundException {
 		super();
 		this.glfFile = glfFile;
-		
-		openInputStream();
+		if (glfFile.exists() == false) {
+			throw new FileNotFoundException("GLF file " + glfFile + " does not exist");
+		}
 		
 		/**
 		 * New system 2022-08-03. Keep all the important index
@@ -104,8 +176,20 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 		glfFastData = loadGlfFastData();
 		isOk = (glfFastData != null);
 		if (glfFastData == null) {
+			/*
+			 * Only need the sequential input stream to build the index. 
+			 * After that, everything is read from the memory mapped file. 
+			 */
+			FileFingerprint fingerprint = null;
+			try {
+				fingerprint = FileFingerprint.make(glfFile);
+			} catch (IOException e) {
+			}
+			openInputStream();
 			isOk = createGlfFastInput();
+			closeInputStream();
 			if (isOk) {
+				glfFastData.fingerprint = fingerprint;
 				saveGlfFastData(glfFastData);
 			}
 //			makeNew = true;
@@ -136,6 +220,31 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 			System.out.println(e.getMessage());
 			System.out.println("Error reading fast glf index file " + fastFile.toString());
 		}
+		if (fastData != null && fastData.fingerprint != null) {
+			switch (fastData.fingerprint.check(glfFile)) {
+			case FileFingerprint.UNCHANGED:
+				break;
+			case FileFingerprint.MOVED:
+				// same data, so just update the time. 
+				try {
+					fastData.fingerprint = FileFingerprint.make(glfFile);
+					saveGlfFastData(fastData);
+				} catch (IOException e) {
+				}
+				break;
+			case FileFingerprint.GROWN:
+				/*
+				 * Added to, so index the whole file again. The last block or restart 
+				 * point isn't necessarily complete in the old index, and a grown 
+				 * zip file may not even have its entries in the same place, so 
+				 * it's not extended from where it ended. 
+				 */
+				return null;
+			default:
+				// file has been replaced, so index it again. 
+				return null;
+			}
+		}
 		return fastData;
 	}
 
@@ -170,12 +279,27 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 		countingInputStream = new CountingInputStream(new BufferedInputStream(fis));
 		glfInputStream = new LittleEndianDataInputStream(countingInputStream);
 	}
+	
+	private void closeInputStream() {
+		if (glfInputStream == null) {
+			return;
+		}
+		try {
+			glfInputStream.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		glfInputStream = null;
+		countingInputStream = null;
+	}
 
 	/**
 	 * If I'm right, the GLF files are all REALLY simple zip files, with no actual 
 	 * compression, so it should be very easy to find the starts of the three
 	 * files within each archive, then set up the reader to get quickly to any 
 	 * point within the arcive to grab data. 
+	 * <br>If they are compressed after all, the dat file is scanned to find 
+	 * points at which decompression can be restarted. 
 	 * @param inputStream
 	 * @return true if all OK.
 	 */
@@ -199,10 +323,6 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 					long crc = glfInputStream.readUnsignedInt();
 					long cSize = glfInputStream.readUnsignedInt();
 					long uSize = glfInputStream.readUnsignedInt();
-					if (cSize < uSize) {
-						//				compressed is smaller, so it IS compressed
-						return false;
-					}
 					int fNameLen = glfInputStream.readUnsignedShort();
 					int exf = glfInputStream.readUnsignedShort(); // no idea !
 					byte[] nameData = new byte[fNameLen];
@@ -210,6 +330,7 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 					byte[] extraData = new byte[exf];
 					glfInputStream.read(extraData);
 					String fileName = new String(nameData);
+					long entryStart = countingInputStream.getPos();
 					if (fileName.endsWith(".cfg")) {
 						glfFastData.cfgFileName = fileName;
 						glfFastData.cfgFilePos = countingInputStream.getPos();
@@ -249,10 +370,23 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 //						if (bCount > 430070990 && bCount < 430070990 + 65536*2) {
 //							System.out.println("Block data start at byte " + bCount);
 //						}
-						int blockSize = glfInputStream.readUnsignedShort();
 						if (!isRaw) {
-							return false;
+							/*
+							 * Really compressed, so go back to the start of the entry and
+							 * scan the whole thing to find restart points, then carry on 
+							 * from the end of the compressed data. 
+							 */
+							long entryEnd = scanCompressedEntry(entryStart, isDatFile);
+							closeInputStream();
+							openInputStream();
+							while (countingInputStream.getPos() < entryEnd) {
+								if (glfInputStream.skip(entryEnd-countingInputStream.getPos()) <= 0) {
+									throw new EOFException();
+								}
+							}
+							break;
 						}
+						int blockSize = glfInputStream.readUnsignedShort();
 //						if (lastBlock == false && blockSize != BLOCKDATALENGTH) {
 //							System.out.printf("irregular block length %d at byte %d\n", blockSize, bCount);
 //						}
@@ -269,6 +403,10 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 //					System.out.println("blocks read from archive: " + nBlocks);
 					
 					long currentCount = countingInputStream.getPos();
+					if (isDatFile && uSize == 0 && glfFastData.compressed == false) {
+						// size is in a data descriptor after the data
+						glfFastData.datFileLen = totalBlockBytes;
+					}
 					
 					if (totalBlockBytes != uSize && uSize > 0) {
 //						System.out.printf("Total data size not as expected (%d/%d) at block %d in %s\n",
@@ -310,6 +448,8 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 				}
 				else if (sig == ZipInputStream.EXTSIG) {
 //					System.out.println("ZipInputStream.EXTSIG");
+					// data descriptor with crc and sizes
+					glfInputStream.skipBytes(12);
 				}
 				else if (sig == ZipInputStream.ENDSIG) {
 //					System.out.println("ZipInputStream.ENDSIG");
@@ -348,13 +488,43 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 		}
 		return glfFastData.datFileName != null;
 	}
+	
+	/**
+	 * Scan a compressed entry in the archive. If it's the dat file, this
+	 * also makes the restart points used to read it. 
+	 * @param entryStart start of the entry data in the glf file
+	 * @param isDatFile true if it's the dat file
+	 * @return position in the glf file of the end of the compressed data
+	 * @throws IOException
+	 */
+	private long scanCompressedEntry(long entryStart, boolean isDatFile) throws IOException {
+		FileInputStream fis = new FileInputStream(glfFile);
+		try {
+			fis.getChannel().position(entryStart);
+			GLFInflateScanner scanner = new GLFInflateScanner(fis, entryStart);
+			ArrayList<GLFInflatePoint> points = isDatFile ? new ArrayList<GLFInflatePoint>() : null;
+			long dataLength = scanner.scan(points, INFLATEPOINTSPACING);
+			long entryEnd = entryStart + scanner.getBytesIn();
+			if (isDatFile) {
+				glfFastData.datBlockStarts.clear();
+				glfFastData.compressed = true;
+				glfFastData.inflatePoints = points;
+				glfFastData.datFileLen = dataLength;
+				glfFastData.datCompressedEnd = entryEnd;
+			}
+			return entryEnd;
+		}
+		finally {
+			fis.close();
+		}
+	}
 
 	@Override
 	public int read() throws IOException {
 		if (currentlyAvailable() <= 0) {
-			if (loadNextBlock(currentLoadedBlock+1) == false) {
+			if (loadNextData() == false) {
 				return -1;
-			};
+			}
 		}
 		int data = Byte.toUnsignedInt(currentBlockData[(int) (currentAbsPos-blockStartByte)]);
 		currentAbsPos++;
@@ -389,7 +559,7 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 			currentAbsPos += toRead;
 			bytesRead += toRead;
 			if (currentAbsPos >= blockEndByte) {
-				boolean loaded = loadNextBlock(currentLoadedBlock+1);
+				boolean loaded = loadNextData();
 				if (loaded == false) {
 					pastEnd = true;
 					break;
@@ -423,49 +593,73 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 	@Override
 	public synchronized long skip(long n) throws IOException {
 		skipMonitor.start();
-//		if (skipMonitor.getProcessCalls() == 1295) {
-//			System.out.println("All about to go horribly wrong");
-//		}
 		long endByte = currentAbsPos + n;
-		long remaining = blockEndByte-currentAbsPos; // bytes remaining in memory 	
-		currentAbsPos += n;	
-		if (n < remaining) {
+		if (glfFastData == null) {
 			skipMonitor.stop();
-			return n;
+			return 0;
 		}
+		seek(endByte);
+		skipMonitor.stop();
+		return n;
+	}
+	
+	/**
+	 * Move directly to an absolute position in the virtual dat file. The 
+	 * block holding that position is found from the block index and read 
+	 * straight from the memory mapped glf file, so the time taken does not 
+	 * depend on how far into the file the position is. 
+	 * @param datPosition position in the virtual (unpacked) dat file
+	 * @return true if the position is within the data. 
+	 * @throws IOException
+	 */
+	public synchronized boolean seek(long datPosition) throws IOException {
 		if (glfFastData == null) {
-			return 0;
+			return false;
 		}
-		/*
-		 * Otherwise we need to go through the blocks until currentAbsPos >= a block start
-		 * in the great array list. Then we need to skip the appropriate number of bytes in 
-		 * the underlying input stream and also then load the next block in the actual data
-		 * the underlying input stream will currently be at the end of currentLoadedBlock 
-		 */
-		int whichBlock = currentLoadedBlock+1;
-		long skipInUnderlying = 0;
-		while (whichBlock < glfFastData.datBlockStarts.size()-1) {
-			if (glfFastData.datBlockStarts.get(whichBlock).getVirtualEndByte() >= currentAbsPos) {
-				// where we want to be will be within that block, so 
-				// no skipping in the underlying data.
-				break;
+		if (currentBlockData != null && datPosition >= blockStartByte && datPosition < blockEndByte) {
+			// already in memory
+			currentAbsPos = datPosition;
+			return true;
+		}
+		if (glfFastData.compressed) {
+			boolean ok = seekCompressed(datPosition);
+			currentAbsPos = datPosition;
+			return ok;
+		}
+		int whichBlock = findBlock(datPosition);
+		if (whichBlock < 0) {
+			currentAbsPos = datPosition;
+			blockStartByte = blockEndByte = datPosition;
+			return false;
+		}
+		boolean ok = loadNextBlock(whichBlock);
+		currentAbsPos = datPosition;
+		return ok;
+	}
+	
+	/**
+	 * Binary search of the block index for the block containing a 
+	 * position in the virtual dat file. 
+	 * @param datPosition position in virtual dat file
+	 * @return block index or -1 if out of range. 
+	 */
+	private int findBlock(long datPosition) {
+		ArrayList<GLFFastBlockData> blockStarts = glfFastData.datBlockStarts;
+		int lo = 0, hi = blockStarts.size()-1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			GLFFastBlockData block = blockStarts.get(mid);
+			if (datPosition < block.getVirtualStartByte()) {
+				hi = mid-1;
+			}
+			else if (datPosition >= block.getVirtualEndByte()) {
+				lo = mid+1;
 			}
 			else {
-				skipInUnderlying += glfFastData.datBlockStarts.get(whichBlock).getThisBlockBytes()+BLOCKHEADLENGTH;
-				whichBlock++;
+				return mid;
 			}
 		}
-		if (skipInUnderlying > 0) {
-			glfInputStream.skip(skipInUnderlying);
-		}
-		loadNextBlock(whichBlock);
-		// otherwise, go to the end of this block, then see how many are left
-////		n -= remaining;
-//		int toSkip = (int) ((n-remaining)/BLOCKDATALENGTH)+1;
-//		skipNBlocks(toSkip);
-		skipMonitor.stop();
-				
-		return n;
+		return -1;
 	}
 
 //	@Override
@@ -478,9 +672,22 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 		return (int) (glfFastData.datFileLen-currentAbsPos);
 	}
 
+	/**
+	 * Close the stream, dropping the inflater and the memory mapped sections of
+	 * the glf file. Java can't unmap a file explicitly, so the mapping, and with it 
+	 * the operating system's handle on the file (which on Windows stops it being 
+	 * moved or deleted), remains until the dropped buffers are garbage collected. 
+	 * The stream can still be used after it's closed, sections being mapped 
+	 * again as they are needed. 
+	 */
 	@Override
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
 		super.close();
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+		mappedSections = null;
 	}
 
 
@@ -489,20 +696,41 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 		return super.toString();
 	}
 
+	/**
+	 * Go back to the start of the virtual dat file. Since blocks are read
+	 * from the memory mapped file, there is no longer any need to reopen
+	 * anything. 
+	 * @throws IOException
+	 */
 	public synchronized void resetDataStream() throws IOException {
-		if (glfInputStream != null) {
-			glfInputStream.close();
-		}
-		openInputStream();
-		if (glfInputStream == null || glfFastData == null) {
+		if (glfFastData == null) {
 			// not sure how glfFastData can be null ? 
 			return;
 		}
-		glfInputStream.skip(glfFastData.datFilePos);
 		blockStartByte = blockEndByte = 0;
 		currentBlockLength = 0;
 		currentAbsPos = 0;
-		loadNextBlock(0);
+		if (glfFastData.compressed) {
+			seekCompressed(0);
+		}
+		else {
+			loadNextBlock(0);
+		}
+	}
+	
+	/**
+	 * Load whatever data come next in the virtual file, either the next 
+	 * block from a stored file or the next chunk from a compressed one. 
+	 * @return true if successful. 
+	 * @throws IOException
+	 */
+	private boolean loadNextData() throws IOException {
+		if (glfFastData.compressed) {
+			return inflateNextChunk();
+		}
+		else {
+			return loadNextBlock(currentLoadedBlock+1);
+		}
 	}
 	
 	/**
@@ -528,62 +756,256 @@ public class GLFFastInputStream extends InputStream implements Serializable {
 			return loadRawBlock(blockData);
 		}
 	}
-	private synchronized boolean loadCompressedBlock(GLFFastBlockData blockData) throws IOException {
-		blockStartByte = blockData.getVirtualStartByte();
-		int bScan = glfInputStream.readUnsignedByte();
-		int compSize = glfInputStream.readUnsignedShort();
-		int spares = glfInputStream.readUnsignedShort();
-		byte[] data = new byte[5 + compSize + spares];
-		ByteArrayOutputStream bos;
-		LittleEndianDataOutputStream ls = new LittleEndianDataOutputStream(bos = new ByteArrayOutputStream(5 + compSize));
-		ls.writeByte(bScan);
-		ls.writeShort(compSize);
-		ls.writeShort(spares);
-		byte[] fileData = new byte[compSize + spares];
-		int fileRead = glfInputStream.read(fileData);
-		ls.write(fileData);
-//		bos.
-		byte[] byteData = bos.toByteArray();
-		
-		byte[] inflated = new byte[65536];
-		Inflater inflater = new Inflater();
-		inflater.setInput(byteData);
-		int decompSize = 0;
+	/**
+	 * Move to a position in a compressed dat file. If the inflater is already
+	 * part way through the file before the position, it may be quickest to 
+	 * carry on from where it is, otherwise restart from the nearest restart
+	 * point and inflate forward from there. 
+	 * @param datPosition position in the virtual dat file
+	 * @return true if the position is within the data
+	 * @throws IOException
+	 */
+	private synchronized boolean seekCompressed(long datPosition) throws IOException {
+		if (datPosition < 0 || datPosition >= glfFastData.datFileLen) {
+			blockStartByte = blockEndByte = datPosition;
+			return false;
+		}
+		GLFInflatePoint point = findInflatePoint(datPosition);
+		if (point == null) {
+			return false;
+		}
+		if (inflater == null || datPosition < inflaterNextByte || point.getVirtualStartByte() > inflaterNextByte) {
+			if (restartInflater(point) == false) {
+				return false;
+			}
+		}
+		while (inflaterNextByte <= datPosition) {
+			if (inflateNextChunk() == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Binary search for the last restart point at or before a position
+	 * @param datPosition position in the virtual dat file
+	 * @return restart point, or null if there are none. 
+	 */
+	private GLFInflatePoint findInflatePoint(long datPosition) {
+		ArrayList<GLFInflatePoint> points = glfFastData.inflatePoints;
+		if (points == null || points.size() == 0) {
+			return null;
+		}
+		int lo = 0, hi = points.size()-1;
+		while (lo < hi) {
+			int mid = (lo+hi+1) >>> 1;
+			if (points.get(mid).getVirtualStartByte() <= datPosition) {
+				lo = mid;
+			}
+			else {
+				hi = mid-1;
+			}
+		}
+		return points.get(lo);
+	}
+	
+	/**
+	 * Set up the inflater to start decompressing from a restart point. 
+	 * @param point restart point
+	 * @return true if OK
+	 */
+	private boolean restartInflater(GLFInflatePoint point) {
+		if (inflater == null) {
+			inflater = new Inflater(true);
+		}
+		else {
+			inflater.reset();
+		}
+		if (inflaterInput == null) {
+			inflaterInput = new byte[INFLATEINPUTSIZE+4];
+		}
+		inflaterFilePos = point.getInputStreamPos();
+		inflaterBitOffset = point.getBitOffset();
+		inflaterNextByte = point.getVirtualStartByte();
+		blockStartByte = blockEndByte = inflaterNextByte;
 		try {
-			decompSize = inflater.inflate(inflated);
+			byte[] window = point.getWindow();
+			if (window.length > 0) {
+				inflater.setDictionary(window);
+			}
 		} catch (DataFormatException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			System.out.println("Invalid restart point in GLF file " + glfFile.getName() + ": " + e.getMessage());
+			inflater.end();
+			inflater = null;
+			return false;
 		}
-		
-		return false;
-//		int maxSize = 65536;
-//		byte[] data = new byte[maxSize];
-//		int bytesRead = glfInputStream.read(data);
-//		LittleEndianDataInputStream lis = new LittleEndianDataInputStream(new ByteArrayInputStream(data));
-////		int bScan = lis.readUnsignedByte();
-//		Inflater inflater = new Inflater();
-//		inflater.setInput(data, 0, bytesRead);
-//		inflater.
-		
+		return true;
 	}
+	
+	/**
+	 * Inflate the next chunk of a compressed dat file into the 
+	 * current data buffer.  
+	 * @return true if any data were inflated
+	 * @throws IOException
+	 */
+	private synchronized boolean inflateNextChunk() throws IOException {
+		if (inflater == null) {
+			// closed or never started, so restart to get the next data. 
+			return seekCompressed(blockEndByte);
+		}
+		loadMonitor.start();
+		if (currentBlockData == null || currentBlockData.length < INFLATECHUNKSIZE) {
+			currentBlockData = new byte[INFLATECHUNKSIZE];
+		}
+		int n = 0;
+		try {
+			while (n == 0) {
+				if (inflater.finished()) {
+					break;
+				}
+				if (inflater.needsInput()) {
+					if (feedInflater() == false) {
+						break;
+					}
+				}
+				n = inflater.inflate(currentBlockData, 0, INFLATECHUNKSIZE);
+			}
+		} catch (DataFormatException e) {
+			System.out.println("Error inflating data in GLF file " + glfFile.getName() + ": " + e.getMessage());
+			n = 0;
+		}
+		blockStartByte = inflaterNextByte;
+		currentBlockLength = n;
+		inflaterNextByte += n;
+		blockEndByte = inflaterNextByte;
+		loadMonitor.stop();
+		return n > 0;
+	}
+	
+	/**
+	 * Pass the next lot of compressed data from the memory mapped file to 
+	 * the inflater. The inflater can only start at the beginning of a byte, so
+	 * if the restart point is part way through a byte, the first input is 
+	 * preceded by empty fixed Huffman blocks (10 bits each) chosen so that they
+	 * end exactly where the real block starts, replacing the last few bits 
+	 * of the previous block. The restart points always have an even bit offset
+	 * so that this is possible.  
+	 * @return false if there are no more data. 
+	 * @throws IOException
+	 */
+	private boolean feedInflater() throws IOException {
+		MappedByteBuffer section = getMappedSection(inflaterFilePos);
+		if (section == null) {
+			return false;
+		}
+		int secPos = (int) (inflaterFilePos - getSectionStart(inflaterFilePos));
+		int n = Math.min(INFLATEINPUTSIZE, section.limit() - secPos);
+		if (n <= 0) {
+			return false;
+		}
+		int nPrime = 0;
+		long primeBits = 0;
+		if (inflaterBitOffset > 0) {
+			/*
+			 * Each empty block is BFINAL=0, BTYPE=01 and the 7 bit end of block code 0, 
+			 * which is the value 2 in 10 bits. 
+			 */
+			int nEmpty = inflaterBitOffset/2;
+			for (int i = 0; i < nEmpty; i++) {
+				primeBits |= 2L << (10*i);
+			}
+			nPrime = (nEmpty*10 - inflaterBitOffset) / 8;
+			for (int i = 0; i < nPrime; i++) {
+				inflaterInput[i] = (byte) (primeBits >>> (8*i));
+			}
+		}
+		ByteBuffer secData = section.duplicate();
+		secData.position(secPos);
+		secData.get(inflaterInput, nPrime, n);
+		if (inflaterBitOffset > 0) {
+			int mask = (1<<inflaterBitOffset)-1;
+			int lowBits = (int) (primeBits >>> (8*nPrime)) & mask;
+			inflaterInput[nPrime] = (byte) ((inflaterInput[nPrime] & ~mask) | lowBits);
+			inflaterBitOffset = 0;
+		}
+		inflater.setInput(inflaterInput, 0, n+nPrime);
+		inflaterFilePos += n;
+		return true;
+	}
+	
 	private synchronized boolean loadRawBlock(GLFFastBlockData blockData) throws IOException {
 				
 		blockStartByte = blockData.getVirtualStartByte();
-		int bMap = glfInputStream.readUnsignedByte();
-		boolean isRaw = ((bMap & 0x6) == 0);
-		int bytesRead = 0;
-		// raw data, don't really need to do anything. 
-		currentBlockLength = glfInputStream.readUnsignedShort();
-		int spares = glfInputStream.readShort();
+		/*
+		 * Input stream pos is the position of the length word, after the 
+		 * bMap byte, and is followed by the 2 spare bytes and then the data. 
+		 */
+		long dataPos = blockData.getInputStreamPos() + BLOCKHEADLENGTH - 1;
+		currentBlockLength = blockData.getThisBlockBytes();
 		if (currentBlockData == null || currentBlockData.length < currentBlockLength) {
 			currentBlockData = new byte[currentBlockLength];
 		}
-		bytesRead = glfInputStream.read(currentBlockData, 0, currentBlockLength);
+		MappedByteBuffer section = getMappedSection(dataPos);
+		int bytesRead = 0;
+		if (section != null) {
+			int secPos = (int) (dataPos - getSectionStart(dataPos));
+			bytesRead = Math.max(0, Math.min(currentBlockLength, section.limit() - secPos));
+			ByteBuffer secData = section.duplicate();
+			secData.position(secPos);
+			secData.get(currentBlockData, 0, bytesRead);
+		}
 		blockEndByte = blockStartByte + bytesRead;
 		loadMonitor.stop();
 		return bytesRead == currentBlockLength;
 	}
+	
+	/**
+	 * Start byte in the glf file of the mapped section that will 
+	 * hold a given file position. 
+	 * @param filePos position in glf file. 
+	 * @return start of section in glf file
+	 */
+	private long getSectionStart(long filePos) {
+		return (filePos / MAPSECTIONSIZE) * MAPSECTIONSIZE;
+	}
+	
+	/**
+	 * Get the memory mapped section of the file that holds a given file
+	 * position, mapping it if it's not been used before. The file channel
+	 * is closed again straight away since the mapping remains valid without
+	 * it, but the mapping itself keeps the file open until the buffer is garbage
+	 * collected, even after the stream is closed. 
+	 * @param filePos position in glf file
+	 * @return Mapped section of file or null if the file can't be opened. 
+	 * @throws IOException
+	 */
+	private MappedByteBuffer getMappedSection(long filePos) throws IOException {
+		int iSection = (int) (filePos / MAPSECTIONSIZE);
+		if (mappedSections == null || mappedSections.length <= iSection) {
+			MappedByteBuffer[] newSections = new MappedByteBuffer[iSection+1];
+			if (mappedSections != null) {
+				System.arraycopy(mappedSections, 0, newSections, 0, mappedSections.length);
+			}
+			mappedSections = newSections;
+		}
+		if (mappedSections[iSection] == null) {
+			FileChannel channel = FileChannel.open(glfFile.toPath(), StandardOpenOption.READ);
+			try {
+				long fileLen = channel.size();
+				long secStart = getSectionStart(filePos);
+				if (secStart >= fileLen) {
+					return null;
+				}
+				long secLen = Math.min(fileLen-secStart, MAPSECTIONSIZE+MAPSECTIONOVERLAP);
+				mappedSections[iSection] = channel.map(FileChannel.MapMode.READ_ONLY, secStart, secLen);
+			}
+			finally {
+				channel.close();
+			}
+		}
+		return mappedSections[iSection];
+	}
 
 	/**
 	 * @return the glfFile
@@ -8,7 +8,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -24,7 +33,44 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 
 	private static final int DE = 0xDE;
 
-	private transient Inflater inflater;
+	/**
+	 * Inflaters for unpacking image data. One per thread since images may
+	 * be unpacked in several threads at once. 
+	 */
+	private static ThreadLocal<Inflater> threadInflater = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+	
+	/**
+	 * Number of threads used to unpack images when streaming. If this is more
+	 * than one, reading the file, unpacking the images and passing them to the
+	 * stream observer are all done at the same time. 
+	 */
+	private static int streamThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Working buffers for zipped image data. 
+	 */
+	private static ByteArrayPool zippedDataPool = new ByteArrayPool(64);
+	
+	/**
+	 * Image data arrays which have been finished with and can be reused. 
+	 * See recycleImageData. 
+	 */
+	private static ByteArrayPool imageDataPool = new ByteArrayPool(64);
+	
+	/**
+	 * Deflaters for writing GLF records, one per thread. 
+	 */
+	private static ThreadLocal<Deflater> threadDeflater = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater();
+		}
+	};
 
 	private int zippedDataSize = 0;
 
@@ -36,11 +82,28 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 		//		System.out.println("Finalise GLFFileCatalog");
 	}
 
-	private GLFFastInputStream fastInput;
+	private volatile GLFFastInputStream fastInput;
 
 	private volatile boolean continueStream;
 
-	private boolean stopStreaming;
+	/**
+	 * Size in bytes of each column of record data in a binary catalogue file. 
+	 * These are in the order they are written in writeBinaryColumns. 
+	 */
+	private static final int[] BINARYCOLUMNSIZES = {4, 4, 1, 1, 4, 8, 1, 2, 2, 2, 
+			2, 4, 4, 2, 4, 4, 4, 4, 4, 4, 8, 2, 4, 2, 1, 1, 1, 1, 2};
+
+	/**
+	 * Positions of columns in a binary catalogue file. 
+	 */
+	private transient int[] binaryColumns;
+
+	/**
+	 * Binary catalogue columns holding the device id and the record time. 
+	 */
+	private static final int BINARYDEVICECOLUMN = 7, BINARYTIMECOLUMN = 20;
+
+	private volatile boolean stopStreaming;
 
 	public GLFFileCatalog(String filePath) {
 		super(filePath);
@@ -48,7 +111,32 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 
 	@Override
 	public boolean buildCatalogue(ArrayList<GLFImageRecord> imageRecords) throws Exception {
+		return scanCatalogue(imageRecords, 0);
+	}
+
+	/**
+	 * Only the record scan is proportional to the new data. For .glf files the zip 
+	 * structure is indexed again in full, since the fast index of a grown file is 
+	 * rebuilt, or the zip stream has to inflate everything before the start position 
+	 * if there isn't a fast index. Extending a .dat file only reads the new data. 
+	 */
+	@Override
+	protected boolean extendCatalogue(ArrayList<GLFImageRecord> imageRecords, long startPosition) throws Exception {
+		return scanCatalogue(imageRecords, startPosition);
+	}
+
+	/**
+	 * Catalogue the file from a given position, adding records to the end of the list. 
+	 * @param imageRecords records
+	 * @param startPosition position in the dat data to start from, which must be the start of a record. 
+	 * @return true if catalogued OK. 
+	 * @throws Exception
+	 */
+	private boolean scanCatalogue(ArrayList<GLFImageRecord> imageRecords, long startPosition) throws Exception {
 		InputStream inputStream = findDataInputStream();
+		if (inputStream == null) {
+			return false;
+		}
 
 		/*
 		 * Using a buffered input stream brings down the file read time from 18s to 322
@@ -59,11 +147,20 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 		//		BufferedInputStream bis = new BufferedInputStream(inputStream);
 		CountingInputStream cis = new CountingInputStream(inputStream);
 		DataInput dis = new LittleEndianDataInputStream(cis);
+		if (startPosition > 0 && cis.skipTo(startPosition) == false) {
+			closeScanStream(inputStream);
+			return false;
+		}
 		
 		File file = new File(getFilePath());
 		String fileName = file.getName();
 
-		int nRec = 0;
+		int nRec = imageRecords.size();
+		/*
+		 * end of the last complete record. If the file is still being written, the
+		 * last record may be incomplete and will be catalogued when the file is updated.  
+		 */
+		long endPosition = cis.getPos();
 		int totalRecords = 0; // count of records of any type
 		long t1 = System.currentTimeMillis();
 		int badRec = 0;
@@ -83,10 +180,12 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 				}
 
 				//				long p1 = cis.getPos();
+				boolean recordComplete = true;
 				switch (header.m_dataType) {
 				case 0: // image record
 					GLFImageRecord glfImage = new GLFImageRecord(header, getFilePath(), (int) cis.getPos(), nRec);
-					int ok = readGlfRecord(glfImage, dis, false);
+					int ok = scanGlfRecord(glfImage, dis);
+					recordComplete = ok != 1;
 					if (ok == 0) {
 						imageRecords.add(glfImage);
 						nRec++;
@@ -97,18 +196,23 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 //					}
 					break;
 				case 3: // status
-					GLFStatusData statusData = new GLFStatusData(header, fileName);
-					statusData.read(dis, false);
+					// status data don't go into the catalogue, so skip them. m_length isn't the length of the data.  
+					int statusSize = GLFStatusData.getDataSize(false);
+					recordComplete = dis.skipBytes(statusSize) == statusSize;
 					nStatus ++;
 					break; 
 				case 1: //V4 Protocol (e.g. SeaKing, SeaPrince, Micron)
 					int len = header.m_length;
-					dis.skipBytes(len);
+					recordComplete = dis.skipBytes(len) == len;
 					break;
 				default:
 					System.out.printf("Unknown record type %d in file %s\n", header.m_dataType, this.getFilePath());
 					break;
 				}
+				if (recordComplete == false) {
+					break;
+				}
+				endPosition = cis.getPos();
 				previousHeader = header;
 			}
 		} catch (CatalogException e) {
@@ -117,10 +221,45 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 		if (badRec > 0) {
 			System.out.println("Incomprehensible records records in file are " + badRec);
 		}
+		setCatalogEndPosition(endPosition);
+		closeScanStream(inputStream);
 
 		return true;
 	}
 
+	/**
+	 * Close the fast input stream used to load records, dropping its memory mapped
+	 * sections of the glf file. The file is only released once they have been garbage 
+	 * collected. It's mapped again if more records are loaded. 
+	 */
+	@Override
+	public void closeDataFile() {
+		GLFFastInputStream input = fastInput;
+		if (input == null) {
+			return;
+		}
+		try {
+			input.close();
+		} catch (IOException e) {
+			System.out.println("Error closing glf file " + getFilePath() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Close the stream used to catalogue the file, unless it's the fast
+	 * input stream which is kept open for loading records. 
+	 * @param inputStream input stream
+	 */
+	private void closeScanStream(InputStream inputStream) {
+		if (inputStream == fastInput) {
+			return;
+		}
+		try {
+			inputStream.close();
+		} catch (IOException e) {
+		}
+	}
+
 	/**
 	 * Read the next generic header object from the file.
 	 * 
@@ -131,8 +270,9 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 	private GLFGenericHeader readNextHeader(DataInput dis) throws CatalogException {
 		GLFGenericHeader header = new GLFGenericHeader();
 		try {
-			header.m_idChar = dis.readByte(); // should always be '*' (=42)
-			header.m_version = dis.readUnsignedByte();
+			ByteBuffer buffer = HeaderBuffer.read(dis, 2);
+			header.m_idChar = buffer.get(); // should always be '*' (=42)
+			header.m_version = HeaderBuffer.getUnsignedByte(buffer);
 			// at end of file idChar and version are both DE. 
 			if (Byte.toUnsignedInt(header.m_idChar) == DE && header.m_version == DE) {
 				//				System.out.println("Endoffile");
@@ -141,12 +281,13 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 			// if (glfImage.m_version == DE || glfImage.m_idChar != 42) {
 			// return false;
 			// }
-			header.m_length = dis.readInt();
-			header.m_timestamp = dis.readDouble();
-			header.m_dataType = dis.readUnsignedByte(); // getting a datatype 3, which is not image data. FFS.
-			header.tm_deviceId = dis.readUnsignedShort();
-			header.m_node_ID = dis.readUnsignedShort();
-			header.m_spare = dis.readShort();
+			buffer = HeaderBuffer.read(dis, 19);
+			header.m_length = buffer.getInt();
+			header.m_timestamp = buffer.getDouble();
+			header.m_dataType = HeaderBuffer.getUnsignedByte(buffer); // getting a datatype 3, which is not image data. FFS.
+			header.tm_deviceId = HeaderBuffer.getUnsignedShort(buffer);
+			header.m_node_ID = HeaderBuffer.getUnsignedShort(buffer);
+			header.m_spare = buffer.getShort();
 		} catch (EOFException eof) {
 			return null;
 		} catch (IOException ioEx) {
@@ -157,22 +298,56 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 
 	@Override
 	public boolean loadFullRecord(GLFImageRecord geminiRecord) throws IOException {
-		InputStream inputStream;
-		if (fastInput != null) {
-			fastInput.resetDataStream();
-			inputStream = fastInput;
-		} else {
-			inputStream = findDataInputStream();
+		return loadFullRecord(geminiRecord, null);
+	}
+
+	/**
+	 * Load a full record, unpacking the image into an existing array if 
+	 * it's the right size, rather than allocating a new one.  
+	 * @param geminiRecord record to load
+	 * @param reuse array for the image data (can be null)
+	 * @return true if loaded OK
+	 * @throws IOException
+	 */
+	public boolean loadFullRecord(GLFImageRecord geminiRecord, byte[] reuse) throws IOException {
+		InputStream inputStream = null;
+		/*
+		 * Records may be loaded in more than one thread (e.g. by the prefetcher), so 
+		 * make sure only one of them opens the fast input stream. 
+		 */
+		synchronized (this) {
+			if (fastInput == null) {
+				inputStream = findDataInputStream();
+				if (inputStream == null) {
+					return false;
+				}
+			}
 		}
-		if (inputStream == null) {
-			return false;
+		if (inputStream != null) {
+			if (inputStream != fastInput) {
+				// not a fast input stream, so have to skip through to the record
+				LittleEndianDataInputStream dis = new LittleEndianDataInputStream(inputStream);
+				dis.skip(geminiRecord.filePos);
+				boolean ok = readGlfRecord(geminiRecord, dis, true, null, reuse) == 0;
+				inputStream.close();
+				geminiRecord.isFullyRead = ok;
+				return ok;
+			}
+		}
+		/*
+		 * Fast input stream can go straight to the block holding the 
+		 * record without reading anything in between.  
+		 */
+		GLFFastInputStream input = fastInput;
+		synchronized (input) {
+			if (input.seek(geminiRecord.filePos) == false) {
+				return false;
+			}
+			LittleEndianDataInputStream dis = new LittleEndianDataInputStream(input);
+			boolean ok = readGlfRecord(geminiRecord, dis, true, null, reuse) == 0;
+			geminiRecord.isFullyRead = ok;
+			return ok;
 		}
-		//		BufferedInputStream bis = new BufferedInputStream(inputStream);
-		LittleEndianDataInputStream dis = new LittleEndianDataInputStream(inputStream);
-		dis.skip(geminiRecord.filePos);
-		boolean ok = readGlfRecord(geminiRecord, dis, true) == 0;
-		inputStream.close();
-		return ok;
 	}
 
 	/**
@@ -229,6 +404,25 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 	 * @throws CatalogException
 	 */
 	public int readGlfRecord(GLFImageRecord glfImage, DataInput dis, boolean readFully) throws CatalogException {
+		return readGlfRecord(glfImage, dis, readFully, null, null);
+	}
+
+	/**
+	 * Read a GLF record which may or may not have already been partially read.
+	 * 
+	 * @param glfImage
+	 * @param dis
+	 * @param readFully
+	 * @param streamFrame if this isn't null, zipped image data are left in the stream 
+	 *        frame to be unpacked later rather than unpacked now. 
+	 * @param imageBuffer array to use for the image data if it's the right size. If 
+	 *        it's null, an array from the pool of recycled image data is used. 
+	 * @return 0 for a normal GLF record, 1 for file end, 2 for something else we
+	 *         didn't understand
+	 * @throws CatalogException
+	 */
+	private int readGlfRecord(GLFImageRecord glfImage, DataInput dis, boolean readFully, StreamFrame streamFrame, 
+			byte[] imageBuffer) throws CatalogException {
 
 		//		if (glfImage.getRecordNumber() >= 341) {
 		//			System.out.println("Record " + glfImage.getRecordNumber());
@@ -238,8 +432,9 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 		try {
 			// end of standard header section.
 
-			int imageRec = dis.readUnsignedShort(); // reading a value of 1.
-			int efef = dis.readUnsignedShort();
+			ByteBuffer buffer = HeaderBuffer.read(dis, 4);
+			int imageRec = HeaderBuffer.getUnsignedShort(buffer); // reading a value of 1.
+			int efef = HeaderBuffer.getUnsignedShort(buffer);
 			if (efef != 0xEFEF) {
 				String err = String.format("Unrecognised (a) byte pattern ox%X  in file\n", efef);
 				if (true) {
@@ -274,19 +469,7 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 				}
 			}
 
-			glfImage.imageVersion = dis.readUnsignedShort();
-			glfImage.startRange = dis.readInt();
-			glfImage.endRange = dis.readInt();
-			glfImage.rangeCompression = dis.readUnsignedShort();
-			glfImage.startBearing = dis.readInt();
-			glfImage.endBearing = dis.readInt();
-
-			if (glfImage.imageVersion == 3) {
-				// two extra bytes in imageVersion 3.
-				int fKnows = dis.readShort();
-			}
-
-			glfImage.dataSize = dis.readInt();
+			readImageHeader(glfImage, HeaderBuffer.read(dis, 20), dis);
 
 			int nBearing = glfImage.endBearing - glfImage.startBearing;
 			int nRange = glfImage.endRange - glfImage.startRange;
@@ -297,19 +480,28 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 				int expSize = (glfImage.endBearing - glfImage.startBearing) * (glfImage.endRange - glfImage.startRange);
 				if (expSize == glfImage.dataSize) {
 					// it's not zipped
-					byte[] data = new byte[expSize];
+					byte[] data = getImageArray(imageBuffer, expSize);
 					dis.readFully(data);
 					glfImage.setImageData(data);
 				} else { // it is zipped
 					// read the image
-					byte[] zippedData = new byte[glfImage.dataSize];
-					dis.readFully(zippedData);
-					try {
-						byte[] data = inflateData(zippedData, glfImage.endRange - glfImage.startRange, nBearing);
+					byte[] zippedData = zippedDataPool.get(glfImage.dataSize);
+					dis.readFully(zippedData, 0, glfImage.dataSize);
+					if (streamFrame != null) {
+						streamFrame.zippedData = zippedData;
+					}
+					else try {
+						byte[] data = getImageArray(imageBuffer, expSize);
+						inflateData(zippedData, glfImage.dataSize, data);
 						glfImage.setImageData(data);
 					} catch (DataFormatException dataFormatException) {
 						throw new CatalogException("Error unzipping raw data: " + dataFormatException.getMessage());
 					}
+					finally {
+						if (streamFrame == null) {
+							zippedDataPool.release(zippedData);
+						}
+					}
 				}
 
 				// read the bearing table
@@ -318,9 +510,8 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 					dis.skipBytes(nBearing * Double.BYTES);
 				} else {
 					glfImage.bearingTable = new double[nBearing];
-					for (int i = 0; i < nBearing; i++) {
-						glfImage.bearingTable[i] = dis.readDouble();
-					}
+					buffer = HeaderBuffer.read(dis, nBearing * Double.BYTES);
+					buffer.asDoubleBuffer().get(glfImage.bearingTable);
 					lastBearingTable = glfImage.bearingTable;
 				}
 			} else {
@@ -328,25 +519,41 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 				dis.skipBytes(glfImage.dataSize + nBearing * Double.BYTES);
 				//				dis.skipBytes(glfImage.dataSize);
 			}
-			glfImage.m_uiStateFlags = dis.readInt();
-			glfImage.m_UiModulationFrequency = dis.readInt();
-			glfImage.m_fBeamFormAperture = dis.readFloat();
-			glfImage.m_dbTxtime = dis.readDouble();
-			glfImage.m_usPingFlags = dis.readUnsignedShort();
-			glfImage.m_sosAtXd = dis.readFloat();
-			glfImage.m_sPercentGain = dis.readUnsignedShort();
-			glfImage.m_fChirp = dis.readUnsignedByte();
-			glfImage.m_ucSonartype = dis.readUnsignedByte();
-			/*
-			 * none=0, 720is=1, 720ik=2, 720im= Micron Gemini = 3, 1200ik=4
-			 */
-			glfImage.m_ucPlatform = dis.readUnsignedByte();
-			glfImage.oneSpare = dis.readByte();
-			glfImage.dede = dis.readUnsignedShort();
-			if (glfImage.dede != 0xDEDE) {
-				String err = String.format("Unrecognised (c) byte pattern ox%X  in file\n", glfImage.dede);
-				throw new CatalogException(err);
+			readImageFooter(glfImage, dis);
+		} catch (EOFException eof) {
+			return 1;
+		} catch (IOException ioEx) {
+			throw (new CatalogException(ioEx.getMessage()));
+		}
+		return 0;
+	}
+
+	/**
+	 * Scan a GLF image record when building the catalogue. Only the fixed size 
+	 * parts of the record which go into the catalogue are read. The image data and
+	 * bearing table are skipped in one go, which for uncompressed data or a GLF file
+	 * with a fast index is a seek to the end of the record.  
+	 * @param glfImage image record, which already has its generic header. 
+	 * @param dis data input, positioned just after the generic header
+	 * @return 0 for a normal GLF record, 1 for file end, 2 for something else we
+	 *         didn't understand
+	 * @throws CatalogException
+	 */
+	private int scanGlfRecord(GLFImageRecord glfImage, DataInput dis) throws CatalogException {
+		try {
+			ByteBuffer buffer = HeaderBuffer.read(dis, 24);
+			int imageRec = HeaderBuffer.getUnsignedShort(buffer);
+			int efef = HeaderBuffer.getUnsignedShort(buffer);
+			if (efef != 0xEFEF) {
+				// same as readGlfRecord, which skips 214 bytes after the first four. 
+				dis.skipBytes(194);
+				return 2;
 			}
+			readImageHeader(glfImage, buffer, dis);
+			int nBearing = glfImage.endBearing - glfImage.startBearing;
+			zippedDataSize += glfImage.dataSize;
+			dis.skipBytes(glfImage.dataSize + nBearing * Double.BYTES);
+			readImageFooter(glfImage, dis);
 		} catch (EOFException eof) {
 			return 1;
 		} catch (IOException ioEx) {
@@ -355,6 +562,63 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 		return 0;
 	}
 
+	/**
+	 * Read the fixed part of an image record header which comes before the image data. 
+	 * @param glfImage image record
+	 * @param buffer buffer positioned at the start of the image version, with 
+	 * at least 20 bytes remaining.
+	 * @param dis data input, positioned at the end of the data in the buffer. 
+	 * @throws IOException
+	 */
+	private void readImageHeader(GLFImageRecord glfImage, ByteBuffer buffer, DataInput dis) throws IOException {
+		glfImage.imageVersion = HeaderBuffer.getUnsignedShort(buffer);
+		glfImage.startRange = buffer.getInt();
+		glfImage.endRange = buffer.getInt();
+		glfImage.rangeCompression = HeaderBuffer.getUnsignedShort(buffer);
+		glfImage.startBearing = buffer.getInt();
+		glfImage.endBearing = buffer.getInt();
+
+		if (glfImage.imageVersion == 3) {
+			// two extra bytes in imageVersion 3.
+			buffer = HeaderBuffer.read(dis, 6);
+			int fKnows = buffer.getShort();
+		}
+		else {
+			buffer = HeaderBuffer.read(dis, 4);
+		}
+
+		glfImage.dataSize = buffer.getInt();
+	}
+
+	/**
+	 * Read the fixed part of an image record which comes after the bearing table. 
+	 * @param glfImage image record
+	 * @param dis data input, positioned at the end of the bearing table. 
+	 * @throws IOException
+	 */
+	private void readImageFooter(GLFImageRecord glfImage, DataInput dis) throws IOException {
+		ByteBuffer buffer = HeaderBuffer.read(dis, 34);
+		glfImage.m_uiStateFlags = buffer.getInt();
+		glfImage.m_UiModulationFrequency = buffer.getInt();
+		glfImage.m_fBeamFormAperture = buffer.getFloat();
+		glfImage.m_dbTxtime = buffer.getDouble();
+		glfImage.m_usPingFlags = HeaderBuffer.getUnsignedShort(buffer);
+		glfImage.m_sosAtXd = buffer.getFloat();
+		glfImage.m_sPercentGain = HeaderBuffer.getUnsignedShort(buffer);
+		glfImage.m_fChirp = HeaderBuffer.getUnsignedByte(buffer);
+		glfImage.m_ucSonartype = HeaderBuffer.getUnsignedByte(buffer);
+		/*
+		 * none=0, 720is=1, 720ik=2, 720im= Micron Gemini = 3, 1200ik=4
+		 */
+		glfImage.m_ucPlatform = HeaderBuffer.getUnsignedByte(buffer);
+		glfImage.oneSpare = buffer.get();
+		glfImage.dede = HeaderBuffer.getUnsignedShort(buffer);
+		if (glfImage.dede != 0xDEDE) {
+			String err = String.format("Unrecognised (c) byte pattern ox%X  in file\n", glfImage.dede);
+			throw new CatalogException(err);
+		}
+	}
+
 	/**
 	 * Write a GLF record to the data output stream. This should be in the same
 	 * format as the data were read in. 
@@ -390,11 +654,12 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 		/**
 		 * Zip the data and see how bit it us
 		 */
-		Deflater deflater = new Deflater();
+		Deflater deflater = threadDeflater.get();
+		deflater.reset();
 		byte[] imageRaw = glfImage.getImageData();
 		deflater.setInput(imageRaw);
 		deflater.finish();
-		byte[] zippedData = new byte[imageRaw.length];
+		byte[] zippedData = zippedDataPool.get(imageRaw.length);
 		int packedSize = deflater.deflate(zippedData, 0, imageRaw.length, Deflater.FULL_FLUSH);
 
 		dos.writeInt(packedSize);
@@ -403,6 +668,7 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 
 		//		zippedDataSize += glfImage.dataSize;
 		dos.write(zippedData, 0, packedSize);
+		zippedDataPool.release(zippedData);
 		//				dis.readFully(zippedData);
 		double[] bearings = glfImage.bearingTable;
 		for (int i = 0; i < bearings.length; i++) {
@@ -442,36 +708,55 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 	}
 
 	/**
-	 * Unzip the data which is in a standard zipped archive format.
+	 * Unzip the data which is in a standard zipped archive format into
+	 * an existing array. 
 	 * 
-	 * @param zippedData zipped data
-	 * @param nRange     number of ranges
-	 * @param nBearing   number of bearings
-	 * @return unzipped data.
+	 * @param zippedData   zipped data
+	 * @param zippedLength number of bytes of zipped data, which may be less than the array length
+	 * @param unzippedData array for the image data, which must be the size of the image. 
 	 * @throws DataFormatException Exception thrown by the unzipper.
 	 */
-	private byte[] inflateData(byte[] zippedData, int nRange, int nBearing) throws DataFormatException {
-		inflater = getInflater();
+	private void inflateData(byte[] zippedData, int zippedLength, byte[] unzippedData) throws DataFormatException {
+		Inflater inflater = getInflater();
 		inflater.reset();
-		inflater.setInput(zippedData);
-		int outSize = nRange * nBearing;
-		byte[] unzippedData = new byte[outSize];
-		int bytesRead = 0;
-		bytesRead = inflater.inflate(unzippedData);
-		return unzippedData;
+		inflater.setInput(zippedData, 0, zippedLength);
+		inflater.inflate(unzippedData);
 	}
 
 	/**
-	 * getter for inflater to call to make sure it's there since it's not
-	 * serialised.
+	 * Get an array for image data. 
+	 * @param imageBuffer array supplied by the caller, used if it's the right size
+	 * @param size image size
+	 * @return array for image data
+	 */
+	private byte[] getImageArray(byte[] imageBuffer, int size) {
+		if (imageBuffer != null && imageBuffer.length == size) {
+			return imageBuffer;
+		}
+		return imageDataPool.getExact(size);
+	}
+
+	/**
+	 * Take the image data from a record that's finished with and keep the array
+	 * for reuse when the next image of the same size is read. This can be called 
+	 * from a stream observer once it's finished with each record, so that streaming 
+	 * doesn't need to allocate new image arrays. The record will have no data after
+	 * this and nothing else must still be using its image data array. 
+	 * @param glfImage record that's finished with
+	 */
+	public static void recycleImageData(GLFImageRecord glfImage) {
+		byte[] data = glfImage.getImageData();
+		glfImage.freeImageData();
+		imageDataPool.release(data);
+	}
+
+	/**
+	 * getter for the inflater for the current thread.
 	 * 
 	 * @return inflater
 	 */
 	private Inflater getInflater() {
-		if (inflater == null) {
-			inflater = new Inflater();
-		}
-		return inflater;
+		return threadInflater.get();
 	}
 
 	/**
@@ -499,14 +784,17 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 		boolean glf = filePath.endsWith(".glf");
 		boolean dat = filePath.endsWith(".dat");
 		if (dat) {
-			return new FileInputStream(file);
+			// buffered, since headers are read in small pieces. Skips still seek in the file. 
+			return new BufferedInputStream(new FileInputStream(file));
 		}
 		if (glf) {
-			fastInput = new GLFFastInputStream(file);
-			if (fastInput.isOk) {
+			GLFFastInputStream newFastInput = new GLFFastInputStream(file);
+			if (newFastInput.isOk) {
+				fastInput = newFastInput;
 				fastInput.resetDataStream();
 				return fastInput;
 			} else {
+				fastInput = null;
 				return openZippedinputStream();
 			}
 		}
@@ -590,6 +878,10 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 		//		BufferedInputStream bis = new BufferedInputStream(inputStream);
 		CountingInputStream cis = new CountingInputStream(inputStream);
 		DataInput dis = new LittleEndianDataInputStream(cis);
+		
+		if (streamThreads > 1 && isSingleThreadStream() == false) {
+			return streamPipelined(streamObserver, inputStream, cis, dis, catalogRecords);
+		}
 
 		int nRec = 0;
 		long t1 = System.currentTimeMillis();
@@ -661,12 +953,402 @@ public class GLFFileCatalog extends GeminiFileCatalog<GLFImageRecord> {
 				continueStream ? CatalogStreamSummary.FILEEND : CatalogStreamSummary.DATAGAP);
 	}
 
+	/**
+	 * A record read from the file while streaming, which is either an image 
+	 * that may still need unpacking, status data, an error, or the end of the file 
+	 * if it's none of these. 
+	 */
+	private class StreamFrame implements Callable<StreamFrame> {
+
+		private GLFImageRecord glfImage;
+
+		private byte[] zippedData;
+
+		private GLFStatusData statusData;
+
+		private CatalogException exception;
+
+		@Override
+		public StreamFrame call() throws CatalogException {
+			if (exception != null) {
+				throw exception;
+			}
+			if (zippedData != null) {
+				try {
+					int nBearing = glfImage.endBearing - glfImage.startBearing;
+					byte[] data = imageDataPool.getExact((glfImage.endRange - glfImage.startRange) * nBearing);
+					inflateData(zippedData, glfImage.dataSize, data);
+					glfImage.setImageData(data);
+				} catch (DataFormatException dataFormatException) {
+					throw new CatalogException("Error unzipping raw data: " + dataFormatException.getMessage());
+				}
+				finally {
+					zippedDataPool.release(zippedData);
+					zippedData = null;
+				}
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Stream the file using several threads. One thread reads the file, a pool of 
+	 * threads unpack the images and the images are passed to the observer in order in 
+	 * this thread. The queue between the reading and the observer has a fixed size, so 
+	 * reading stops if the observer can't keep up. 
+	 * @param streamObserver stream observer
+	 * @param inputStream file input stream
+	 * @param cis counting stream for record positions
+	 * @param dis data stream to read records from
+	 * @param catalogRecords list for the records of the stored catalogue
+	 * @return stream summary
+	 * @throws CatalogException
+	 */
+	private CatalogStreamSummary streamPipelined(CatalogStreamObserver streamObserver, final InputStream inputStream, 
+			final CountingInputStream cis, final DataInput dis, ArrayList<GLFImageRecord> catalogRecords) throws CatalogException {
+		int nThreads = streamThreads;
+		final ExecutorService inflatePool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int nThread = 0;
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "GLF stream unpacker " + ++nThread);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final ArrayBlockingQueue<Future<StreamFrame>> frameQueue = new ArrayBlockingQueue<>(nThreads * 4);
+		final String fileName = new File(getFilePath()).getName();
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readStreamFrames(inputStream, cis, dis, fileName, inflatePool, frameQueue);
+			}
+		}, "GLF stream reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		int nRec = 0;
+		long firstRecordTime = 0, lastRecordTime = 0;
+		try {
+			while (continueStream) {
+				if (stopStreaming) {
+					continueStream = false;
+					break;
+				}
+				StreamFrame frame;
+				try {
+					frame = frameQueue.take().get();
+				} catch (InterruptedException e) {
+					continueStream = false;
+					break;
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof CatalogException) {
+						throw (CatalogException) e.getCause();
+					}
+					throw new CatalogException(e.getCause());
+				}
+				if (frame.statusData != null) {
+					streamObserver.newStatusData(frame.statusData);
+					continue;
+				}
+				GLFImageRecord glfImage = frame.glfImage;
+				if (glfImage == null) {
+					break; // end of file
+				}
+				continueStream &= streamObserver.newImageRecord(glfImage);
+				if (continueStream == false) {
+					break;
+				}
+				// copy for the stored catalogue, see streamCatalog
+				GLFImageRecord clonedRecord = glfImage.clone();
+				clonedRecord.freeImageData();
+				catalogRecords.add(clonedRecord);
+				if (firstRecordTime == 0) {
+					firstRecordTime = glfImage.getRecordTime();
+				}
+				lastRecordTime = glfImage.getRecordTime();
+				nRec++;
+			}
+		}
+		finally {
+			// stop the reader if it's still going.  
+			reader.interrupt();
+			frameQueue.clear();
+			inflatePool.shutdownNow();
+		}
+
+		if (continueStream == true) {
+			analyseCatalog();
+			writeSerializedCatalog(getFilePath(), this);
+		}
+		return new CatalogStreamSummary(nRec, firstRecordTime, lastRecordTime,
+				continueStream ? CatalogStreamSummary.FILEEND : CatalogStreamSummary.DATAGAP);
+	}
+
+	/**
+	 * Read records from the file and queue them for the stream observer, with images 
+	 * being unpacked in the thread pool. Runs in its own thread until the end of the 
+	 * file or until it's interrupted. 
+	 */
+	private void readStreamFrames(InputStream inputStream, CountingInputStream cis, DataInput dis, String fileName, 
+			ExecutorService inflatePool, ArrayBlockingQueue<Future<StreamFrame>> frameQueue) {
+		int nRec = 0;
+		StreamFrame endFrame = new StreamFrame();
+		try {
+			while (Thread.currentThread().isInterrupted() == false) {
+				GLFGenericHeader header = readNextHeader(dis);
+				if (header == null) {
+					break; // should be EOF. 
+				}
+				if (header.m_idChar != 42) {
+					System.out.printf("Bad header id character in GLF: %d\n", header.m_idChar);
+				}
+				StreamFrame frame = new StreamFrame();
+				switch (header.m_dataType) {
+				case 0: // image record
+					frame.glfImage = new GLFImageRecord(header, getFilePath(), (int) cis.getPos(), nRec);
+					if (readGlfRecord(frame.glfImage, dis, true, frame, null) == 0) {
+						frameQueue.put(inflatePool.submit(frame));
+						nRec++;
+					}
+					break;
+				case 3: // status
+					frame.statusData = new GLFStatusData(header, fileName);
+					frame.statusData.read(dis, false);
+					frameQueue.put(completedFrame(frame));
+					break;
+				default:
+					System.out.println("Other record type " + header.m_dataType);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			// stopped by the observer thread, which won't want anything else. 
+			return;
+		}
+		catch (IOException e) {
+			if (e instanceof CatalogException) {
+				endFrame.exception = (CatalogException) e;
+			}
+			else {
+				endFrame.exception = new CatalogException(e);
+			}
+		}
+		finally {
+			try {
+				inputStream.close();
+			} catch (IOException e) {
+			}
+		}
+		try {
+			frameQueue.put(completedFrame(endFrame));
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * Make a future for a frame that needs no more work.
+	 */
+	private Future<StreamFrame> completedFrame(StreamFrame frame) {
+		FutureTask<StreamFrame> future = new FutureTask<>(frame);
+		future.run();
+		return future;
+	}
+
+	/**
+	 * @return the number of threads used to unpack images when streaming
+	 */
+	public static int getStreamThreads() {
+		return streamThreads;
+	}
+
+	/**
+	 * Set the number of threads used to unpack images when streaming GLF files.
+	 * With more than one, the file is read, images unpacked and images passed to 
+	 * the stream observer in separate threads at the same time. 
+	 * @param streamThreads number of threads. 1 to do everything in the calling thread. 
+	 */
+	public static void setStreamThreads(int streamThreads) {
+		GLFFileCatalog.streamThreads = Math.max(1, streamThreads);
+	}
+
 	@Override
 	public void stopCatalogStream() {
 		stopStreaming = true;
 		//		System.out.println("GLF Setting stopStreaming = true");
 	}
 
+	@Override
+	protected int getBinaryCatalogType() {
+		return BinaryCatalogFile.TYPE_GLF;
+	}
+
+	@Override
+	protected void writeBinaryColumns(LittleEndianDataOutputStream dos, ArrayList<GLFImageRecord> records)
+			throws IOException {
+		dos.writeInt(zippedDataSize);
+		int n = records.size();
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).filePos);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).recordIndex);
+		}
+		// generic header
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).genericHeader.m_idChar);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).genericHeader.m_version);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).genericHeader.m_length);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeDouble(records.get(i).genericHeader.m_timestamp);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).genericHeader.m_dataType);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).genericHeader.tm_deviceId);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).genericHeader.m_node_ID);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).genericHeader.m_spare);
+		}
+		// image record
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).imageVersion);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).startRange);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).endRange);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).rangeCompression);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).startBearing);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).endBearing);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).dataSize);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_uiStateFlags);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeInt(records.get(i).m_UiModulationFrequency);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeFloat(records.get(i).m_fBeamFormAperture);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeDouble(records.get(i).m_dbTxtime);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_usPingFlags);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeFloat(records.get(i).m_sosAtXd);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).m_sPercentGain);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_fChirp);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_ucSonartype);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).m_ucPlatform);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeByte(records.get(i).oneSpare);
+		}
+		for (int i = 0; i < n; i++) {
+			dos.writeShort(records.get(i).dede);
+		}
+	}
+
+	@Override
+	protected void readBinaryColumns(BinaryCatalogFile binaryFile) {
+		zippedDataSize = binaryFile.readInt();
+		binaryColumns = new int[BINARYCOLUMNSIZES.length];
+		for (int i = 0; i < BINARYCOLUMNSIZES.length; i++) {
+			binaryColumns[i] = binaryFile.nextColumn(BINARYCOLUMNSIZES[i]);
+		}
+	}
+
+	@Override
+	protected GLFImageRecord unpackBinaryRecord(BinaryCatalogFile binaryFile, int iRecord) {
+		int[] col = binaryColumns;
+		int c = 0;
+		int filePos = binaryFile.getInt(col[c++], iRecord);
+		int recordIndex = binaryFile.getInt(col[c++], iRecord);
+		GLFGenericHeader header = new GLFGenericHeader();
+		header.m_idChar = binaryFile.getByte(col[c++], iRecord);
+		header.m_version = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		header.m_length = binaryFile.getInt(col[c++], iRecord);
+		header.m_timestamp = binaryFile.getDouble(col[c++], iRecord);
+		header.m_dataType = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		header.tm_deviceId = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+		header.m_node_ID = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+		header.m_spare = binaryFile.getShort(col[c++], iRecord);
+		GLFImageRecord glfImage = new GLFImageRecord(header, getFilePath(), filePos, recordIndex);
+		glfImage.imageVersion = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+		glfImage.startRange = binaryFile.getInt(col[c++], iRecord);
+		glfImage.endRange = binaryFile.getInt(col[c++], iRecord);
+		glfImage.rangeCompression = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+		glfImage.startBearing = binaryFile.getInt(col[c++], iRecord);
+		glfImage.endBearing = binaryFile.getInt(col[c++], iRecord);
+		glfImage.dataSize = binaryFile.getInt(col[c++], iRecord);
+		glfImage.m_uiStateFlags = binaryFile.getInt(col[c++], iRecord);
+		glfImage.m_UiModulationFrequency = binaryFile.getInt(col[c++], iRecord);
+		glfImage.m_fBeamFormAperture = binaryFile.getFloat(col[c++], iRecord);
+		glfImage.m_dbTxtime = binaryFile.getDouble(col[c++], iRecord);
+		glfImage.m_usPingFlags = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+		glfImage.m_sosAtXd = binaryFile.getFloat(col[c++], iRecord);
+		glfImage.m_sPercentGain = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+		glfImage.m_fChirp = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		glfImage.m_ucSonartype = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		glfImage.m_ucPlatform = Byte.toUnsignedInt(binaryFile.getByte(col[c++], iRecord));
+		glfImage.oneSpare = binaryFile.getByte(col[c++], iRecord);
+		glfImage.dede = Short.toUnsignedInt(binaryFile.getShort(col[c++], iRecord));
+		glfImage.bearingTable = binaryFile.getBearingTable(iRecord);
+		return glfImage;
+	}
+
+	@Override
+	protected boolean readBinaryIndex(BinaryCatalogFile binaryFile, long[] times, int[] deviceIds, int[] sonarIndexes) {
+		int[] col = binaryColumns;
+		if (col == null) {
+			return false;
+		}
+		int n = binaryFile.getnRecords();
+		for (int i = 0; i < n; i++) {
+			if (times != null) {
+				times[i] = cDateToMillis(binaryFile.getDouble(col[BINARYTIMECOLUMN], i));
+			}
+			if (deviceIds != null) {
+				deviceIds[i] = Short.toUnsignedInt(binaryFile.getShort(col[BINARYDEVICECOLUMN], i));
+			}
+			if (sonarIndexes != null) {
+				// same as GLFImageRecord.getSonarIndex
+				sonarIndexes[i] = 0;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	protected void checkDeserialisedCatalog(String filePath) {
 		if (fastInput != null) {
@@ -0,0 +1,110 @@
+package tritechgemini.fileio;
+
+import java.io.Serializable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A point in a deflate compressed data stream at which decompression can be
+ * restarted. Each point is at the start of a deflate block and holds the
+ * last 32k of uncompressed data preceding it, which is all that the inflater
+ * needs to carry on from that point. This is the same idea as the zran example
+ * in the zlib distribution.
+ * <br>The window is held deflated, since 32k of uncompressed data per point
+ * soon adds up in a large file.
+ * @author Doug Gillespie
+ * @see GLFInflateScanner
+ *
+ */
+public class GLFInflatePoint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private long virtualStartByte;
+
+	private long inputStreamPos;
+
+	private int bitOffset;
+
+	private int windowLength;
+
+	private byte[] packedWindow;
+
+	/**
+	 *
+	 * @param virtualStartByte position in the uncompressed (virtual) dat file
+	 * @param inputStreamPos position in the glf file of the byte holding the first bit of the block
+	 * @param bitOffset bit offset (0-7) of the first bit of the block within that byte
+	 * @param window Uncompressed data preceding this point (up to 32k)
+	 */
+	public GLFInflatePoint(long virtualStartByte, long inputStreamPos, int bitOffset, byte[] window) {
+		super();
+		this.virtualStartByte = virtualStartByte;
+		this.inputStreamPos = inputStreamPos;
+		this.bitOffset = bitOffset;
+		this.windowLength = window.length;
+		packWindow(window);
+	}
+
+	private void packWindow(byte[] window) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(window);
+		deflater.finish();
+		byte[] packed = new byte[window.length + 64];
+		int n = 0;
+		while (!deflater.finished()) {
+			if (n == packed.length) {
+				byte[] bigger = new byte[packed.length*2];
+				System.arraycopy(packed, 0, bigger, 0, n);
+				packed = bigger;
+			}
+			n += deflater.deflate(packed, n, packed.length-n);
+		}
+		deflater.end();
+		packedWindow = new byte[n];
+		System.arraycopy(packed, 0, packedWindow, 0, n);
+	}
+
+	/**
+	 * Get the uncompressed window of data preceding this point.
+	 * @return up to 32k of data to use as a dictionary.
+	 * @throws DataFormatException
+	 */
+	public byte[] getWindow() throws DataFormatException {
+		byte[] window = new byte[windowLength];
+		if (windowLength == 0) {
+			return window;
+		}
+		Inflater inflater = new Inflater();
+		inflater.setInput(packedWindow);
+		int n = 0;
+		while (n < windowLength && !inflater.finished()) {
+			n += inflater.inflate(window, n, windowLength-n);
+		}
+		inflater.end();
+		return window;
+	}
+
+	/**
+	 * @return the position of this point in the uncompressed (virtual) dat file
+	 */
+	public long getVirtualStartByte() {
+		return virtualStartByte;
+	}
+
+	/**
+	 * @return the position in the glf file of the byte containing the first bit of the block
+	 */
+	public long getInputStreamPos() {
+		return inputStreamPos;
+	}
+
+	/**
+	 * @return bit offset of the start of the block within the first byte
+	 */
+	public int getBitOffset() {
+		return bitOffset;
+	}
+
+}
@@ -0,0 +1,447 @@
+package tritechgemini.fileio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+
+/**
+ * Scans through a raw deflate compressed stream (i.e. the contents of a compressed
+ * entry in a zip archive) to find the start of each deflate block, which are the
+ * only points at which decompression can be restarted. The Java Inflater doesn't
+ * tell us where blocks start, so this is a basic Java inflater, based on Mark Adler's
+ * puff.c, which decompresses the data just far enough to find the blocks.
+ * <br>It's a lot slower than the native inflater, but only has to be used once to
+ * build the index of restart points, after which all decompression is done with a
+ * normal Inflater.
+ * @author Doug Gillespie
+ * @see GLFInflatePoint
+ *
+ */
+public class GLFInflateScanner {
+
+	private static final int MAXBITS = 15;
+	private static final int MAXLCODES = 286;
+	private static final int MAXDCODES = 30;
+	private static final int MAXCODES = MAXLCODES+MAXDCODES;
+	private static final int FIXLCODES = 288;
+
+	/**
+	 * Size of the deflate window, which is the most data we ever need
+	 * to keep to restart at any point.
+	 */
+	public static final int WINDOWSIZE = 32768;
+	private static final int WINDOWMASK = WINDOWSIZE-1;
+
+	private static final short[] LENGTHBASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+			35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	private static final short[] LENGTHEXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+			3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+	private static final short[] DISTBASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+			257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+	private static final short[] DISTEXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+			7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+	private static final short[] CODEORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+	private static Huffman fixedLengths, fixedDistances;
+
+	private InputStream inputStream;
+
+	private long streamStartPos;
+
+	private byte[] inBuffer = new byte[65536];
+	private int inBufferLength;
+	private int inBufferPos;
+
+	/**
+	 * Total bytes taken from the input stream.
+	 */
+	private long bytesIn;
+
+	private int bitBuf;
+	private int bitCount;
+
+	private byte[] window = new byte[WINDOWSIZE];
+
+	/**
+	 * Total bytes of uncompressed data.
+	 */
+	private long bytesOut;
+
+	private Huffman lengthCodes = new Huffman(MAXLCODES);
+	private Huffman distanceCodes = new Huffman(MAXDCODES);
+	private short[] lengths = new short[MAXCODES];
+
+	private boolean anyCompressed;
+
+	/**
+	 * Huffman code decoding tables. count[n] is the number of codes of
+	 * length n and symbol holds the symbols ordered by their codes.
+	 */
+	private static class Huffman {
+		short[] count = new short[MAXBITS+1];
+		short[] symbol;
+
+		Huffman(int nSymbols) {
+			symbol = new short[nSymbols];
+		}
+	}
+
+	/**
+	 *
+	 * @param inputStream input stream, positioned at the first byte of the compressed data
+	 * @param streamStartPos position of that first byte in the file, used to set the
+	 * file positions of restart points.
+	 */
+	public GLFInflateScanner(InputStream inputStream, long streamStartPos) {
+		this.inputStream = inputStream;
+		this.streamStartPos = streamStartPos;
+	}
+
+	/**
+	 * Scan the whole of the deflate stream, adding restart points to the list. A point is
+	 * always made at the start of the stream, then at the start of the first block after
+	 * each further pointSpacing bytes of uncompressed data.
+	 * @param inflatePoints list of restart points to add to (can be null to just find the stream length).
+	 * @param pointSpacing minimum spacing of restart points in uncompressed bytes
+	 * @return total number of uncompressed bytes in the stream.
+	 * @throws IOException if the stream ends early or is not valid deflate data
+	 */
+	public long scan(ArrayList<GLFInflatePoint> inflatePoints, long pointSpacing) throws IOException {
+		long lastPoint = -1;
+		boolean lastBlock = false;
+		try {
+			while (!lastBlock) {
+				GLFInflatePoint point = null;
+				if (inflatePoints != null && (lastPoint < 0 || bytesOut-lastPoint >= pointSpacing)) {
+					point = makePoint();
+				}
+				lastBlock = bits(1) == 1;
+				int type = bits(2);
+				/*
+				 * The Inflater can only start on a byte boundary, so when a block starts
+				 * part way through a byte the reader fills the spare bits with empty 
+				 * 10 bit blocks. That only works for an even bit offset, so otherwise
+				 * try again at the next block.  
+				 */
+				if (point != null && point.getBitOffset() % 2 == 0) {
+					inflatePoints.add(point);
+					lastPoint = bytesOut;
+				}
+				switch (type) {
+				case 0:
+					stored();
+					break;
+				case 1:
+					anyCompressed = true;
+					codes(getFixedLengths(), getFixedDistances());
+					break;
+				case 2:
+					anyCompressed = true;
+					dynamic();
+					break;
+				default:
+					throw new DataFormatException("Invalid deflate block type 3");
+				}
+			}
+		}
+		catch (DataFormatException e) {
+			throw new CatalogException("Invalid compressed data in glf file: " + e.getMessage());
+		}
+		return bytesOut;
+	}
+
+	/**
+	 * Make a restart point at the current position, which must be the start of a block.
+	 * @return restart point.
+	 */
+	private GLFInflatePoint makePoint() {
+		/*
+		 * Fewer than 8 bits are ever left in the bit buffer between reads, so
+		 * any that are come from the last byte read.
+		 */
+		long filePos = streamStartPos + bytesIn;
+		int bitOffset = 0;
+		if (bitCount > 0) {
+			filePos--;
+			bitOffset = 8-bitCount;
+		}
+		int winLen = (int) Math.min(bytesOut, WINDOWSIZE);
+		byte[] win = new byte[winLen];
+		int start = (int) ((bytesOut-winLen) & WINDOWMASK);
+		for (int i = 0; i < winLen; i++) {
+			win[i] = window[(start+i) & WINDOWMASK];
+		}
+		return new GLFInflatePoint(bytesOut, filePos, bitOffset, win);
+	}
+
+	/**
+	 * @return the number of compressed bytes read from the stream. After a complete
+	 * scan, this is the length of the compressed data.
+	 */
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	/**
+	 * @return true if any of the blocks were compressed. If not, all blocks were stored
+	 * and the data can be read without inflating at all.
+	 */
+	public boolean isAnyCompressed() {
+		return anyCompressed;
+	}
+
+	private int nextByte() throws IOException {
+		if (inBufferPos == inBufferLength) {
+			inBufferLength = inputStream.read(inBuffer);
+			inBufferPos = 0;
+			if (inBufferLength <= 0) {
+				inBufferLength = 0;
+				throw new EOFException("Unexpected end of compressed data in glf file");
+			}
+		}
+		bytesIn++;
+		return Byte.toUnsignedInt(inBuffer[inBufferPos++]);
+	}
+
+	private int bits(int need) throws IOException {
+		long val = bitBuf;
+		while (bitCount < need) {
+			val |= ((long) nextByte()) << bitCount;
+			bitCount += 8;
+		}
+		bitBuf = (int) (val >> need);
+		bitCount -= need;
+		return (int) (val & ((1L << need) - 1));
+	}
+
+	private void output(int aByte) {
+		window[(int) (bytesOut & WINDOWMASK)] = (byte) aByte;
+		bytesOut++;
+	}
+
+	private void stored() throws IOException, DataFormatException {
+		// discard remaining bits in the current byte
+		bitBuf = 0;
+		bitCount = 0;
+		int len = nextByte();
+		len |= nextByte() << 8;
+		int nLen = nextByte();
+		nLen |= nextByte() << 8;
+		if (len != (~nLen & 0xFFFF)) {
+			throw new DataFormatException("Stored block length does not match its complement");
+		}
+		while (len > 0) {
+			if (inBufferPos == inBufferLength) {
+				// refills the buffer
+				output(nextByte());
+				len--;
+				continue;
+			}
+			int n = Math.min(len, inBufferLength-inBufferPos);
+			for (int i = 0; i < n; i++) {
+				output(inBuffer[inBufferPos+i]);
+			}
+			inBufferPos += n;
+			bytesIn += n;
+			len -= n;
+		}
+	}
+
+	private int decode(Huffman h) throws IOException, DataFormatException {
+		int bitbuf = bitBuf;
+		int left = bitCount;
+		int code = 0, first = 0, index = 0;
+		int len = 1;
+		while (true) {
+			while (left-- > 0) {
+				code |= bitbuf & 1;
+				bitbuf >>= 1;
+				int count = h.count[len];
+				if (code - count < first) {
+					bitBuf = bitbuf;
+					bitCount = (bitCount - len) & 7;
+					return h.symbol[index + (code - first)];
+				}
+				index += count;
+				first += count;
+				first <<= 1;
+				code <<= 1;
+				len++;
+			}
+			left = (MAXBITS+1) - len;
+			if (left == 0) {
+				break;
+			}
+			bitbuf = nextByte();
+			if (left > 8) {
+				left = 8;
+			}
+		}
+		throw new DataFormatException("Ran out of Huffman codes");
+	}
+
+	/**
+	 * Build a Huffman decoding table from code lengths.
+	 * @return 0 for a complete code, &lt;0 for an over subscribed code, &gt;0 for an incomplete one.
+	 */
+	private static int construct(Huffman h, short[] length, int offset, int n) {
+		for (int len = 0; len <= MAXBITS; len++) {
+			h.count[len] = 0;
+		}
+		for (int symbol = 0; symbol < n; symbol++) {
+			h.count[length[offset+symbol]]++;
+		}
+		if (h.count[0] == n) {
+			return 0;
+		}
+		int left = 1;
+		for (int len = 1; len <= MAXBITS; len++) {
+			left <<= 1;
+			left -= h.count[len];
+			if (left < 0) {
+				return left;
+			}
+		}
+		short[] offs = new short[MAXBITS+1];
+		for (int len = 1; len < MAXBITS; len++) {
+			offs[len + 1] = (short) (offs[len] + h.count[len]);
+		}
+		for (int symbol = 0; symbol < n; symbol++) {
+			if (length[offset+symbol] != 0) {
+				h.symbol[offs[length[offset+symbol]]++] = (short) symbol;
+			}
+		}
+		return left;
+	}
+
+	private void codes(Huffman lenCode, Huffman distCode) throws IOException, DataFormatException {
+		int symbol;
+		do {
+			symbol = decode(lenCode);
+			if (symbol < 256) {
+				output(symbol);
+			}
+			else if (symbol > 256) {
+				symbol -= 257;
+				if (symbol >= 29) {
+					throw new DataFormatException("Invalid length symbol");
+				}
+				int len = LENGTHBASE[symbol] + bits(LENGTHEXTRA[symbol]);
+				symbol = decode(distCode);
+				if (symbol >= 30) {
+					throw new DataFormatException("Invalid distance symbol");
+				}
+				int dist = DISTBASE[symbol] + bits(DISTEXTRA[symbol]);
+				if (dist > bytesOut) {
+					throw new DataFormatException("Distance too far back");
+				}
+				while (len-- > 0) {
+					output(window[(int) ((bytesOut - dist) & WINDOWMASK)]);
+				}
+			}
+		} while (symbol != 256);
+	}
+
+	private void dynamic() throws IOException, DataFormatException {
+		int nLen = bits(5) + 257;
+		int nDist = bits(5) + 1;
+		int nCode = bits(4) + 4;
+		if (nLen > MAXLCODES || nDist > MAXDCODES) {
+			throw new DataFormatException("Bad counts in dynamic block");
+		}
+		int index;
+		for (index = 0; index < nCode; index++) {
+			lengths[CODEORDER[index]] = (short) bits(3);
+		}
+		for (; index < 19; index++) {
+			lengths[CODEORDER[index]] = 0;
+		}
+		if (construct(lengthCodes, lengths, 0, 19) != 0) {
+			throw new DataFormatException("Incomplete code length code");
+		}
+		index = 0;
+		while (index < nLen + nDist) {
+			int symbol = decode(lengthCodes);
+			if (symbol < 16) {
+				lengths[index++] = (short) symbol;
+			}
+			else {
+				int len = 0;
+				if (symbol == 16) {
+					if (index == 0) {
+						throw new DataFormatException("Repeat with no first length");
+					}
+					len = lengths[index - 1];
+					symbol = 3 + bits(2);
+				}
+				else if (symbol == 17) {
+					symbol = 3 + bits(3);
+				}
+				else {
+					symbol = 11 + bits(7);
+				}
+				if (index + symbol > nLen + nDist) {
+					throw new DataFormatException("Too many code lengths");
+				}
+				while (symbol-- > 0) {
+					lengths[index++] = (short) len;
+				}
+			}
+		}
+		if (lengths[256] == 0) {
+			throw new DataFormatException("No end of block code");
+		}
+		int err = construct(lengthCodes, lengths, 0, nLen);
+		if (err != 0 && (err < 0 || nLen != lengthCodes.count[0] + lengthCodes.count[1])) {
+			throw new DataFormatException("Incomplete literal/length code");
+		}
+		err = construct(distanceCodes, lengths, nLen, nDist);
+		if (err != 0 && (err < 0 || nDist != distanceCodes.count[0] + distanceCodes.count[1])) {
+			throw new DataFormatException("Incomplete distance code");
+		}
+		codes(lengthCodes, distanceCodes);
+	}
+
+	private static synchronized Huffman getFixedLengths() {
+		if (fixedLengths == null) {
+			makeFixedTables();
+		}
+		return fixedLengths;
+	}
+
+	private static synchronized Huffman getFixedDistances() {
+		if (fixedDistances == null) {
+			makeFixedTables();
+		}
+		return fixedDistances;
+	}
+
+	private static void makeFixedTables() {
+		short[] len = new short[FIXLCODES];
+		int symbol;
+		for (symbol = 0; symbol < 144; symbol++) {
+			len[symbol] = 8;
+		}
+		for (; symbol < 256; symbol++) {
+			len[symbol] = 9;
+		}
+		for (; symbol < 280; symbol++) {
+			len[symbol] = 7;
+		}
+		for (; symbol < FIXLCODES; symbol++) {
+			len[symbol] = 8;
+		}
+		Huffman lengths = new Huffman(FIXLCODES);
+		construct(lengths, len, 0, FIXLCODES);
+		for (symbol = 0; symbol < MAXDCODES; symbol++) {
+			len[symbol] = 5;
+		}
+		Huffman distances = new Huffman(MAXDCODES);
+		construct(distances, len, 0, MAXDCODES);
+		fixedLengths = lengths;
+		fixedDistances = distances;
+	}
+
+}
@@ -2,6 +2,8 @@ package tritechgemini.fileio;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -9,7 +11,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map.Entry;
@@ -26,8 +31,9 @@ import tritechgemini.imagedata.SonarRecordI;
  * Catalogue of information that's in a single Sonar data file.
  * <br>Named when we only supported Tritech GLF and ECD formats, but should
  * also be the base class for any other sonar data catalogues.<br>
- * These objects are serialized into index files for each data file
- * so don't add anything that can't be serialized.
+ * These objects are written to index files for each data file, either in the 
+ * binary format of BinaryCatalogFile, or serialized for catalogues which don't 
+ * support that, so don't add anything that can't be serialized.
  * 
  * @author Doug Gillespie
  *
@@ -40,6 +46,17 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 
 	private ArrayList<RecordClass> imageRecords = null;
 
+	/**
+	 * Binary catalogue data that records are made from when they are first 
+	 * used. Records in imageRecords are null until then. 
+	 */
+	private transient BinaryCatalogFile binaryFile;
+
+	/**
+	 * Time index of records, made when it's first needed. 
+	 */
+	private transient CatalogTimeIndex timeIndex;
+
 	private transient Exception catalogException;
 
 	/**
@@ -53,6 +70,65 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 */
 	private HashMap<Integer, CatalogSonarInfo> sonarMap = new HashMap<>();
 
+	/**
+	 * Length of the data file when it was catalogued, which is used to tell if 
+	 * it's grown since, e.g. because it was still being written. 0 if not known. 
+	 */
+	private long catalogFileLength;
+
+	/**
+	 * Position in the data just after the last complete record in the catalogue. 
+	 * If the file grows, cataloguing carries on from here. 0 if not known. 
+	 */
+	private long catalogEndPosition;
+
+	/**
+	 * Modification time of the data file when it was catalogued. 0 if not known. 
+	 */
+	private long catalogFileTime;
+
+	/**
+	 * Hash of samples of the data file from FileFingerprint, used to tell if the
+	 * data file has been replaced since it was catalogued. 0 if not known. 
+	 */
+	private long catalogFileHash;
+
+	/**
+	 * What had happened to the data file when updateCatalogue was last called,
+	 * one of the FileFingerprint states.
+	 */
+	private transient int dataFileState = FileFingerprint.UNCHANGED;
+
+	/**
+	 * Records have been unloaded to save memory, or not read yet, leaving only 
+	 * the summary information. They are read from the catalogue file when needed. 
+	 */
+	private transient boolean recordsUnloaded;
+
+	/**
+	 * Number of records and times of the first and last records while the 
+	 * records are unloaded. 
+	 */
+	private transient int summaryRecords;
+
+	private transient long summaryFirstTime, summaryLastTime;
+
+	/**
+	 * List of catalogues with loaded records, which unloads the least recently 
+	 * used ones. Null if records are never unloaded. 
+	 */
+	private transient LoadedCatalogList loadedCatalogs;
+
+	/**
+	 * Time of last use of the records, from System.nanoTime(). 
+	 */
+	private transient volatile long lastUsed;
+
+	/**
+	 * Don't use extra threads to unpack records when streaming. 
+	 */
+	private transient boolean singleThreadStream;
+
 	public static final String ECDEND = ".ecd";
 	public static final String GLFEND = ".glf";
 	public static final String DATEND = ".dat";
@@ -81,6 +157,10 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 			exCatalog.checkDeserialisedCatalog(filePath);
 			// may be on a different drive, so update this critical information.
 			exCatalog.filePath = filePath;
+			// file may have been still being written when it was catalogued. 
+			if (exCatalog.updateCatalogue()) {
+				writeSerializedCatalog(filePath, exCatalog);
+			}
 			return exCatalog;
 		}
 
@@ -109,6 +189,40 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 		return fileCatalog;
 	}
 
+	/**
+	 * Get a file catalogue with only the summary information, i.e. the number of records, 
+	 * the times of the first and last records and the sonar information, which is 
+	 * read from the start of the catalogue file. The records are read when they are 
+	 * first used. If the data file has changed, or the catalogue file is missing or 
+	 * too old to have the summary, the whole catalogue is made or updated as in getFileCatalog
+	 * and then it's records are unloaded. Catalogues which can't be reloaded, which 
+	 * are ones not using the binary format, are returned fully loaded. 
+	 * @param filePath data file path
+	 * @return file catalogue or null if the file is an unknown type. 
+	 * @throws CatalogException
+	 */
+	public static GeminiFileCatalog<?> getFileCatalogSummary(String filePath) throws CatalogException {
+		File catFile = new File(getCatalogName(filePath));
+		GeminiFileCatalog<?> catalog = BinaryCatalogFile.readSummary(catFile, filePath);
+		if (catalog != null) {
+			File dataFile = new File(filePath);
+			if (dataFile.exists() == false || FileFingerprint.check(dataFile, catalog.catalogFileLength, 
+					catalog.catalogFileTime, catalog.catalogFileHash) == FileFingerprint.UNCHANGED) {
+				return catalog;
+			}
+		}
+		catalog = getFileCatalog(filePath, true);
+		if (catalog == null || catalog.getBinaryCatalogType() == 0) {
+			return catalog;
+		}
+		if (BinaryCatalogFile.readSummary(catFile, filePath) == null) {
+			// catalogue file is older than the summary information, so write it again. 
+			writeSerializedCatalog(filePath, catalog);
+		}
+		catalog.unloadRecords();
+		return catalog;
+	}
+
 	/**
 	 * Called just after a catalogue object has been deserialised, giving 
 	 * the opportunity to check anything. note that the file path is 
@@ -130,6 +244,9 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 		if (catFile.exists() == false) {
 			return null;
 		}
+		if (BinaryCatalogFile.isBinaryCatalog(catFile)) {
+			return BinaryCatalogFile.readCatalog(catFile, filePath);
+		}
 		Object obj = null;
 		try {
 //			long t1 = System.nanoTime();
@@ -160,6 +277,15 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 */
 	public static boolean writeSerializedCatalog(String filePath, GeminiFileCatalog fileCatalog) {
 		File catFile = new File(getCatalogName(filePath));
+		if (fileCatalog.getBinaryCatalogType() != 0) {
+			try {
+				BinaryCatalogFile.writeCatalog(catFile, fileCatalog);
+			} catch (IOException e) {
+				System.out.println("Unable to write binary Gemini catalogue: " + e.getMessage());
+				return false;
+			}
+			return true;
+		}
 		try {
 			ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(catFile)));
 			oos.writeObject(fileCatalog);
@@ -171,6 +297,55 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 		return true;
 	}
 
+	/**
+	 * Make a catalogue from catalogue data which are already in memory, in 
+	 * either the binary or the serialized format, e.g. from a FolderCatalogIndex.
+	 * @param data catalogue data, starting at position 0
+	 * @param catName name of the catalogue, for error messages
+	 * @param filePath path of data file
+	 * @return catalogue or null if the data are not a valid catalogue
+	 */
+	public static GeminiFileCatalog<?> readCatalogData(ByteBuffer data, String catName, String filePath) {
+		if (data.limit() >= 4 && data.order(ByteOrder.LITTLE_ENDIAN).getInt(0) == BinaryCatalogFile.MAGIC) {
+			return BinaryCatalogFile.readCatalog(data, catName, filePath);
+		}
+		Object obj = null;
+		try {
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data.array(), data.arrayOffset(), data.limit()));
+			obj = ois.readObject();
+			ois.close();
+		} catch (IOException | ClassNotFoundException e) {
+			System.out.println("Unable to read Gemini catalogue object " + catName + ": " + e.getMessage());
+			return null;
+		}
+		if (obj instanceof GeminiFileCatalog == false) {
+			return null;
+		}
+		GeminiFileCatalog<?> catalog = (GeminiFileCatalog<?>) obj;
+		catalog.checkDeserialisedCatalog(filePath);
+		catalog.filePath = filePath;
+		return catalog;
+	}
+
+	/**
+	 * Get the data that would be written to the catalogue file for a catalogue.
+	 * @param fileCatalog file catalogue
+	 * @return catalogue data in the binary or serialized format
+	 * @throws IOException
+	 */
+	public static byte[] getCatalogData(GeminiFileCatalog<?> fileCatalog) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(65536);
+		if (fileCatalog.getBinaryCatalogType() != 0) {
+			BinaryCatalogFile.writeCatalog(bos, fileCatalog);
+		}
+		else {
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(fileCatalog);
+			oos.close();
+		}
+		return bos.toByteArray();
+	}
+
 	/**
 	 * Get a name for a serialized catalog file. this is just the normal file name
 	 * with .x on the end.
@@ -182,6 +357,235 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 		return dataFileName + "x";
 	}
 
+	/**
+	 * Type of binary catalogue file to write for this catalogue. 
+	 * @return one of the BinaryCatalogFile types or 0 to serialize the catalogue instead.
+	 */
+	protected int getBinaryCatalogType() {
+		return 0;
+	}
+
+	/**
+	 * Write the catalogue specific parts of the binary catalogue file, which will
+	 * be any catalogue information, then columns of record data.
+	 * @param dos output stream
+	 * @param records all records
+	 * @throws IOException
+	 */
+	protected void writeBinaryColumns(LittleEndianDataOutputStream dos, ArrayList<RecordClass> records) throws IOException {
+	}
+
+	/**
+	 * Read the catalogue specific parts of a binary catalogue file in the same 
+	 * order as they were written in writeBinaryColumns. For the columns of 
+	 * record data, this need only get the column positions. 
+	 * @param binaryFile binary catalogue file
+	 */
+	protected void readBinaryColumns(BinaryCatalogFile binaryFile) {
+	}
+
+	/**
+	 * Make a record from the columns in a binary catalogue file
+	 * @param binaryFile binary catalogue file
+	 * @param iRecord record index
+	 * @return new record
+	 */
+	protected RecordClass unpackBinaryRecord(BinaryCatalogFile binaryFile, int iRecord) {
+		return null;
+	}
+
+	/**
+	 * Read the values used to index the records directly from the columns in a 
+	 * binary catalogue file, so that finding records doesn't make every record 
+	 * in the catalogue. Any of the arrays can be null if they're not needed. 
+	 * @param binaryFile binary catalogue file
+	 * @param times record times
+	 * @param deviceIds sonar device ids
+	 * @param sonarIndexes sonar indexes
+	 * @return true if the values were read, false if the records have to be used instead. 
+	 */
+	protected boolean readBinaryIndex(BinaryCatalogFile binaryFile, long[] times, int[] deviceIds, int[] sonarIndexes) {
+		return false;
+	}
+
+	/**
+	 * Set up the catalogue from a binary catalogue file. Records are left as 
+	 * null and made when they are first needed. 
+	 * @param binaryFile binary catalogue file
+	 */
+	protected void readBinaryCatalog(BinaryCatalogFile binaryFile) {
+		ArrayList<CatalogSonarInfo> sonars = binaryFile.readSonarInfo();
+		sonarMap.clear();
+		for (CatalogSonarInfo sonarInfo : sonars) {
+			sonarMap.put(sonarInfo.getSonarId(), sonarInfo);
+		}
+		readBinaryColumns(binaryFile);
+		int n = binaryFile.getnRecords();
+		imageRecords = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			imageRecords.add(null);
+		}
+		this.binaryFile = binaryFile;
+	}
+
+	/**
+	 * Get a record from the list, making it from the binary catalogue
+	 * data if it's not been used before. 
+	 * @param recordIndex record index
+	 * @return record
+	 */
+	private RecordClass getCatalogRecord(int recordIndex) {
+		ArrayList<RecordClass> records = getRecordList();
+		RecordClass rec = records.get(recordIndex);
+		if (rec == null) {
+			synchronized (this) {
+				if (records != imageRecords) {
+					// unloaded or reloaded by another thread since getting the list. 
+					return getCatalogRecord(recordIndex);
+				}
+				rec = records.get(recordIndex);
+				if (rec == null && binaryFile != null) {
+					rec = unpackBinaryRecord(binaryFile, recordIndex);
+					records.set(recordIndex, rec);
+				}
+			}
+		}
+		return rec;
+	}
+
+	/**
+	 * Get the list of records, reading them from the catalogue file if
+	 * they've been unloaded. 
+	 * @return list of records
+	 */
+	private ArrayList<RecordClass> getRecordList() {
+		ArrayList<RecordClass> records = imageRecords;
+		if (records == null && recordsUnloaded) {
+			records = reloadRecords();
+			LoadedCatalogList loaded = loadedCatalogs;
+			if (loaded != null) {
+				/*
+				 * don't unload other catalogues while this one is locked, since
+				 * another thread might be doing the same the other way round. 
+				 */
+				loaded.catalogLoaded(this, Thread.holdsLock(this) == false);
+			}
+		}
+		lastUsed = System.nanoTime();
+		return records;
+	}
+
+	/**
+	 * Read the records back from the catalogue file, or if that fails, 
+	 * catalogue the data file again. 
+	 * @return list of records
+	 */
+	private synchronized ArrayList<RecordClass> reloadRecords() {
+		if (imageRecords == null && recordsUnloaded) {
+			recordsUnloaded = false;
+			if (BinaryCatalogFile.reloadCatalog(new File(getCatalogName(filePath)), this) == false) {
+				createCatalogue();
+				writeSerializedCatalog(filePath, this);
+			}
+		}
+		return imageRecords;
+	}
+
+	/**
+	 * Unload the records to save memory, keeping only the summary information. 
+	 * The records are read from the catalogue file again when they are next used. 
+	 * Only catalogues using the binary catalogue format, which have a catalogue 
+	 * file, can be unloaded. Any data file kept open to load records is closed 
+	 * whether or not the records can be unloaded. 
+	 * @return true if the records were unloaded. 
+	 */
+	public boolean unloadRecords() {
+		closeDataFile();
+		synchronized (this) {
+			if (imageRecords == null || getBinaryCatalogType() == 0 || 
+					new File(getCatalogName(filePath)).exists() == false) {
+				return false;
+			}
+			freeAllImageData();
+			summaryRecords = imageRecords.size();
+			summaryFirstTime = getFirstRecordTime();
+			summaryLastTime = getLastRecordTime();
+			imageRecords = null;
+			binaryFile = null;
+			timeIndex = null;
+			for (CatalogSonarInfo sonarInfo : sonarMap.values()) {
+				sonarInfo.setRecordPositions(null);
+			}
+			recordsUnloaded = true;
+		}
+		LoadedCatalogList loaded = loadedCatalogs;
+		if (loaded != null) {
+			loaded.catalogUnloaded(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Close any data file the catalogue keeps open to load records. It 
+	 * should be opened again if more records are loaded. Does nothing 
+	 * for catalogues that open the file each time they read it. 
+	 */
+	public void closeDataFile() {
+	}
+
+	/**
+	 * Set up the catalogue with only the summary information. 
+	 * @param sonars sonar information
+	 * @param nRecords number of records
+	 * @param firstTime time of first record
+	 * @param lastTime time of last record
+	 */
+	synchronized void setSummary(ArrayList<CatalogSonarInfo> sonars, int nRecords, long firstTime, long lastTime) {
+		sonarMap.clear();
+		for (CatalogSonarInfo sonarInfo : sonars) {
+			sonarMap.put(sonarInfo.getSonarId(), sonarInfo);
+		}
+		imageRecords = null;
+		binaryFile = null;
+		timeIndex = null;
+		summaryRecords = nRecords;
+		summaryFirstTime = firstTime;
+		summaryLastTime = lastTime;
+		recordsUnloaded = true;
+	}
+
+	/**
+	 * @return true if the records are in memory, false if only the summary 
+	 * information is. 
+	 */
+	public boolean isRecordsLoaded() {
+		return imageRecords != null;
+	}
+
+	/**
+	 * @return time the records were last used, from System.nanoTime()
+	 */
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * Set a list of catalogues with loaded records, which this catalogue 
+	 * gets added to when it's records are read back from file. 
+	 * @param loadedCatalogs loaded catalogue list, or null. 
+	 */
+	void setLoadedCatalogs(LoadedCatalogList loadedCatalogs) {
+		this.loadedCatalogs = loadedCatalogs;
+	}
+
+	/**
+	 * 
+	 * @return all the sonar summary information
+	 */
+	Collection<CatalogSonarInfo> getSonarInfos() {
+		return sonarMap.values();
+	}
+
 	/**
 	 * Catalogue the file. i.e. go through the file and get the times and file
 	 * positions of every record in the file.
@@ -191,6 +595,21 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 */
 	abstract public boolean buildCatalogue(ArrayList<RecordClass> imageRecords) throws Exception;
 
+	/**
+	 * Catalogue data which have been added to the end of the file since it was 
+	 * catalogued, adding records to the end of the list. Catalogues which can do 
+	 * this should call setCatalogEndPosition in both this and buildCatalogue.  
+	 * @param imageRecords existing records
+	 * @param startPosition position in the data to start from, which is just after 
+	 * the last complete record already in the catalogue. 
+	 * @return true if the catalogue was extended, false if it can't be, in which case 
+	 * the whole file will be catalogued again. 
+	 * @throws Exception
+	 */
+	protected boolean extendCatalogue(ArrayList<RecordClass> imageRecords, long startPosition) throws Exception {
+		return false;
+	}
+
 	/**
 	 * Catalogue the file. i.e. go through the file and get the times and file
 	 * positions of every record in the file.
@@ -198,9 +617,13 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 * @return true if catalog created successfully
 	 */
 	public boolean createCatalogue() {
+		if (imageRecords == null && recordsUnloaded) {
+			getRecordList();
+		}
 		boolean ok = true;
 		if (imageRecords == null) {
 			try {
+				setFingerprint(new File(filePath));
 				imageRecords = new ArrayList();
 				ok = buildCatalogue(imageRecords);
 			} catch (Exception e) {
@@ -212,6 +635,131 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 		return ok;
 	}
 
+	/**
+	 * Record the length, modification time and sampled hash of the data file. 
+	 * @param file data file
+	 */
+	private void setFingerprint(File file) {
+		catalogFileTime = file.lastModified();
+		catalogFileLength = file.length();
+		try {
+			catalogFileHash = FileFingerprint.sampleHash(file, catalogFileLength);
+		} catch (IOException e) {
+			catalogFileHash = 0;
+		}
+	}
+
+	/**
+	 * Check the data file against the length, modification time and hash it had 
+	 * when it was catalogued. If it's been copied, only the stored time is updated. If 
+	 * it's grown, which will be the case if it was still being written, only the new 
+	 * data at the end of the file are catalogued if the catalogue supports this. If it's 
+	 * been replaced or rewritten, the whole file is catalogued again. Nothing happens 
+	 * if the length of the file when it was catalogued isn't known, e.g. for older 
+	 * catalogue files, or if the data file can't be found. 
+	 * @return true if the catalogue has changed and should be written again.  
+	 */
+	public synchronized boolean updateCatalogue() {
+		dataFileState = FileFingerprint.UNCHANGED;
+		if (imageRecords == null && recordsUnloaded) {
+			// only load the records if the data file has changed. 
+			File file = new File(filePath);
+			if (file.length() == 0 || FileFingerprint.check(file, catalogFileLength, 
+					catalogFileTime, catalogFileHash) == FileFingerprint.UNCHANGED) {
+				return false;
+			}
+			getRecordList();
+		}
+		if (catalogFileLength <= 0 || imageRecords == null) {
+			return false;
+		}
+		File file = new File(filePath);
+		if (file.length() == 0) {
+			return false;
+		}
+		dataFileState = FileFingerprint.check(file, catalogFileLength, catalogFileTime, catalogFileHash);
+		switch (dataFileState) {
+		case FileFingerprint.UNCHANGED:
+			return false;
+		case FileFingerprint.MOVED:
+			setFingerprint(file);
+			return true;
+		case FileFingerprint.GROWN:
+			if (catalogEndPosition <= 0) {
+				break;
+			}
+			int nOld = imageRecords.size();
+			long fileTime = file.lastModified();
+			long fileLength = file.length();
+			boolean ok;
+			try {
+				ok = extendCatalogue(imageRecords, catalogEndPosition);
+			}
+			catch (Exception e) {
+				ok = false;
+			}
+			if (ok) {
+				catalogFileTime = fileTime;
+				catalogFileLength = fileLength;
+				try {
+					catalogFileHash = FileFingerprint.sampleHash(file, fileLength);
+				} catch (IOException e) {
+					catalogFileHash = 0;
+				}
+				analyseNewRecords(nOld);
+				return true;
+			}
+			break;
+		}
+		// file has been replaced or can't be extended, so start again. 
+		dataFileState = FileFingerprint.CHANGED;
+		imageRecords = null;
+		binaryFile = null;
+		catalogEndPosition = 0;
+		createCatalogue();
+		return true;
+	}
+
+	/**
+	 * Add records which have been added to the end of the catalogue to the sonar
+	 * information, without going through all the records that were already there. 
+	 * @param firstNew index of the first new record
+	 */
+	private synchronized void analyseNewRecords(int firstNew) {
+		HashMap<Integer, ArrayList<Integer>> newPositions = new HashMap<>();
+		for (int i = firstNew; i < imageRecords.size(); i++) {
+			RecordClass aRec = getCatalogRecord(i);
+			int deviceId = aRec.getDeviceId();
+			CatalogSonarInfo sonarInfo = sonarMap.get(deviceId);
+			if (sonarInfo == null) {
+				sonarInfo = new CatalogSonarInfo(aRec.getSonarIndex(), deviceId, i);
+				sonarInfo.setRecordPositions(new int[0]);
+				sonarMap.put(deviceId, sonarInfo);
+			}
+			sonarInfo.addFrame();
+			ArrayList<Integer> positions = newPositions.get(deviceId);
+			if (positions == null) {
+				newPositions.put(deviceId, positions = new ArrayList<>());
+			}
+			positions.add(i);
+		}
+		for (Entry<Integer, ArrayList<Integer>> entry : newPositions.entrySet()) {
+			CatalogSonarInfo sonarInfo = sonarMap.get(entry.getKey());
+			int[] oldPositions = sonarInfo.getRecordPositions();
+			if (oldPositions == null) {
+				// will be made from scratch when they are needed. 
+				continue;
+			}
+			ArrayList<Integer> positions = entry.getValue();
+			int[] allPositions = Arrays.copyOf(oldPositions, oldPositions.length + positions.size());
+			for (int i = 0; i < positions.size(); i++) {
+				allPositions[oldPositions.length + i] = positions.get(i);
+			}
+			sonarInfo.setRecordPositions(allPositions);
+		}
+		timeIndex = null;
+	}
+
 	/**
 	 * Get the number of sonars, their id's and types, etc.
 	 */
@@ -220,8 +768,11 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 			return;
 		}
 
+		// start again, in case this was already loaded from a catalogue file. 
+		sonarMap.clear();
 		int iRec = 0;
-		for (RecordClass aRec : imageRecords) {
+		for (int i = 0; i < imageRecords.size(); i++) {
+			RecordClass aRec = getCatalogRecord(i);
 			int deviceId = aRec.getDeviceId();
 			int devIndex = aRec.getSonarIndex();
 //			System.out.printf("id %d no %d\n", deviceId, devNo);
@@ -234,6 +785,9 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 
 			iRec++;
 		}
+		makeRecordPositions();
+		// time index will be remade when it's next used. 
+		timeIndex = null;
 
 		Set<Integer> keySet = sonarMap.keySet();
 //		for (Integer key : keySet) {
@@ -242,6 +796,83 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 //		}
 	}
 
+	/**
+	 * Work out where each sonar's records are in the catalogue, so that records
+	 * for a single sonar can be found directly. 
+	 */
+	private synchronized void makeRecordPositions() {
+		ArrayList<RecordClass> records = getRecordList();
+		if (records == null) {
+			return;
+		}
+		HashMap<Integer, int[]> positions = new HashMap<>();
+		for (CatalogSonarInfo sonarInfo : sonarMap.values()) {
+			positions.put(sonarInfo.getSonarId(), new int[sonarInfo.getnFrames()]);
+		}
+		int nRecords = records.size();
+		int[] deviceIds = new int[nRecords];
+		if (readIndexColumns(nRecords, null, deviceIds, null) == false) {
+			for (int i = 0; i < nRecords; i++) {
+				deviceIds[i] = getCatalogRecord(i).getDeviceId();
+			}
+		}
+		HashMap<Integer, int[]> counts = new HashMap<>();
+		for (int i = 0; i < nRecords; i++) {
+			int deviceId = deviceIds[i];
+			int[] sonarPositions = positions.get(deviceId);
+			if (sonarPositions == null) {
+				continue;
+			}
+			int[] count = counts.get(deviceId);
+			if (count == null) {
+				counts.put(deviceId, count = new int[1]);
+			}
+			if (count[0] < sonarPositions.length) {
+				sonarPositions[count[0]++] = i;
+			}
+		}
+		for (CatalogSonarInfo sonarInfo : sonarMap.values()) {
+			int[] sonarPositions = positions.get(sonarInfo.getSonarId());
+			int[] count = counts.get(sonarInfo.getSonarId());
+			int n = count == null ? 0 : count[0];
+			if (n < sonarPositions.length) {
+				// frame count was wrong, so don't leave any unset positions. 
+				sonarPositions = Arrays.copyOf(sonarPositions, n);
+			}
+			sonarInfo.setRecordPositions(sonarPositions);
+		}
+	}
+
+	/**
+	 * Read index values from the binary catalogue file if the records were 
+	 * read from one and are still all in it. 
+	 * @param n number of records
+	 * @param times record times, or null
+	 * @param deviceIds sonar device ids, or null
+	 * @param sonarIndexes sonar indexes, or null
+	 * @return true if the values were read, false if they have to be taken from the records. 
+	 */
+	private synchronized boolean readIndexColumns(int n, long[] times, int[] deviceIds, int[] sonarIndexes) {
+		BinaryCatalogFile binary = binaryFile;
+		if (binary == null || binary.getnRecords() != n) {
+			return false;
+		}
+		return readBinaryIndex(binary, times, deviceIds, sonarIndexes);
+	}
+
+	/**
+	 * Get the positions of a sonar's records in the catalogue, working
+	 * them out if it's not been done yet, e.g. if the catalogue was read from file. 
+	 * @param sonarInfo sonar information
+	 * @return record positions
+	 */
+	private synchronized int[] getRecordPositions(CatalogSonarInfo sonarInfo) {
+		if (sonarInfo.getRecordPositions() == null) {
+			makeRecordPositions();
+		}
+		return sonarInfo.getRecordPositions();
+	}
+
 	public String getFilePath() {
 		return filePath;
 	}
@@ -250,6 +881,73 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 		return catalogException;
 	}
 
+	/**
+	 * @return the length of the data file when it was catalogued, or 0 if not known. 
+	 */
+	public long getCatalogFileLength() {
+		return catalogFileLength;
+	}
+
+	/**
+	 * @param catalogFileLength the length of the data file when it was catalogued
+	 */
+	protected void setCatalogFileLength(long catalogFileLength) {
+		this.catalogFileLength = catalogFileLength;
+	}
+
+	/**
+	 * @return the position in the data just after the last complete record in the 
+	 * catalogue, or 0 if not known. 
+	 */
+	public long getCatalogEndPosition() {
+		return catalogEndPosition;
+	}
+
+	/**
+	 * @param catalogEndPosition the position in the data just after the last complete 
+	 * record in the catalogue
+	 */
+	protected void setCatalogEndPosition(long catalogEndPosition) {
+		this.catalogEndPosition = catalogEndPosition;
+	}
+
+	/**
+	 * @return the modification time of the data file when it was catalogued, or 0 if not known. 
+	 */
+	public long getCatalogFileTime() {
+		return catalogFileTime;
+	}
+
+	/**
+	 * @param catalogFileTime the modification time of the data file when it was catalogued
+	 */
+	protected void setCatalogFileTime(long catalogFileTime) {
+		this.catalogFileTime = catalogFileTime;
+	}
+
+	/**
+	 * @return hash of samples of the data file when it was catalogued, or 0 if not known. 
+	 */
+	public long getCatalogFileHash() {
+		return catalogFileHash;
+	}
+
+	/**
+	 * @param catalogFileHash hash of samples of the data file when it was catalogued
+	 */
+	protected void setCatalogFileHash(long catalogFileHash) {
+		this.catalogFileHash = catalogFileHash;
+	}
+
+	/**
+	 * @return what had happened to the data file when the catalogue was last checked 
+	 * with updateCatalogue. One of the FileFingerprint states, where CHANGED means 
+	 * that the file was catalogued again. 
+	 */
+	public int getDataFileState() {
+		return dataFileState;
+	}
+
 	/**
 	 * fully load a record (if it isn't already). This may involve going back to the
 	 * file and getting and unpacking the raw data.
@@ -278,16 +976,36 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 */
 	abstract public void stopCatalogStream();
 
+	/**
+	 * @return true if streamCatalog shouldn't use extra threads to unpack records
+	 */
+	public boolean isSingleThreadStream() {
+		return singleThreadStream;
+	}
+
+	/**
+	 * Stop streamCatalog using extra threads to unpack records, e.g. when many 
+	 * files are already being streamed in different threads. 
+	 * @param singleThreadStream true to unpack records in the streaming thread
+	 */
+	public void setSingleThreadStream(boolean singleThreadStream) {
+		this.singleThreadStream = singleThreadStream;
+	}
+
 	/**
 	 * Get the time of the first record
 	 * 
 	 * @return the time of the first record
 	 */
 	public long getFirstRecordTime() {
-		if (imageRecords == null || imageRecords.size() == 0) {
+		ArrayList<RecordClass> records = imageRecords;
+		if (records == null && recordsUnloaded) {
+			return summaryFirstTime;
+		}
+		if (records == null || records.size() == 0) {
 			return Long.MIN_VALUE;
 		}
-		return imageRecords.get(0).getRecordTime();
+		return getCatalogRecord(0).getRecordTime();
 	}
 
 	/**
@@ -296,10 +1014,14 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 * @return the time of the first record
 	 */
 	public long getLastRecordTime() {
-		if (imageRecords == null || imageRecords.size() == 0) {
+		ArrayList<RecordClass> records = imageRecords;
+		if (records == null && recordsUnloaded) {
+			return summaryLastTime;
+		}
+		if (records == null || records.size() == 0) {
 			return Long.MIN_VALUE;
 		}
-		return imageRecords.get(imageRecords.size() - 1).getRecordTime();
+		return getCatalogRecord(records.size() - 1).getRecordTime();
 	}
 
 	/**
@@ -307,10 +1029,41 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 * @return total number of records in the file
 	 */
 	public int getNumRecords() {
-		if (imageRecords == null) {
-			return 0;
+		ArrayList<RecordClass> records = imageRecords;
+		if (records == null) {
+			return recordsUnloaded ? summaryRecords : 0;
 		}
-		return imageRecords.size();
+		return records.size();
+	}
+
+	/**
+	 * Get the time index of records in the catalogue. This is made the first
+	 * time it's needed after the catalogue is created or loaded and
+	 * remade if the time zone changes. 
+	 * @return time index, or null if there are no records. 
+	 */
+	public synchronized CatalogTimeIndex getTimeIndex() {
+		ArrayList<RecordClass> records = getRecordList();
+		if (records == null) {
+			return null;
+		}
+		int n = records.size();
+		TimeZone tz = timeZone;
+		if (timeIndex == null || timeIndex.isValid(n, tz) == false) {
+			long[] times = new long[n];
+			int[] sonarIds = new int[n];
+			int[] sonarIndexes = new int[n];
+			if (readIndexColumns(n, times, sonarIds, sonarIndexes) == false) {
+				for (int i = 0; i < n; i++) {
+					RecordClass aRec = getCatalogRecord(i);
+					times[i] = aRec.getRecordTime();
+					sonarIds[i] = aRec.getDeviceId();
+					sonarIndexes[i] = aRec.getSonarIndex();
+				}
+			}
+			timeIndex = new CatalogTimeIndex(times, sonarIds, sonarIndexes, tz);
+		}
+		return timeIndex;
 	}
 
 	/**
@@ -320,28 +1073,10 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 * @return index of closest record to given time.
 	 */
 	public int findRecordIndex(long recordTime) {
-		if (imageRecords == null || imageRecords.size() == 0) {
+		if (getNumRecords() == 0) {
 			return -1;
 		}
-		long bestT = Math.abs(recordTime - imageRecords.get(0).getRecordTime());
-		int closest = 0;
-		for (int i = 1; i < imageRecords.size(); i++) {
-			SonarImageRecordI imRec = imageRecords.get(i);
-			if (imRec.getRecordTime() < recordTime) {
-				// if the records are before our record, then we always want it.
-				bestT = imRec.getRecordTime();
-				closest = i;
-				continue;
-			}
-			// otherwise we're after our time, so only want to look at one more.
-			long dT = Math.abs(recordTime - imageRecords.get(0).getRecordTime());
-			if (dT < bestT) {
-				closest = i;
-			}
-			break; // always get out, since it's only going to get further away noe.
-		}
-
-		return closest;
+		return getTimeIndex().findClosestRecord(recordTime);
 	}
 
 	/**
@@ -353,7 +1088,7 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 * @return Gemini record.
 	 */
 	public RecordClass getRecord(int recordIndex) {
-		RecordClass rec = imageRecords.get(recordIndex);
+		RecordClass rec = getCatalogRecord(recordIndex);
 		return rec;
 	}
 
@@ -365,34 +1100,89 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 * @return
 	 */
 	public RecordClass getSonarRecord(int sonarID, int sonarRecord) {
-		// just incase they are not sequential, work through from the start and count
-		int n = 0;
-		for (RecordClass aRec : imageRecords) {
-			if (aRec.getDeviceId() != sonarID) {
-				continue;
-			}
-			if (n++ == sonarRecord) {
-				return aRec;
-			}
+		// load first, since loading makes new sonar information. 
+		getRecordList();
+		CatalogSonarInfo sonarInfo = sonarMap.get(sonarID);
+		if (sonarInfo == null || sonarRecord < 0) {
+			return null;
 		}
-		return null;
+		int[] positions = getRecordPositions(sonarInfo);
+		if (positions == null || sonarRecord >= positions.length) {
+			return null;
+		}
+		return getCatalogRecord(positions[sonarRecord]);
 	}
 
 	/**
-	 * Get a record at given index, loading full data if required.
+	 * Get a record at given index, loading full data if required. The record
+	 * is pinned in the ImageDataCache until released with releaseRecord. 
 	 * 
 	 * @param recordIndex
 	 * @return fully loaded record.
 	 * @throws IOException
 	 */
 	public RecordClass getFullRecord(int recordIndex) throws IOException {
-		RecordClass rec = imageRecords.get(recordIndex);
-		if (rec.isFullyLoaded() == false) {
-			timedLoadFullRecord(rec);
-		}
+		RecordClass rec = getCatalogRecord(recordIndex);
+		loadFully(rec);
 		return rec;
 	}
 
+	/**
+	 * Make sure a record is fully loaded, loading it if necessary. Loaded records
+	 * are tracked by the ImageDataCache, which frees data from the least recently
+	 * used records when too much memory is in use. The record is pinned in the 
+	 * cache so that its data aren't freed while it's in use, so call releaseRecord
+	 * when it's finished with. 
+	 * 
+	 * @param aRecord record
+	 * @return true if the record is loaded
+	 * @throws IOException
+	 */
+	public boolean loadFully(RecordClass aRecord) throws IOException {
+		return loadFully(aRecord, true);
+	}
+
+	/**
+	 * Make sure a record is fully loaded, loading it if necessary. 
+	 * Takes any record type so that it can be called through a GeminiFileCatalog<?>, 
+	 * but the record must have come from this catalogue. 
+	 * @param aRecord record
+	 * @param pin pin the record in the ImageDataCache. Only false for records that aren't 
+	 * being handed out, e.g. ones being loaded in advance by the prefetcher. 
+	 * @return true if the record is loaded
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	boolean loadFully(SonarImageRecordI aRecord, boolean pin) throws IOException {
+		ImageDataCache cache = ImageDataCache.getImageDataCache();
+		if (pin) {
+			// pin first, so the data can't be freed by another thread once loaded. 
+			cache.pin(aRecord);
+		}
+		boolean ok;
+		if (aRecord.isFullyLoaded()) {
+			cache.recordUsed(aRecord);
+			ok = true;
+		}
+		else {
+			ok = timedLoadFullRecord((RecordClass) aRecord);
+		}
+		if (ok == false && pin) {
+			cache.release(aRecord);
+		}
+		return ok;
+	}
+
+	/**
+	 * Release a record returned by loadFully, getFullRecord, or one of the find 
+	 * functions that load the record, so that its data can be freed when memory 
+	 * is needed. 
+	 * @param aRecord record
+	 */
+	public void releaseRecord(SonarImageRecordI aRecord) {
+		ImageDataCache.getImageDataCache().release(aRecord);
+	}
+
 	private static int days = 3652;
 	private static int secsPerDay = 3600 * 24;
 	private static double cDateOffset = days * secsPerDay;
@@ -473,34 +1263,16 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 * @return closest record or null
 	 */
 	public SonarImageRecordI findRecordForIDandTime(int sonarID, long timeMillis) {
-		long dT = Long.MAX_VALUE;
-		RecordClass bestRec = null;
-		for (RecordClass aRec : imageRecords) {
-			if (aRec.getDeviceId() != sonarID) {
-				continue;
-			}
-			long t = aRec.getRecordTime() - timeMillis;
-			if (Math.abs(t) < dT) {
-				bestRec = aRec;
-				dT = Math.abs(t);
-			}
-			if (t > 0) {
-				/*
-				 * this means we've looked at at least one record after the time we want, so no
-				 * need to look any further.
-				 */
-				break;
-			}
-		}
-		if (bestRec == null) {
+		CatalogTimeIndex index = getTimeIndex();
+		int iRec = index == null ? -1 : index.findClosestSonarIdRecord(sonarID, timeMillis);
+		if (iRec < 0) {
 			return null;
 		}
-		if (bestRec.isFullyLoaded() == false) {
-			try {
-				timedLoadFullRecord(bestRec);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+		RecordClass bestRec = getCatalogRecord(iRec);
+		try {
+			loadFully(bestRec);
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 		return bestRec;
 	}
@@ -520,11 +1292,12 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 		if (baseRecord == null) {
 			return null;
 		}
-		int currInd = imageRecords.indexOf(baseRecord);
+		ArrayList<RecordClass> records = getRecordList();
+		int currInd = records.indexOf(baseRecord);
 		currInd += recordOffset;
 		currInd = Math.max(currInd, 0);
-		currInd = Math.min(currInd, imageRecords.size() - 1);
-		return imageRecords.get(currInd);
+		currInd = Math.min(currInd, records.size() - 1);
+		return getCatalogRecord(currInd);
 	}
 
 	/*
@@ -534,20 +1307,22 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 		if (currentRecord == null) {
 			return -1;
 		}
-		int recordIndex = imageRecords.indexOf(currentRecord);
+		ArrayList<RecordClass> records = getRecordList();
+		int recordIndex = records.indexOf(currentRecord);
 		if (recordIndex >= 0) {
 			return recordIndex;
 		}
 		// search by time. 
 		long recordTime = currentRecord.getRecordTime();
-		for (int i = 0; i < imageRecords.size(); i++) {
-			if (imageRecords.get(i).getDeviceId() != currentRecord.getDeviceId()) {
+		for (int i = 0; i < records.size(); i++) {
+			RecordClass aRec = getCatalogRecord(i);
+			if (aRec.getDeviceId() != currentRecord.getDeviceId()) {
 				continue;
 			}
-			if (imageRecords.get(i).getRecordTime() == recordTime) {
+			if (aRec.getRecordTime() == recordTime) {
 				return i;
 			}
-			if (imageRecords.get(i).getRecordTime() > recordTime) {
+			if (aRec.getRecordTime() > recordTime) {
 				break;
 			}
 		}
@@ -561,10 +1336,10 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 * @return record index (or -1 if not found)
 	 */
 	public SonarImageRecordI getRecordByIndex(int index) {
-		if (index < 0 || index >= imageRecords.size()) {
+		if (index < 0 || index >= getNumRecords()) {
 			return null;
 		}
-		return imageRecords.get(index);
+		return getCatalogRecord(index);
 	}
 
 	public boolean timedLoadFullRecord(RecordClass aRecord) throws IOException {
@@ -573,6 +1348,9 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 		lOK = loadFullRecord(aRecord);
 		long t2 = System.nanoTime();
 		aRecord.setLoadTime(t2 - t1);
+		if (lOK) {
+			ImageDataCache.getImageDataCache().recordLoaded(aRecord);
+		}
 		return lOK;
 	}
 
@@ -584,37 +1362,32 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 * @return closest record or null
 	 */
 	public SonarImageRecordI findRecordForIndexandTime(int sonarIndex, long timeMillis) {
-		long dT = Long.MAX_VALUE;
-		RecordClass bestRec = null;
-		for (RecordClass aRec : imageRecords) {
-			if (aRec.getSonarIndex() != sonarIndex) {
-				continue;
-			}
-			long t = aRec.getRecordTime() - timeMillis;
-			if (Math.abs(t) < Math.abs(dT)) {
-				bestRec = aRec;
-				dT = t;
-			}
-			if (t > 0) {
-				break;
-			}
-		}
-		if (bestRec == null) {
+		CatalogTimeIndex index = getTimeIndex();
+		int iRec = index == null ? -1 : index.findClosestSonarIndexRecord(sonarIndex, timeMillis);
+		if (iRec < 0) {
 			return null;
 		}
-		if (bestRec.isFullyLoaded() == false) {
-			try {
-				timedLoadFullRecord(bestRec);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+		RecordClass bestRec = getCatalogRecord(iRec);
+		try {
+			loadFully(bestRec);
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 		return bestRec;
 	}
 
 	public void freeAllImageData() {
-		for (RecordClass aRec : imageRecords) {
-			aRec.freeImageData();
+		ArrayList<RecordClass> records = imageRecords;
+		if (records == null) {
+			// unloaded, so no data to free
+			return;
+		}
+		ImageDataCache cache = ImageDataCache.getImageDataCache();
+		for (RecordClass aRec : records) {
+			if (aRec != null) {
+				aRec.freeImageData();
+				cache.recordFreed(aRec);
+			}
 		}
 
 	}
@@ -643,20 +1416,41 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	public void freeImageData(long currentTime, long timeWinMillis) {
 		long t1 = currentTime - timeWinMillis;
 		long t2 = currentTime + timeWinMillis;
-		for (RecordClass record : imageRecords) {
+		ArrayList<RecordClass> records = imageRecords;
+		if (records == null) {
+			return;
+		}
+		ImageDataCache cache = ImageDataCache.getImageDataCache();
+		for (RecordClass record : records) {
+			if (record == null) {
+				// never made, so can't have any data.
+				continue;
+			}
 			long rt = record.getRecordTime();
 			if (rt > t1 && rt < t2) {
 				continue;
 			}
 			record.freeImageData();
+			cache.recordFreed(record);
 		}
 	}
 
 	/**
+	 * Get all the records. If the catalogue was read from a binary catalogue
+	 * file, this will make any records that haven't yet been used. 
 	 * @return the imageRecords
 	 */
 	public ArrayList<RecordClass> getImageRecords() {
-		return imageRecords;
+		synchronized (this) {
+			ArrayList<RecordClass> records = getRecordList();
+			if (binaryFile != null) {
+				for (int i = 0; i < records.size(); i++) {
+					getCatalogRecord(i);
+				}
+				binaryFile = null;
+			}
+			return records;
+		}
 	}
 
 	/**
@@ -664,6 +1458,8 @@ public abstract class GeminiFileCatalog<RecordClass extends SonarImageRecordI> i
 	 */
 	protected void setImageRecords(ArrayList<RecordClass> imageRecords) {
 		this.imageRecords = imageRecords;
+		binaryFile = null;
+		recordsUnloaded = false;
 	}
 
 }
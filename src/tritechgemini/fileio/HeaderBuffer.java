@@ -0,0 +1,80 @@
+package tritechgemini.fileio;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads fixed size blocks of little endian data, such as record headers, with
+ * one bulk read, so that the fields can be decoded from a ByteBuffer. This is
+ * a lot quicker than reading every field separately through a
+ * LittleEndianDataInputStream.
+ * <br>Each thread has its own buffer, so a buffer returned by read is only
+ * valid until the same thread calls read again.
+ * @author Doug Gillespie
+ *
+ */
+public class HeaderBuffer {
+
+	private static ThreadLocal<HeaderBuffer> threadBuffer = new ThreadLocal<HeaderBuffer>() {
+		@Override
+		protected HeaderBuffer initialValue() {
+			return new HeaderBuffer(1024);
+		}
+	};
+
+	private byte[] data;
+
+	private ByteBuffer buffer;
+
+	private HeaderBuffer(int size) {
+		allocate(size);
+	}
+
+	private void allocate(int size) {
+		data = new byte[size];
+		buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Read a block of data.
+	 * @param dis data input
+	 * @param nBytes number of bytes to read
+	 * @return little endian buffer holding the data, positioned at the start of the block.
+	 * @throws IOException if the data can't be read. EOFException if the file
+	 * ends before the whole block has been read.
+	 */
+	public static ByteBuffer read(DataInput dis, int nBytes) throws IOException {
+		return threadBuffer.get().readBlock(dis, nBytes);
+	}
+
+	private ByteBuffer readBlock(DataInput dis, int nBytes) throws IOException {
+		if (nBytes > data.length) {
+			allocate(nBytes);
+		}
+		dis.readFully(data, 0, nBytes);
+		buffer.clear();
+		buffer.limit(nBytes);
+		return buffer;
+	}
+
+	/**
+	 * Get an unsigned byte from the current position of a buffer.
+	 * @param buffer buffer
+	 * @return value from 0 to 255
+	 */
+	public static int getUnsignedByte(ByteBuffer buffer) {
+		return buffer.get() & 0xFF;
+	}
+
+	/**
+	 * Get an unsigned short from the current position of a buffer.
+	 * @param buffer buffer
+	 * @return value from 0 to 65535
+	 */
+	public static int getUnsignedShort(ByteBuffer buffer) {
+		return buffer.getShort() & 0xFFFF;
+	}
+
+}
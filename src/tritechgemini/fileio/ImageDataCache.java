@@ -0,0 +1,218 @@
+package tritechgemini.fileio;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import tritechgemini.imagedata.SonarImageRecordI;
+
+/**
+ * Keeps track of which records have their image data loaded and frees the
+ * data from the least recently used ones when the total goes over a memory
+ * budget. This means that programs looping through many thousands of records
+ * don't need to call freeImageData themselves to avoid running out of memory,
+ * but records that are used often stay loaded.
+ * <br>Records handed out by the file catalogues' loadFully functions are pinned, 
+ * so their data aren't freed while they are being used, e.g. when the prefetcher 
+ * loads more records in another thread. Callers should release them when they've 
+ * finished with the data. Records that are never released keep their data until 
+ * freeImageData is called, as they did before there was a cache. 
+ * <br>There is one cache shared by all file catalogues. Records are held by
+ * reference, each record being a single record index in a single file.
+ * @author Doug Gillespie
+ *
+ */
+public class ImageDataCache {
+
+	private static ImageDataCache imageDataCache = new ImageDataCache(Runtime.getRuntime().maxMemory() / 4);
+
+	private long maxBytes;
+
+	private long totalBytes;
+
+	/**
+	 * Loaded records in order of use, with the size of each one's data.
+	 */
+	private LinkedHashMap<SonarImageRecordI, Long> loadedRecords = new LinkedHashMap<>(1024, 0.75f, true);
+
+	/**
+	 * Number of times each record has been pinned and not yet released. 
+	 */
+	private HashMap<SonarImageRecordI, Integer> pinnedRecords = new HashMap<>();
+
+	/**
+	 * @param maxBytes memory budget for image data in bytes. 0 or less for no limit.
+	 */
+	public ImageDataCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the image data cache used by all file catalogues.
+	 */
+	public static ImageDataCache getImageDataCache() {
+		return imageDataCache;
+	}
+
+	/**
+	 * Called when a record has been fully loaded. Data are freed from
+	 * the least recently used records if this takes the total over the budget.
+	 * @param record loaded record
+	 */
+	public synchronized void recordLoaded(SonarImageRecordI record) {
+		if (record == null) {
+			return;
+		}
+		long bytes = getDataBytes(record);
+		Long oldBytes = loadedRecords.put(record, bytes);
+		if (oldBytes != null) {
+			totalBytes -= oldBytes;
+		}
+		totalBytes += bytes;
+		trim(record);
+	}
+
+	/**
+	 * Called when a record that's already loaded is used again, so that
+	 * it's the last to be freed.
+	 * @param record record
+	 */
+	public synchronized void recordUsed(SonarImageRecordI record) {
+		if (record == null) {
+			return;
+		}
+		if (loadedRecords.get(record) == null && record.isFullyLoaded()) {
+			// loaded some other way, so start counting it now.
+			recordLoaded(record);
+		}
+	}
+
+	/**
+	 * Pin a record so that its data won't be freed when the cache is trimmed. 
+	 * Each call should be matched by a call to release. 
+	 * @param record record
+	 */
+	public synchronized void pin(SonarImageRecordI record) {
+		if (record == null) {
+			return;
+		}
+		Integer n = pinnedRecords.get(record);
+		pinnedRecords.put(record, n == null ? 1 : n+1);
+	}
+
+	/**
+	 * Release a record pinned with pin, so that its data can be freed 
+	 * when they're not needed. 
+	 * @param record record
+	 */
+	public synchronized void release(SonarImageRecordI record) {
+		Integer n = pinnedRecords.get(record);
+		if (n == null) {
+			return;
+		}
+		if (n > 1) {
+			pinnedRecords.put(record, n-1);
+			return;
+		}
+		pinnedRecords.remove(record);
+		trim(null);
+	}
+
+	/**
+	 * @param record record
+	 * @return true if the record is pinned
+	 */
+	public synchronized boolean isPinned(SonarImageRecordI record) {
+		return pinnedRecords.containsKey(record);
+	}
+
+	/**
+	 * Called when data have been freed from a record, e.g. with a call to freeImageData. 
+	 * This also releases the record if it was pinned. 
+	 * @param record record
+	 */
+	public synchronized void recordFreed(SonarImageRecordI record) {
+		pinnedRecords.remove(record);
+		Long bytes = loadedRecords.remove(record);
+		if (bytes != null) {
+			totalBytes -= bytes;
+		}
+	}
+
+	/**
+	 * Free data from the least recently used records until the total is
+	 * within the budget. Pinned records are never freed. 
+	 * @param keep record not to free, i.e. the one just loaded.
+	 */
+	private void trim(SonarImageRecordI keep) {
+		if (maxBytes <= 0) {
+			return;
+		}
+		Iterator<Entry<SonarImageRecordI, Long>> it = loadedRecords.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Entry<SonarImageRecordI, Long> entry = it.next();
+			if (entry.getKey() == keep || pinnedRecords.containsKey(entry.getKey())) {
+				continue;
+			}
+			it.remove();
+			totalBytes -= entry.getValue();
+			entry.getKey().freeImageData();
+		}
+	}
+
+	/**
+	 * Free the data from every record in the cache.
+	 */
+	public synchronized void clear() {
+		for (SonarImageRecordI record : loadedRecords.keySet()) {
+			record.freeImageData();
+		}
+		loadedRecords.clear();
+		pinnedRecords.clear();
+		totalBytes = 0;
+	}
+
+	/**
+	 * Get the memory used by a record's image data, including any copies it 
+	 * keeps. This is from the record dimensions rather than the data, since 
+	 * getting the data may unpack it.
+	 * @param record record
+	 * @return size in bytes
+	 */
+	private long getDataBytes(SonarImageRecordI record) {
+		return record.getDataBytes();
+	}
+
+	/**
+	 * @return the memory budget for image data in bytes
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Set the memory budget for image data. If this is smaller than the
+	 * current total, data are freed straight away.
+	 * @param maxBytes the memory budget in bytes. 0 or less for no limit.
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		trim(null);
+	}
+
+	/**
+	 * @return the total size of image data currently loaded
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return the number of records currently loaded
+	 */
+	public synchronized int getNumRecords() {
+		return loadedRecords.size();
+	}
+
+}
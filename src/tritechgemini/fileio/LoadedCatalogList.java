@@ -0,0 +1,142 @@
+package tritechgemini.fileio;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps track of which catalogues have their records in memory when catalogues are
+ * loaded lazily, and unloads the records of the least recently used ones when there
+ * are too many, or when memory is running low, leaving only their summary information.
+ * @author Doug Gillespie
+ *
+ */
+public class LoadedCatalogList {
+
+	private int maxLoaded;
+
+	/**
+	 * Fraction of the maximum heap size above which memory is considered low.
+	 */
+	private double memoryFraction = 0.75;
+
+	private ArrayList<GeminiFileCatalog<?>> loadedCatalogs = new ArrayList<>();
+
+	/**
+	 * @param maxLoaded maximum number of catalogues to keep with their records loaded.
+	 */
+	public LoadedCatalogList(int maxLoaded) {
+		this.maxLoaded = Math.max(1, maxLoaded);
+	}
+
+	/**
+	 * Called when a catalogue's records have been read. Unloads others if
+	 * there are too many or memory is low.
+	 * @param catalog catalogue that's just been loaded
+	 * @param canUnload false if other catalogues can't be unloaded just now
+	 */
+	void catalogLoaded(GeminiFileCatalog<?> catalog, boolean canUnload) {
+		ArrayList<GeminiFileCatalog<?>> toUnload = null;
+		synchronized (this) {
+			if (loadedCatalogs.contains(catalog) == false) {
+				loadedCatalogs.add(catalog);
+			}
+			if (canUnload == false) {
+				return;
+			}
+			int nUnload = loadedCatalogs.size() - maxLoaded;
+			if (nUnload <= 0 && loadedCatalogs.size() > 1 && isMemoryLow()) {
+				// memory won't show as being freed until after garbage collection, so only do one.
+				nUnload = 1;
+			}
+			if (nUnload > 0) {
+				toUnload = getLeastRecentlyUsed(nUnload, catalog);
+			}
+		}
+		/*
+		 * unload outside of the synchronized block, since unloading needs
+		 * to lock each catalogue.
+		 */
+		if (toUnload != null) {
+			for (GeminiFileCatalog<?> unloadCat : toUnload) {
+				if (unloadCat.unloadRecords() == false) {
+					catalogUnloaded(unloadCat);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called when a catalogue's records have been unloaded.
+	 * @param catalog catalogue
+	 */
+	synchronized void catalogUnloaded(GeminiFileCatalog<?> catalog) {
+		loadedCatalogs.remove(catalog);
+	}
+
+	/**
+	 * Get the catalogues that were used longest ago.
+	 * @param n number to get
+	 * @param exclude catalogue not to include
+	 * @return list of catalogues
+	 */
+	private ArrayList<GeminiFileCatalog<?>> getLeastRecentlyUsed(int n, GeminiFileCatalog<?> exclude) {
+		ArrayList<GeminiFileCatalog<?>> candidates = new ArrayList<>(loadedCatalogs);
+		candidates.remove(exclude);
+		ArrayList<GeminiFileCatalog<?>> oldest = new ArrayList<>(n);
+		while (oldest.size() < n && candidates.size() > 0) {
+			int iOldest = 0;
+			for (int i = 1; i < candidates.size(); i++) {
+				if (candidates.get(i).getLastUsed() - candidates.get(iOldest).getLastUsed() < 0) {
+					iOldest = i;
+				}
+			}
+			oldest.add(candidates.remove(iOldest));
+		}
+		return oldest;
+	}
+
+	/**
+	 * @return true if the memory in use is more than the memory fraction of the maximum.
+	 */
+	private boolean isMemoryLow() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return used > memoryFraction * runtime.maxMemory();
+	}
+
+	/**
+	 * @return the number of catalogues which have their records loaded
+	 */
+	public synchronized int getNumLoaded() {
+		return loadedCatalogs.size();
+	}
+
+	/**
+	 * @return the maximum number of catalogues to keep with their records loaded
+	 */
+	public int getMaxLoaded() {
+		return maxLoaded;
+	}
+
+	/**
+	 * @param maxLoaded the maximum number of catalogues to keep with their records loaded
+	 */
+	public void setMaxLoaded(int maxLoaded) {
+		this.maxLoaded = Math.max(1, maxLoaded);
+	}
+
+	/**
+	 * @return fraction of the maximum heap size above which memory is considered low
+	 */
+	public double getMemoryFraction() {
+		return memoryFraction;
+	}
+
+	/**
+	 * @param memoryFraction fraction of the maximum heap size above which memory is
+	 * considered low and catalogues are unloaded.
+	 */
+	public void setMemoryFraction(double memoryFraction) {
+		this.memoryFraction = memoryFraction;
+	}
+
+}
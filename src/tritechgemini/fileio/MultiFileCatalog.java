@@ -4,8 +4,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import tritechgemini.imagedata.SonarImageRecordI;
 
@@ -29,6 +38,112 @@ public class MultiFileCatalog implements Serializable {
 	private HashMap<Integer, CatalogSonarInfo> allSonarInfo = new HashMap<Integer, CatalogSonarInfo>();
 
 	private volatile boolean stopCataloging;
+	
+	/**
+	 * Number of threads to use when building catalogues for many files. 
+	 */
+	private int catalogThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Keep the catalogues of all files in a folder in a single FolderCatalogIndex
+	 * file, which is a lot quicker to open for folders of many files. 
+	 */
+	private boolean useFolderIndex = false;
+	
+	/**
+	 * Only read the summary of each file's catalogue at the start, reading 
+	 * the records when they are first needed. 
+	 */
+	private boolean lazyLoading = false;
+	
+	/**
+	 * Maximum number of catalogues to keep with their records loaded 
+	 * when loading lazily. 
+	 */
+	private int maxLoadedCatalogs = 20;
+	
+	private transient LoadedCatalogList loadedCatalogs;
+	
+	/**
+	 * Start time of each catalogue and the latest end time of that and all 
+	 * earlier catalogues, used to find catalogues by time with a binary search. 
+	 */
+	private transient long[] catalogStartTimes, catalogMaxEndTimes;
+	
+	private transient boolean catalogTimesSorted;
+	
+	private transient TimeZone catalogTimesZone;
+	
+	/**
+	 * Number of records before each catalogue, overall and for each sonar ID, 
+	 * so that records can be found by their overall index with a binary search.  
+	 */
+	private transient RecordOffsets recordOffsets;
+	
+	private transient HashMap<Integer, RecordOffsets> sonarRecordOffsets;
+	
+	/**
+	 * Number of records to load in the background when records are 
+	 * being read in order. 
+	 */
+	private int prefetchRecords = 4;
+	
+	private transient RecordPrefetcher prefetcher;
+	
+	/**
+	 * Last records fully loaded, overall and for each sonar, to see if
+	 * records are being read in order. 
+	 */
+	private transient int lastRecordIndex = -1;
+	
+	private transient HashMap<Integer, Integer> lastSonarRecords;
+	
+	/**
+	 * Cumulative record counts for a list of catalogues. 
+	 */
+	private static class RecordOffsets {
+		
+		private int[] starts = new int[16];
+		
+		private int nCatalogs;
+		
+		private int total;
+		
+		/**
+		 * Add the record count for the next catalogue
+		 * @param nRecords number of records in the catalogue
+		 */
+		private void add(int nRecords) {
+			if (nCatalogs == starts.length) {
+				starts = Arrays.copyOf(starts, starts.length*2);
+			}
+			starts[nCatalogs++] = total;
+			total += nRecords;
+		}
+		
+		/**
+		 * Find the catalogue containing a record. 
+		 * @param iRecord overall record index
+		 * @return catalogue index, or -1 if the record doesn't exist. 
+		 */
+		private int findCatalog(int iRecord) {
+			if (iRecord < 0 || iRecord >= total) {
+				return -1;
+			}
+			// last catalogue starting at or before iRecord, which skips empty catalogues. 
+			int lo = 0, hi = nCatalogs;
+			while (lo < hi) {
+				int mid = (lo+hi) >>> 1;
+				if (starts[mid] <= iRecord) {
+					lo = mid+1;
+				}
+				else {
+					hi = mid;
+				}
+			}
+			return lo-1;
+		}
+	}
 
 	/**
 	 * constructor doesn't actually do any cataloging. 
@@ -67,57 +182,73 @@ public class MultiFileCatalog implements Serializable {
 			return false;
 		}
 		String[] fileList;
+		FolderCatalogIndex folderIndex = null;
 		if (file.isDirectory()) {
 			SonarFileList sfl = new SonarFileList(fileOrFolder, subFolders);
 			fileList = sfl.getFiles();
+			if (useFolderIndex) {
+				folderIndex = new FolderCatalogIndex(fileOrFolder);
+			}
 		}
 		else {
 			fileList = new String[1];
 			fileList[0] = fileOrFolder;
 		}
-		catalogFiles(fileList);
+		catalogFiles(fileList, folderIndex);
 		return true;
 	}
 	/**
-	 * Build a catalogue from a list of files. 
+	 * Build a catalogue from a list of files. If there are many files and more
+	 * than one catalogue thread, the catalogues for several files are built at 
+	 * the same time.
 	 * @param fileList
 	 */
 	public void catalogFiles(String[] fileList) {
+		catalogFiles(fileList, null);
+	}
+	
+	/**
+	 * Build a catalogue from a list of files, taking catalogues from a folder 
+	 * index if there is one, and adding any that weren't in the index to it. 
+	 * @param fileList list of files
+	 * @param folderIndex folder index, or null
+	 */
+	private void catalogFiles(String[] fileList, FolderCatalogIndex folderIndex) {
+		// catalogues being replaced may still have files open.
+		for (GeminiFileCatalog<?> oldCat : catalogList) {
+			oldCat.closeDataFile();
+		}
 		catalogList.clear();
 		allSonarInfo.clear();
+		clearCatalogTimes();
+		// start with empty counts which get added to as each file is catalogued
+		clearRecordOffsets();
+		getRecordOffsets();
+		clearPrefetch();
 //		if (fileList.length> 0) {
 //			notifyObservers(CatalogObserver.BUILDING, catalogList.size(), 1, fileList[0]);
 //		}
-		for (int i = 0; i < fileList.length; i++) {
-			GeminiFileCatalog cat = null;
-			try {
-//				System.out.println("Catalog " + fileList[i]);
-				cat = GeminiFileCatalog.getFileCatalog(fileList[i], true);
-				// send notification after building so can send the cat 
-				// information for a gradual increase in the data map. 
-				notifyObservers(new OfflineCatalogProgress(CatalogObserver.BUILDING, fileList.length, i+1, fileList[i], cat));
-			} catch (CatalogException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			if (cat != null) {
-				catalogList.add(cat);
-				int[] sonars = cat.getSonarIDs();
-				for (int is = 0; is < sonars.length; is++) {
-					CatalogSonarInfo sonarInf = cat.getSonarInfo(sonars[is]);
-					CatalogSonarInfo exInfo = allSonarInfo.get(sonarInf.getSonarId());
-					if (exInfo == null) {
-						exInfo = sonarInf.clone();
-						allSonarInfo.put(sonars[is], exInfo);
-					}
-					else {
-						exInfo.addFrameCount(sonarInf.getnFrames());
-					}
+		int nThreads = Math.min(catalogThreads, fileList.length);
+		if (nThreads > 1) {
+			catalogFilesParallel(fileList, nThreads, folderIndex);
+		}
+		else {
+			for (int i = 0; i < fileList.length; i++) {
+				GeminiFileCatalog<?> cat = null;
+				try {
+					//				System.out.println("Catalog " + fileList[i]);
+					cat = getFileCatalog(fileList[i], folderIndex);
+					// send notification after building so can send the cat 
+					// information for a gradual increase in the data map. 
+					notifyObservers(new OfflineCatalogProgress(CatalogObserver.BUILDING, fileList.length, i+1, fileList[i], cat));
+				} catch (CatalogException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+				addCatalog(cat);
+				if (stopCataloging) {
+					break;
 				}
-				
-			}
-			if (stopCataloging) {
-				break;
 			}
 		}
 		
@@ -137,19 +268,301 @@ public class MultiFileCatalog implements Serializable {
 //			}
 //		}
 		
+		if (folderIndex != null) {
+			folderIndex.save();
+		}
+		
 		notifyObservers(new OfflineCatalogProgress(CatalogObserver.COMPLETE, catalogList.size(), catalogList.size(), null, null));
 	}
 	
+	/**
+	 * Get the catalogue for a file from the folder index, or if it's not 
+	 * there, from it's own catalogue file, adding it to the index.  
+	 * @param filePath data file path
+	 * @param folderIndex folder index, or null
+	 * @return file catalogue
+	 * @throws CatalogException
+	 */
+	private GeminiFileCatalog<?> getFileCatalog(String filePath, FolderCatalogIndex folderIndex) throws CatalogException {
+		GeminiFileCatalog<?> cat = null;
+		if (folderIndex != null) {
+			cat = folderIndex.getCatalog(filePath);
+		}
+		else if (lazyLoading) {
+			cat = GeminiFileCatalog.getFileCatalogSummary(filePath);
+			if (cat != null) {
+				cat.setLoadedCatalogs(getLoadedCatalogs());
+			}
+			return cat;
+		}
+		if (cat == null) {
+			cat = GeminiFileCatalog.getFileCatalog(filePath, true);
+			if (folderIndex != null) {
+				folderIndex.addCatalog(cat);
+			}
+		}
+		return cat;
+	}
+	
+ 	/**
+	 * Build catalogues for a list of files in a pool of threads. Catalogues are 
+	 * still added to the list and observers notified in this thread in the same
+	 * order as the file list, so the result is the same as building them one 
+	 * at a time. 
+	 * @param fileList list of files
+	 * @param nThreads number of threads
+	 * @param folderIndex folder index, or null
+	 */
+	private void catalogFilesParallel(String[] fileList, int nThreads, final FolderCatalogIndex folderIndex) {
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int nThread = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Sonar catalogue builder " + ++nThread);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ArrayList<Future<GeminiFileCatalog<?>>> futures = new ArrayList<>(fileList.length);
+		for (int i = 0; i < fileList.length; i++) {
+			final String fileName = fileList[i];
+			futures.add(executor.submit(new Callable<GeminiFileCatalog<?>>() {
+				@Override
+				public GeminiFileCatalog<?> call() throws Exception {
+					if (stopCataloging) {
+						return null;
+					}
+					return getFileCatalog(fileName, folderIndex);
+				}
+			}));
+		}
+		executor.shutdown();
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				GeminiFileCatalog<?> cat = null;
+				try {
+					cat = futures.get(i).get();
+					notifyObservers(new OfflineCatalogProgress(CatalogObserver.BUILDING, fileList.length, i+1, fileList[i], cat));
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+				addCatalog(cat);
+				if (stopCataloging) {
+					break;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			stopCataloging = true;
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			/*
+			 * Don't interrupt jobs which are already running, since that might leave
+			 * part written catalogue files, but don't start any more. 
+			 */
+			for (int i = 0; i < futures.size(); i++) {
+				futures.get(i).cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * Add a catalogue to the list and add it's sonars to the summary
+	 * information for all sonars. 
+	 * @param cat catalogue (can be null)
+	 */
+	private void addCatalog(GeminiFileCatalog<?> cat) {
+		if (cat == null) {
+			return;
+		}
+		catalogList.add(cat);
+		addRecordOffsets(cat);
+		addSonarInfo(cat);
+	}
+
+	/**
+	 * Add a catalogue's sonars to the summary information for all sonars. 
+	 * @param cat catalogue
+	 */
+	private void addSonarInfo(GeminiFileCatalog<?> cat) {
+		int[] sonars = cat.getSonarIDs();
+		for (int is = 0; is < sonars.length; is++) {
+			CatalogSonarInfo sonarInf = cat.getSonarInfo(sonars[is]);
+			CatalogSonarInfo exInfo = allSonarInfo.get(sonarInf.getSonarId());
+			if (exInfo == null) {
+				exInfo = sonarInf.clone();
+				allSonarInfo.put(sonars[is], exInfo);
+			}
+			else {
+				exInfo.addFrameCount(sonarInf.getnFrames());
+			}
+		}
+	}
+	
+	/**
+	 * Add the record counts of a catalogue that's just been added to the list 
+	 * to the cumulative counts. 
+	 * @param cat catalogue
+	 */
+	private synchronized void addRecordOffsets(GeminiFileCatalog<?> cat) {
+		if (recordOffsets == null || recordOffsets.nCatalogs != catalogList.size()-1) {
+			// out of step, so will get remade from scratch when it's next needed. 
+			clearRecordOffsets();
+			return;
+		}
+		appendRecordOffsets(cat);
+	}
+	
+	/**
+	 * Add the record counts of a catalogue to the end of the cumulative counts. 
+	 * @param cat catalogue
+	 */
+	private void appendRecordOffsets(GeminiFileCatalog<?> cat) {
+		int iCat = recordOffsets.nCatalogs;
+		recordOffsets.add(cat.getNumRecords());
+		for (Entry<Integer, RecordOffsets> sonarEntry : sonarRecordOffsets.entrySet()) {
+			CatalogSonarInfo sonarInfo = cat.getSonarInfo(sonarEntry.getKey());
+			sonarEntry.getValue().add(sonarInfo == null ? 0 : sonarInfo.getnFrames());
+		}
+		int[] sonars = cat.getSonarIDs();
+		for (int is = 0; is < sonars.length; is++) {
+			if (sonarRecordOffsets.containsKey(sonars[is])) {
+				continue;
+			}
+			// new sonar, so it had no records in all the earlier catalogues
+			RecordOffsets sonarOffsets = new RecordOffsets();
+			for (int i = 0; i < iCat; i++) {
+				sonarOffsets.add(0);
+			}
+			sonarOffsets.add(cat.getSonarInfo(sonars[is]).getnFrames());
+			sonarRecordOffsets.put(sonars[is], sonarOffsets);
+		}
+	}
+	
+	/**
+	 * Get the cumulative record counts, making them if they don't exist or are
+	 * out of date, e.g. if this catalogue was deserialized. 
+	 * @return cumulative record counts of all catalogues
+	 */
+	private synchronized RecordOffsets getRecordOffsets() {
+		if (recordOffsets != null && recordOffsets.nCatalogs == catalogList.size()) {
+			return recordOffsets;
+		}
+		int n = catalogList.size();
+		recordOffsets = new RecordOffsets();
+		sonarRecordOffsets = new HashMap<>();
+		for (int i = 0; i < n; i++) {
+			appendRecordOffsets(catalogList.get(i));
+		}
+		return recordOffsets;
+	}
+	
+	/**
+	 * Get the cumulative record counts for a single sonar. 
+	 * @param sonarId sonar ID
+	 * @return cumulative record counts or null if the sonar isn't in any catalogue. 
+	 */
+	private synchronized RecordOffsets getSonarRecordOffsets(int sonarId) {
+		getRecordOffsets();
+		return sonarRecordOffsets.get(sonarId);
+	}
+	
+	private synchronized void clearRecordOffsets() {
+		recordOffsets = null;
+		sonarRecordOffsets = null;
+	}
+	
+	/**
+	 * Set the number of threads used to build catalogues. Building catalogues
+	 * for the first time is a lot faster in several threads, particularly
+	 * if the data are on a fast SSD. 
+	 * @param catalogThreads number of threads. 1 to build one catalogue at a time. 
+	 */
+	public void setCatalogThreads(int catalogThreads) {
+		this.catalogThreads = Math.max(1, catalogThreads);
+	}
+	
+	/**
+	 * @return the number of threads used to build catalogues
+	 */
+	public int getCatalogThreads() {
+		return catalogThreads;
+	}
+	
+	/**
+	 * Keep the catalogues of all files in a folder in a single index file
+	 * in that folder, which is a lot quicker to open than separate catalogue
+	 * files when there are many files, particularly on network drives. Only 
+	 * used when cataloguing a folder.  
+	 * @param useFolderIndex use a folder index
+	 */
+	public void setUseFolderIndex(boolean useFolderIndex) {
+		this.useFolderIndex = useFolderIndex;
+	}
+	
+	/**
+	 * @return true if a single index file is used for folders
+	 */
+	public boolean isUseFolderIndex() {
+		return useFolderIndex;
+	}
+	
+	/**
+	 * Only read a summary of each file's catalogue when cataloguing files, i.e. the
+	 * times of the first and last records and the number of records for each sonar. 
+	 * The records for each file are read when they are first needed, and are unloaded
+	 * again when too many files have been loaded or memory is low, so that memory use
+	 * depends on how much of the data has been looked at rather than the size of the 
+	 * dataset. Not used with a folder index, which is read in one go anyway. 
+	 * @param lazyLoading load catalogues lazily
+	 */
+	public void setLazyLoading(boolean lazyLoading) {
+		this.lazyLoading = lazyLoading;
+	}
+	
+	/**
+	 * @return true if catalogues are loaded lazily
+	 */
+	public boolean isLazyLoading() {
+		return lazyLoading;
+	}
+	
+	/**
+	 * @param maxLoadedCatalogs maximum number of catalogues to keep with their records
+	 * loaded when loading lazily. 
+	 */
+	public void setMaxLoadedCatalogs(int maxLoadedCatalogs) {
+		this.maxLoadedCatalogs = Math.max(1, maxLoadedCatalogs);
+		if (loadedCatalogs != null) {
+			loadedCatalogs.setMaxLoaded(this.maxLoadedCatalogs);
+		}
+	}
+	
+	/**
+	 * @return maximum number of catalogues to keep with their records loaded 
+	 * when loading lazily. 
+	 */
+	public int getMaxLoadedCatalogs() {
+		return maxLoadedCatalogs;
+	}
+	
+	/**
+	 * @return list of catalogues with loaded records, used when loading lazily. 
+	 */
+	private synchronized LoadedCatalogList getLoadedCatalogs() {
+		if (loadedCatalogs == null) {
+			loadedCatalogs = new LoadedCatalogList(maxLoadedCatalogs);
+		}
+		return loadedCatalogs;
+	}
+	
 	/**
 	 * Get the total number of records in all files. 
 	 * @return
 	 */
 	public int getTotalRecords() {
-		int n = 0;
-		for (int i = 0; i < catalogList.size(); i++) {
-			n += catalogList.get(i).getNumRecords();
-		}
-		return n;
+		return getRecordOffsets().total;
 	}
 	
 	/**
@@ -178,64 +591,155 @@ public class MultiFileCatalog implements Serializable {
 	/**
 	 * Get the ith record from the total catalogue. 
 	 * @param iRecord record index. 
-	 * @param loadFully load the full record data (don't do this for too many units at once)
+	 * @param loadFully load the full record data (don't do this for too many units at once). 
+	 * Loaded records are pinned in the ImageDataCache until released with releaseRecord. 
 	 * @return ith record or null if it doesn't exit. 
 	 */
 	public SonarImageRecordI getRecord(int iRecord, boolean loadFully) {
-		int n = 0;
-		int counted1 = 0, counted2;
-		for (int i = 0; i < catalogList.size(); i++) {
-			counted2 = counted1 + catalogList.get(i).getNumRecords();
-			if (iRecord >= counted1 && iRecord < counted2) {
-				if (loadFully) {
-				try {
-					return catalogList.get(i).getFullRecord(iRecord-counted1);
-				} catch (IOException e) {
-					e.printStackTrace();
-					return null;
-				}
-				}
-				else {
-					return catalogList.get(i).getRecord(iRecord-counted1);
+		RecordOffsets offsets = getRecordOffsets();
+		int i = offsets.findCatalog(iRecord);
+		if (i < 0) {
+			return null;
+		}
+		GeminiFileCatalog<?> catalog = catalogList.get(i);
+		SonarImageRecordI record = catalog.getRecord(iRecord - offsets.starts[i]);
+		if (loadFully) {
+			try {
+				loadRecord(catalog, record);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+			if (isSequential(null, iRecord)) {
+				for (int k = 1; k <= prefetchRecords; k++) {
+					int iCat = offsets.findCatalog(iRecord+k);
+					if (iCat < 0) {
+						break;
+					}
+					GeminiFileCatalog<?> nextCat = catalogList.get(iCat);
+					getPrefetcher().prefetch(nextCat, nextCat.getRecord(iRecord+k-offsets.starts[iCat]));
 				}
 			}
-			counted1 = counted2;
 		}
-		return null;
+		return record;
+	}
+	
+	/**
+	 * Load a record, waiting for it if it's already being loaded in the background. 
+	 * @param catalog catalogue containing the record
+	 * @param record record
+	 * @return true if loaded OK
+	 * @throws IOException
+	 */
+	private boolean loadRecord(GeminiFileCatalog<?> catalog, SonarImageRecordI record) throws IOException {
+		RecordPrefetcher currentPrefetcher = prefetcher;
+		if (currentPrefetcher != null) {
+			currentPrefetcher.waitFor(record);
+		}
+		return catalog.loadFully(record, true);
+	}
+	
+	/**
+	 * Check whether records are being read in order, i.e. this record follows
+	 * the one read before it. 
+	 * @param sonarId sonar ID or null for the overall record index
+	 * @param iRecord record index
+	 * @return true if the previous record read was iRecord-1
+	 */
+	private synchronized boolean isSequential(Integer sonarId, int iRecord) {
+		if (prefetchRecords <= 0) {
+			return false;
+		}
+		int lastRecord;
+		if (sonarId == null) {
+			lastRecord = lastRecordIndex;
+			lastRecordIndex = iRecord;
+		}
+		else {
+			if (lastSonarRecords == null) {
+				lastSonarRecords = new HashMap<>();
+			}
+			Integer last = lastSonarRecords.put(sonarId, iRecord);
+			lastRecord = last == null ? -1 : last;
+		}
+		return iRecord == lastRecord+1;
+	}
+	
+	private synchronized RecordPrefetcher getPrefetcher() {
+		if (prefetcher == null) {
+			prefetcher = new RecordPrefetcher(1);
+		}
+		return prefetcher;
+	}
+	
+	/**
+	 * Stop any background loading and forget which records were last read. 
+	 */
+	private synchronized void clearPrefetch() {
+		if (prefetcher != null) {
+			prefetcher.clear();
+		}
+		lastRecordIndex = -1;
+		lastSonarRecords = null;
+	}
+	
+	/**
+	 * Set the number of records to load in the background when records are
+	 * being read in order with getRecord or getSonarRecord. Records are then
+	 * usually ready by the time they are needed. 
+	 * @param prefetchRecords number of records to read ahead. 0 to switch off. 
+	 */
+	public void setPrefetchRecords(int prefetchRecords) {
+		this.prefetchRecords = Math.max(0, prefetchRecords);
+		if (this.prefetchRecords == 0) {
+			clearPrefetch();
+		}
+	}
+	
+	/**
+	 * @return the number of records to load in the background when records are
+	 * being read in order
+	 */
+	public int getPrefetchRecords() {
+		return prefetchRecords;
 	}
 	
 	/**
 	 * 
 	 * Get the ith record for the specified sonar ...
+	 * The record is loaded and pinned in the ImageDataCache until released with releaseRecord. 
 	 */
 	public SonarImageRecordI getSonarRecord(int sonarID, int iRecord) {
-		int n = 0;
-		int counted1 = 0, counted2;
-		for (int i = 0; i < catalogList.size(); i++) {
-			GeminiFileCatalog catalog = catalogList.get(i);
-			CatalogSonarInfo devInfo = catalog.getSonarInfo(sonarID);
-			if (devInfo == null) {
-				continue;
-			}
-			counted2 = counted1 + devInfo.getnFrames();
-			if (iRecord >= counted1 && iRecord < counted2) {
-				try {
-					SonarImageRecordI record = catalog.getSonarRecord(sonarID, iRecord-counted1);
-					if (record == null) {
-						return null;
-					}
-					if (record.isFullyLoaded() == false) {
-						catalog.timedLoadFullRecord(record);
-					}
-					return record;
-				} catch (IOException e) {
-					e.printStackTrace();
-					return null;
+		RecordOffsets offsets = getSonarRecordOffsets(sonarID);
+		if (offsets == null) {
+			return null;
+		}
+		int i = offsets.findCatalog(iRecord);
+		if (i < 0) {
+			return null;
+		}
+		GeminiFileCatalog<?> catalog = catalogList.get(i);
+		SonarImageRecordI record = catalog.getSonarRecord(sonarID, iRecord-offsets.starts[i]);
+		if (record == null) {
+			return null;
+		}
+		try {
+			loadRecord(catalog, record);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		if (isSequential(sonarID, iRecord)) {
+			for (int k = 1; k <= prefetchRecords; k++) {
+				int iCat = offsets.findCatalog(iRecord+k);
+				if (iCat < 0) {
+					break;
 				}
+				GeminiFileCatalog<?> nextCat = catalogList.get(iCat);
+				getPrefetcher().prefetch(nextCat, nextCat.getSonarRecord(sonarID, iRecord+k-offsets.starts[iCat]));
 			}
-			counted1 = counted2;
 		}
-		return null;
+		return record;
 	}
 	
 	/**
@@ -254,19 +758,95 @@ public class MultiFileCatalog implements Serializable {
 	 * @return catalog reference or null
 	 */
 	public GeminiFileCatalog findRecordCatalog(int deviceId, long recordTime) {
-		for (int i = 0; i < catalogList.size(); i++) {
+		int iCat = findCatalogIndex(recordTime);
+		if (iCat < 0) {
+			return null;
+		}
+		return catalogList.get(iCat);
+	}
+	
+	/**
+	 * Find the index of the first catalogue which spans the given time. 
+	 * @param timeMillis time in milliseconds
+	 * @return catalogue index or -1 if no catalogue contains that time. 
+	 */
+	private synchronized int findCatalogIndex(long timeMillis) {
+		makeCatalogTimes();
+		int n = catalogStartTimes.length;
+		if (catalogTimesSorted == false) {
+			// files not in time order, so have to check them all. 
+			for (int i = 0; i < n; i++) {
+				if (timeMillis >= catalogStartTimes[i] && timeMillis <= catalogList.get(i).getLastRecordTime()) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		// number of catalogues starting at or before timeMillis
+		int lo = 0, hi = n;
+		while (lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if (catalogStartTimes[mid] <= timeMillis) {
+				lo = mid+1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		int nStarted = lo;
+		// first catalogue ending at or after timeMillis
+		lo = 0;
+		hi = nStarted;
+		while (lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if (catalogMaxEndTimes[mid] >= timeMillis) {
+				hi = mid;
+			}
+			else {
+				lo = mid+1;
+			}
+		}
+		return lo < nStarted ? lo : -1;
+	}
+	
+	/**
+	 * Make the arrays of catalogue start and end times if they don't
+	 * exist or the catalogue list or time zone have changed. 
+	 */
+	private void makeCatalogTimes() {
+		int n = catalogList.size();
+		TimeZone tz = GeminiFileCatalog.getTimeZone();
+		if (catalogStartTimes != null && catalogStartTimes.length == n && catalogTimesZone == tz) {
+			return;
+		}
+		long[] startTimes = new long[n];
+		long[] maxEndTimes = new long[n];
+		boolean sorted = true;
+		long maxEnd = Long.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
 			GeminiFileCatalog catalog = catalogList.get(i);
-			long firstTime = catalog.getFirstRecordTime() ;
-			long lastTime = catalog.getLastRecordTime() ;
-			if (recordTime < firstTime ) {
-				continue;
+			if (catalog.getNumRecords() == 0) {
+				// empty catalogue. Give it a start time that won't upset the sort order and it will never match.  
+				startTimes[i] = i == 0 ? Long.MIN_VALUE : startTimes[i-1];
 			}
-			if (recordTime > lastTime) {
-				continue;
+			else {
+				startTimes[i] = catalog.getFirstRecordTime();
+				maxEnd = Math.max(maxEnd, catalog.getLastRecordTime());
+			}
+			maxEndTimes[i] = maxEnd;
+			if (i > 0 && startTimes[i] < startTimes[i-1]) {
+				sorted = false;
 			}
-			return catalog;
 		}
-		return null;
+		catalogStartTimes = startTimes;
+		catalogMaxEndTimes = maxEndTimes;
+		catalogTimesSorted = sorted;
+		catalogTimesZone = tz;
+	}
+	
+	private synchronized void clearCatalogTimes() {
+		catalogStartTimes = null;
+		catalogMaxEndTimes = null;
 	}
 
 	/**
@@ -276,21 +856,11 @@ public class MultiFileCatalog implements Serializable {
 	 * @return record or null
 	 */
 	public SonarImageRecordI findRecordForTime(int sonarID, long timeMillis) {
-
-		for (int i = 0; i < catalogList.size(); i++) {
-			GeminiFileCatalog catalog = catalogList.get(i);
-			long firstTime = catalog.getFirstRecordTime() ;
-			long lastTime = catalog.getLastRecordTime() ;
-			
-			if (timeMillis < firstTime ) {
-				continue;
-			}
-			if (timeMillis > lastTime) {
-				continue;
-			}
-			return catalog.findRecordForIDandTime(sonarID, timeMillis);
+		int iCat = findCatalogIndex(timeMillis);
+		if (iCat < 0) {
+			return null;
 		}
-		return null;
+		return catalogList.get(iCat).findRecordForIDandTime(sonarID, timeMillis);
 	}
 
 	/**
@@ -305,22 +875,7 @@ public class MultiFileCatalog implements Serializable {
 		if (baseRecord == null) {
 			return null;
 		}
-		int currentCatalogIndex = -1;
-		long timeMillis = baseRecord.getRecordTime();
-		for (int i = 0; i < catalogList.size(); i++) {
-			GeminiFileCatalog catalog = catalogList.get(i);
-			long firstTime = catalog.getFirstRecordTime() ;
-			long lastTime = catalog.getLastRecordTime() ;
-			
-			if (timeMillis < firstTime ) {
-				continue;
-			}
-			if (timeMillis > lastTime) {
-				continue;
-			}
-			currentCatalogIndex = i;
-			break;
-		}
+		int currentCatalogIndex = findCatalogIndex(baseRecord.getRecordTime());
 		if (currentCatalogIndex < 0) {
 			return null;
 		}
@@ -398,6 +953,36 @@ public class MultiFileCatalog implements Serializable {
 		stopCataloging = true;
 	}
 
+	/**
+	 * Check whether any of the files have grown since they were catalogued, 
+	 * which will happen if a file is still being written. New records at the
+	 * end of those files are added to their catalogues.  
+	 * @return true if any catalogue changed. 
+	 */
+	public boolean updateCatalogs() {
+		boolean changed = false;
+		for (int i = 0; i < catalogList.size(); i++) {
+			GeminiFileCatalog catalog = catalogList.get(i);
+			if (catalog.updateCatalogue()) {
+				GeminiFileCatalog.writeSerializedCatalog(catalog.getFilePath(), catalog);
+				changed = true;
+			}
+		}
+		if (changed == false) {
+			return false;
+		}
+		synchronized (this) {
+			allSonarInfo.clear();
+			for (int i = 0; i < catalogList.size(); i++) {
+				addSonarInfo(catalogList.get(i));
+			}
+			clearCatalogTimes();
+			clearRecordOffsets();
+			clearPrefetch();
+		}
+		return true;
+	}
+
 	/**
 	 * call if a record has not been loaded fully. will need to find 
 	 * the right catalog, then load. 
@@ -411,12 +996,21 @@ public class MultiFileCatalog implements Serializable {
 			return false;
 		}
 		try {
-			loaded = catalog.loadFullRecord(imageRecord);
+			loaded = loadRecord(catalog, imageRecord);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		return loaded;
 	}
+
+	/**
+	 * Release a record loaded with loadFully or getRecord(..., true), so that its 
+	 * data can be freed when memory is needed. 
+	 * @param imageRecord record
+	 */
+	public void releaseRecord(SonarImageRecordI imageRecord) {
+		ImageDataCache.getImageDataCache().release(imageRecord);
+	}
 	
 	
 }
@@ -0,0 +1,128 @@
+package tritechgemini.fileio;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import tritechgemini.imagedata.SonarImageRecordI;
+
+/**
+ * Loads records in a background thread ahead of them being needed. This is used
+ * by MultiFileCatalog when records are being read in order, so that when the next
+ * record is requested it's already been read and unpacked.
+ * <br>The thread stops when there is nothing to do and is restarted when more
+ * records are queued.
+ * @author Doug Gillespie
+ *
+ */
+public class RecordPrefetcher {
+
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Records queued or being loaded.
+	 */
+	private IdentityHashMap<SonarImageRecordI, Future<Boolean>> pending = new IdentityHashMap<>();
+
+	/**
+	 * @param nThreads number of threads used to load records
+	 */
+	public RecordPrefetcher(int nThreads) {
+		executor = new ThreadPoolExecutor(nThreads, nThreads, 5, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Sonar record prefetch");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queue a record to be loaded. Nothing happens if the record is already
+	 * loaded or queued.
+	 * @param catalog catalogue the record belongs to
+	 * @param record record
+	 */
+	public synchronized void prefetch(final GeminiFileCatalog<?> catalog, final SonarImageRecordI record) {
+		if (record == null || record.isFullyLoaded() || pending.containsKey(record)) {
+			return;
+		}
+		Future<Boolean> future = executor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				try {
+					// not pinned, since nothing is using it yet. 
+					return catalog.loadFully(record, false);
+				}
+				finally {
+					loadComplete(record);
+				}
+			}
+		});
+		pending.put(record, future);
+	}
+
+	private synchronized void loadComplete(SonarImageRecordI record) {
+		pending.remove(record);
+	}
+
+	/**
+	 * Called before a record is loaded by the caller. If the record is queued 
+	 * or being loaded in the background, wait for it to finish. Records are queued
+	 * in order, so anything ahead of it in the queue will have been needed first. 
+	 * Loading it in this thread instead would mean jumping backwards and forwards 
+	 * in compressed files, which is slow.  
+	 * @param record record about to be loaded
+	 */
+	public void waitFor(SonarImageRecordI record) {
+		Future<Boolean> future;
+		synchronized (this) {
+			future = pending.get(record);
+			if (future == null) {
+				return;
+			}
+		}
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			// keep the interrupt for the caller to deal with. 
+			Thread.currentThread().interrupt();
+		} catch (CancellationException e) {
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				System.out.println("Error prefetching sonar record: " + e.getCause().getMessage());
+			}
+			else {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Cancel everything that's queued but not started.
+	 */
+	public synchronized void clear() {
+		for (Future<Boolean> future : pending.values()) {
+			future.cancel(false);
+		}
+		pending.clear();
+	}
+
+	/**
+	 * @return number of records queued or being loaded
+	 */
+	public synchronized int getNumPending() {
+		return pending.size();
+	}
+
+}
@@ -153,6 +153,13 @@ I would try to avoid using the PingTail Extension record, unless you think there
 	public void setAcousticZoom(GeminiAcousticZoom acousticZoom) {
 		this.acousticZoom = acousticZoom;
 	}
+
+	/**
+	 * @return the acoustic zoom data, or null if there wasn't any. 
+	 */
+	public GeminiAcousticZoom getAcousticZoom() {
+		return acousticZoom;
+	}
 	
 	public byte[] uncompressData() {
 		int m_dataSize = m_nBrgs*m_nRngs*m_bpp;
@@ -221,6 +228,13 @@ I would try to avoid using the PingTail Extension record, unless you think there
 		//	  bearingTable = null;
 	}
 
+	@Override
+	public long getDataBytes() {
+		// compressed data are kept as well as the uncompressed data. 
+		byte[] compressed = cData;
+		return super.getDataBytes() + (compressed == null ? 0 : compressed.length);
+	}
+
 	@Override
 	public int getnRange() {
 		return m_nRngs;
@@ -37,6 +37,12 @@ public class FanPicksFromData extends ImageFanMaker {
 	 */
 	private int sonarRecordLength;
 	
+	/**
+	 * Number of range bins before the first bin in the data used with LUT's, 
+	 * for sonars where the data don't start at 0 range. 
+	 */
+	private double lutStartBin;
+	
 	/**
 	 * Number of points in each column actually used. 
 	 */
@@ -121,6 +127,9 @@ public class FanPicksFromData extends ImageFanMaker {
 		if (sonarRecordLength != sonarRecord.getImageData().length) {
 			return true;
 		}
+		if (lutStartBin != getStartBin(sonarRecord)) {
+			return true;
+		}
 		if (dataPickLUT == null) {
 			return true;
 		}
@@ -156,10 +165,14 @@ public class FanPicksFromData extends ImageFanMaker {
 		xCent = (int) Math.ceil(nPixX/2.);
 		int nBearing = bearingTable.length;
 		int nRange = sonarRecord.getnRange();
-		double imageScaleY = (double) nRange / (double) nPixY;
-		double imageScaleX = (double) nRange * Math.abs(Math.sin(bearingTable[0])) / (double) nPixX * 2;
+		double startBin = getStartBin(sonarRecord);
+		// image goes out from 0 range, so scale on the range bins out to the max range
+		double rangeBins = nRange + startBin;
+		double imageScaleY = rangeBins / (double) nPixY;
+		double imageScaleX = rangeBins * Math.abs(Math.sin(bearingTable[0])) / (double) nPixX * 2;
 		Thread[] threads = new Thread[nThread];
 		sonarRecordLength = sonarRecord.getnBeam() * sonarRecord.getnRange();
+		lutStartBin = startBin;
 		for (int t = 0; t < nThread; t++) {
 			int pos = t;
 			threads[t] = new Thread(new Runnable() {
@@ -168,10 +181,13 @@ public class FanPicksFromData extends ImageFanMaker {
 					for (int ix = pos; ix < nPixX; ix += nThread) {
 						int x = ix-xCent;
 						for (int iy = 0; iy < nPixY; iy++) {
-							double pixRng = Math.sqrt(iy*iy*imageScaleY*imageScaleY+x*x*imageScaleX*imageScaleX);
+							double pixRng = Math.sqrt(iy*iy*imageScaleY*imageScaleY+x*x*imageScaleX*imageScaleX) - startBin;
 							if (pixRng >= nRange) {
 								continue; // too far away
 							}
+							if (pixRng < 0) {
+								continue; // closer than the start of the data
+							}
 							double pixAng = Math.atan2(-x*imageScaleX, iy*imageScaleY); // backward !
 							int bearInd1 = findClosestBearings(bearingTable, pixAng);
 							if (bearInd1 < 0) {
@@ -252,6 +268,20 @@ public class FanPicksFromData extends ImageFanMaker {
 		}
 	}
 	
+	/**
+	 * Get the number of range bins between 0 range and the first bin in the data. 
+	 * @param sonarRecord sonar record
+	 * @return number of bins, which need not be a whole number. 
+	 */
+	private double getStartBin(SonarImageRecordI sonarRecord) {
+		double minRange = sonarRecord.getMinRange();
+		double rangeSpan = sonarRecord.getMaxRange() - minRange;
+		if (minRange <= 0 || rangeSpan <= 0) {
+			return 0;
+		}
+		return minRange * sonarRecord.getnRange() / rangeSpan;
+	}
+	
 	// check the number of points is something we can handle. 
 	private int checkNPoints(int nPoints) {
 		switch (nPoints) {
@@ -4,9 +4,11 @@ import java.io.DataInput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 import tritechgemini.fileio.CatalogException;
 import tritechgemini.fileio.GLFGenericHeader;
+import tritechgemini.fileio.HeaderBuffer;
 import tritechgemini.fileio.LittleEndianDataInputStream;
 import tritechgemini.fileio.LittleEndianDataOutputStream;
 
@@ -196,65 +198,66 @@ public class GLFStatusData extends PublicMessageHeader implements Serializable {
 //		}
 		// old variables ...
 		try {
+			ByteBuffer buffer = HeaderBuffer.read(dis, getDataSize(isOnline));
 			if (isOnline == false) {
-				int something1 = dis.readShort();
+				int something1 = buffer.getShort();
 			}
-			m_bfVersion = dis.readShort();
-			m_daVer = dis.readShort();
-			m_flags = dis.readShort();
-			m_deviceID = dis.readShort();
-			m_xdSelected = dis.readByte();
+			m_bfVersion = buffer.getShort();
+			m_daVer = buffer.getShort();
+			m_flags = buffer.getShort();
+			m_deviceID = buffer.getShort();
+			m_xdSelected = buffer.get();
 //			reserved = dis.readByte();
-			m_vgaT1 = dis.readDouble();
-			m_vgaT2 = dis.readDouble();
-			m_vgaT3 = dis.readDouble();
-			m_vgaT4 = dis.readDouble();
-			m_psuT = dis.readDouble();
-			m_dieT = dis.readDouble();
-			m_txT = dis.readDouble();
+			m_vgaT1 = buffer.getDouble();
+			m_vgaT2 = buffer.getDouble();
+			m_vgaT3 = buffer.getDouble();
+			m_vgaT4 = buffer.getDouble();
+			m_psuT = buffer.getDouble();
+			m_dieT = buffer.getDouble();
+			m_txT = buffer.getDouble();
 
-			m_afe0TopTemp = dis.readDouble();
-			m_afe0BotTemp = dis.readDouble();
-			m_afe1TopTemp = dis.readDouble();
-			m_afe1BotTemp = dis.readDouble();
-			m_afe2TopTemp = dis.readDouble();
-			m_afe2BotTemp = dis.readDouble();
-			m_afe3TopTemp = dis.readDouble();
-			m_afe3BotTemp = dis.readDouble();
-			m_linkType = dis.readShort();
-			m_uplinkSpeedMbps = dis.readDouble();
-			m_downlinkSpeedMbps = dis.readDouble();
-			m_linkQuality = dis.readShort();
+			m_afe0TopTemp = buffer.getDouble();
+			m_afe0BotTemp = buffer.getDouble();
+			m_afe1TopTemp = buffer.getDouble();
+			m_afe1BotTemp = buffer.getDouble();
+			m_afe2TopTemp = buffer.getDouble();
+			m_afe2BotTemp = buffer.getDouble();
+			m_afe3TopTemp = buffer.getDouble();
+			m_afe3BotTemp = buffer.getDouble();
+			m_linkType = buffer.getShort();
+			m_uplinkSpeedMbps = buffer.getDouble();
+			m_downlinkSpeedMbps = buffer.getDouble();
+			m_linkQuality = buffer.getShort();
 			
-			m_packetCount = dis.readInt();
-			m_recvErrorCount = dis.readInt();
-			m_resentPacketCount = dis.readInt();
-			m_droppedPacketCount = dis.readInt();
-			m_unknownPacketCount = dis.readInt();
-			m_lostLineCount = dis.readInt();
-			m_generalCount = dis.readInt();
+			m_packetCount = buffer.getInt();
+			m_recvErrorCount = buffer.getInt();
+			m_resentPacketCount = buffer.getInt();
+			m_droppedPacketCount = buffer.getInt();
+			m_unknownPacketCount = buffer.getInt();
+			m_lostLineCount = buffer.getInt();
+			m_generalCount = buffer.getInt();
 			
-			m_sonarAltIp = (dis.readInt());
-			m_surfaceIp = dis.readInt();
-			m_subNetMask = dis.readInt();
-			m_macAddress1 = dis.readShort();
-			m_macAddress2 = dis.readShort();
-			m_macAddress3 = dis.readShort();
-			m_BOOTSTSRegister = dis.readInt();
-			m_BOOTSTSRegisterDA = dis.readInt();
-			m_fpgaTime = dis.readLong();
-			m_dipSwitch = dis.readShort();
-			m_shutdownStatus = dis.readShort();
-			m_networkAdaptorFound = dis.readByte() != 0;
+			m_sonarAltIp = buffer.getInt();
+			m_surfaceIp = buffer.getInt();
+			m_subNetMask = buffer.getInt();
+			m_macAddress1 = buffer.getShort();
+			m_macAddress2 = buffer.getShort();
+			m_macAddress3 = buffer.getShort();
+			m_BOOTSTSRegister = buffer.getInt();
+			m_BOOTSTSRegisterDA = buffer.getInt();
+			m_fpgaTime = buffer.getLong();
+			m_dipSwitch = buffer.getShort();
+			m_shutdownStatus = buffer.getShort();
+			m_networkAdaptorFound = buffer.get() != 0;
 //			byte[] data = new byte[20];
 //			dis.readFully(data);
 //					
 //			dis.skipBytes(2);
 			// these two are in the documentation, but clearly don't exist in the data. 
 			if (isOnline) {
-				m_subSeaInternalTemp = dis.readDouble();
-				m_subSeaCpuTemp = dis.readDouble();
-				m_uiFrame = dis.readInt();
+				m_subSeaInternalTemp = buffer.getDouble();
+				m_subSeaCpuTemp = buffer.getDouble();
+				m_uiFrame = buffer.getInt();
 			}
 			
 			
@@ -266,6 +269,15 @@ public class GLFStatusData extends PublicMessageHeader implements Serializable {
 		return true;
 	}
 	
+	/**
+	 * Get the number of bytes of status data following the generic header.
+	 * @param isOnline true for online data, false for data read from a file.
+	 * @return size of the status data in bytes.
+	 */
+	public static int getDataSize(boolean isOnline) {
+		return isOnline ? 236 : 218;
+	}
+
 	public boolean readCGemStatus(DataInput dis) throws CatalogException {
 		try {
 			m_bfVersion = dis.readShort();
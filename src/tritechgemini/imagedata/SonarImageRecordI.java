@@ -62,6 +62,16 @@ public interface SonarImageRecordI extends SonarRecordI, Cloneable, Serializable
 	 */
 	public double getMaxRange();
 	
+	/**
+	 * Range of the first range bin. This is 0 for Tritech sonars, but ARIS 
+	 * data often start some way out. Range bins are spread evenly between
+	 * this and the maximum range.
+	 * @return The minimum range for this frame in metres. 
+	 */
+	public default double getMinRange() {
+		return 0;
+	}
+	
 	/**
 	 * 
 	 * @return the total number of beams
@@ -124,6 +134,15 @@ public interface SonarImageRecordI extends SonarRecordI, Cloneable, Serializable
 	 */
 	public void freeImageData();
 
+	/**
+	 * Memory used by the image data once the record is loaded, including 
+	 * any copies of the data the record keeps, e.g. of the short data. 
+	 * @return size in bytes
+	 */
+	public default long getDataBytes() {
+		return (long) getnBeam() * getnRange();
+	}
+
 	/**
 	 * Record how long it took to load the record in nanoseconds. 
 	 * @param load time in nanoseconds. 
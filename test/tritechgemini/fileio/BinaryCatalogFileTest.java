@@ -0,0 +1,91 @@
+package tritechgemini.fileio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that a catalogue written in the binary format reads back with the
+ * same summary information and records.
+ * @author Doug Gillespie
+ *
+ */
+public class BinaryCatalogFileTest {
+
+	private File folder;
+
+	private File ecdFile;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("cattest").toFile();
+		ecdFile = new File(folder, "data_test.ecd");
+		ECDTestFile.write(ecdFile, 10L<<20, 7);
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		String filePath = ecdFile.getAbsolutePath();
+		GeminiFileCatalog<?> catalog = GeminiFileCatalog.getFileCatalog(filePath, true);
+		assertNotNull(catalog);
+		File catFile = new File(folder, "copy.ecdx");
+		BinaryCatalogFile.writeCatalog(catFile, catalog);
+		assertTrue(BinaryCatalogFile.isBinaryCatalog(catFile));
+
+		GeminiFileCatalog<?> readBack = BinaryCatalogFile.readCatalog(catFile, filePath);
+		assertNotNull(readBack);
+		compareSummaries(catalog, readBack);
+		ECDFileCatalogTest.compareCatalogues(catalog, readBack);
+
+		GeminiFileCatalog<?> summary = BinaryCatalogFile.readSummary(catFile, filePath);
+		assertNotNull(summary);
+		compareSummaries(catalog, summary);
+	}
+
+	@Test
+	public void testRewrite() throws Exception {
+		// writing over an existing catalogue replaces it and doesn't leave anything else behind.
+		String filePath = ecdFile.getAbsolutePath();
+		GeminiFileCatalog<?> catalog = GeminiFileCatalog.getFileCatalog(filePath, true);
+		File catFile = new File(folder, "copy.ecdx");
+		Files.write(catFile.toPath(), new byte[100]);
+		BinaryCatalogFile.writeCatalog(catFile, catalog);
+		GeminiFileCatalog<?> readBack = BinaryCatalogFile.readCatalog(catFile, filePath);
+		assertNotNull(readBack);
+		compareSummaries(catalog, readBack);
+		ArrayList<String> names = new ArrayList<>(Arrays.asList(folder.list()));
+		names.remove(ecdFile.getName());
+		names.remove(catFile.getName());
+		names.remove(new File(GeminiFileCatalog.getCatalogName(filePath)).getName());
+		assertEquals(names.toString(), 0, names.size());
+	}
+
+	private void compareSummaries(GeminiFileCatalog<?> expected, GeminiFileCatalog<?> actual) {
+		assertEquals(expected.getNumRecords(), actual.getNumRecords());
+		assertEquals(expected.getFirstRecordTime(), actual.getFirstRecordTime());
+		assertEquals(expected.getLastRecordTime(), actual.getLastRecordTime());
+		assertEquals(expected.getCatalogFileLength(), actual.getCatalogFileLength());
+		assertEquals(expected.getCatalogFileTime(), actual.getCatalogFileTime());
+		assertEquals(expected.getCatalogFileHash(), actual.getCatalogFileHash());
+		assertEquals(expected.getCatalogEndPosition(), actual.getCatalogEndPosition());
+		assertTrue(Arrays.equals(expected.getSonarIDs(), actual.getSonarIDs()));
+	}
+}
@@ -0,0 +1,107 @@
+package tritechgemini.fileio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import tritechgemini.imagedata.ECDImageRecord;
+
+/**
+ * Check that cataloguing an ecd file in several threads gives exactly the
+ * same records as scanning it in order in a single thread.
+ * @author Doug Gillespie
+ *
+ */
+public class ECDFileCatalogTest {
+
+	/**
+	 * Big enough to be split into four ranges of at least 16MB.
+	 */
+	private static final long FILEBYTES = 70L<<20;
+
+	private File folder;
+
+	private File ecdFile;
+
+	private int catalogThreads;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("ecdtest").toFile();
+		ecdFile = new File(folder, "data_test.ecd");
+		ECDTestFile.write(ecdFile, FILEBYTES, 5);
+		catalogThreads = ECDFileCatalog.getCatalogThreads();
+	}
+
+	@After
+	public void tearDown() {
+		ECDFileCatalog.setCatalogThreads(catalogThreads);
+		for (File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void testParallelScan() throws Exception {
+		ECDFileCatalog single = scanFile(1);
+		ECDFileCatalog parallel = scanFile(4);
+		compareCatalogues(single, parallel);
+	}
+
+	@Test
+	public void testTruncatedParallelScan() throws Exception {
+		// cut off part way through an image, as when a file is still being written.
+		byte[] data = Files.readAllBytes(ecdFile.toPath());
+		Files.write(ecdFile.toPath(), Arrays.copyOf(data, data.length - 100000));
+		ECDFileCatalog single = scanFile(1);
+		ECDFileCatalog parallel = scanFile(4);
+		compareCatalogues(single, parallel);
+		assertTrue(single.getCatalogEndPosition() < ecdFile.length());
+	}
+
+	private ECDFileCatalog scanFile(int nThreads) throws Exception {
+		ECDFileCatalog.setCatalogThreads(nThreads);
+		ECDFileCatalog catalog = new ECDFileCatalog(ecdFile.getAbsolutePath());
+		ArrayList<ECDImageRecord> records = new ArrayList<>();
+		assertTrue(catalog.buildCatalogue(records));
+		catalog.setImageRecords(records);
+		return catalog;
+	}
+
+	/**
+	 * Check two catalogues of the same file have the same records.
+	 * @param expected catalogue from a single thread scan
+	 * @param actual catalogue from a parallel scan
+	 */
+	static void compareCatalogues(GeminiFileCatalog<?> expected, GeminiFileCatalog<?> actual) {
+		int n = expected.getNumRecords();
+		assertTrue(n > 0);
+		assertEquals(n, actual.getNumRecords());
+		assertEquals(expected.getCatalogEndPosition(), actual.getCatalogEndPosition());
+		for (int i = 0; i < n; i++) {
+			ECDImageRecord exRec = (ECDImageRecord) expected.getRecord(i);
+			ECDImageRecord acRec = (ECDImageRecord) actual.getRecord(i);
+			String msg = "Record " + i;
+			assertEquals(msg, exRec.filePos, acRec.filePos);
+			assertEquals(msg, exRec.getRecordNumber(), acRec.getRecordNumber());
+			assertEquals(msg, exRec.getRecordTime(), acRec.getRecordTime());
+			assertEquals(msg, exRec.getDeviceId(), acRec.getDeviceId());
+			assertEquals(msg, exRec.getnBeam(), acRec.getnBeam());
+			assertEquals(msg, exRec.getnRange(), acRec.getnRange());
+			assertEquals(msg, exRec.getSoS(), acRec.getSoS(), 0);
+			assertEquals(msg, exRec.getAcousticZoom() == null, acRec.getAcousticZoom() == null);
+			assertArrayEquals(msg, exRec.getBearingTable(), acRec.getBearingTable(), 0);
+		}
+	}
+}
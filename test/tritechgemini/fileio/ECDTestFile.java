@@ -0,0 +1,145 @@
+package tritechgemini.fileio;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes synthetic ecd files for the tests. Images have 16 beams and a block of
+ * random compressed data, some of which contains copies of an end tag followed by
+ * a valid image record type and version, so that a scan starting part way through
+ * the file can sync on data inside a record. Images are followed at random by
+ * ping tail, acoustic zoom and sensor records.
+ * @author Doug Gillespie
+ *
+ */
+class ECDTestFile {
+
+	private static final int ENDTAG = 0xDEDE;
+
+	private static final byte[] FAKETAG = {(byte) 0xDE, (byte) 0xDE, 3, 0, (byte) 0xCF, (byte) 0xCF};
+
+	private static final int NBEAM = 16;
+
+	private Random random;
+
+	private ECDTestFile(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Write a synthetic ecd file.
+	 * @param ecdFile file to write
+	 * @param minBytes images are added until the file is at least this long
+	 * @param seed random seed, so that the same file can be made again
+	 * @return number of images written
+	 * @throws IOException
+	 */
+	static int write(File ecdFile, long minBytes, long seed) throws IOException {
+		return new ECDTestFile(seed).writeFile(ecdFile, minBytes);
+	}
+
+	private int writeFile(File ecdFile, long minBytes) throws IOException {
+		CountingOutputStream cos = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(ecdFile)));
+		LittleEndianDataOutputStream dos = new LittleEndianDataOutputStream(cos);
+		int nImages = 0;
+		try {
+			dos.writeInt(ECDFileCatalog.HEAD_VERSION);
+			dos.writeInt(0);
+			dos.write(ECDFileCatalog.HEAD_MSG.getBytes("UTF-16LE"));
+			while (cos.getByteCount() < minBytes) {
+				// every 97th image has a low speed of sound, which is dropped by the catalogue.
+				writeImage(dos, nImages, nImages % 97 == 50);
+				nImages++;
+				if (random.nextDouble() < 0.7) {
+					writePingTail(dos);
+				}
+				if (random.nextDouble() < 0.3) {
+					writeZoom(dos);
+				}
+				if (random.nextDouble() < 0.3) {
+					writeSensor(dos);
+				}
+			}
+		}
+		finally {
+			dos.close();
+		}
+		return nImages;
+	}
+
+	private void writeImage(LittleEndianDataOutputStream dos, int iImage, boolean badSpeed) throws IOException {
+		dos.writeShort(3);
+		dos.writeShort(0xCFCF);
+		dos.writeShort(0);
+		dos.writeByte(iImage & 0xFF);
+		dos.write(new byte[48]);
+		dos.writeShort(NBEAM);
+		dos.write(new byte[18]);
+		double cTime = 1.3e9 + iImage;
+		dos.writeShort(1);
+		dos.writeDouble(cTime);
+		dos.writeDouble(cTime);
+		dos.writeDouble(0.);
+		dos.writeDouble(badSpeed ? 500. : 1500.);
+		dos.writeInt(0);
+		dos.writeByte(1);
+		int[] header = {700, 0, NBEAM, 0, 700, 0, NBEAM};
+		for (int i = 0; i < header.length; i++) {
+			dos.writeInt(header[i]);
+		}
+		dos.write(new byte[NBEAM*8]);
+		dos.writeInt(NBEAM);
+		byte[] pattern = new byte[200];
+		random.nextBytes(pattern);
+		byte[] cData = new byte[(20000 + random.nextInt(380000)) / 200 * 200];
+		for (int i = 0; i < cData.length; i += pattern.length) {
+			System.arraycopy(pattern, 0, cData, i, pattern.length);
+		}
+		int nFake = random.nextInt(4);
+		for (int i = 0; i < nFake; i++) {
+			System.arraycopy(FAKETAG, 0, cData, random.nextInt(cData.length-FAKETAG.length), FAKETAG.length);
+		}
+		dos.writeInt(cData.length);
+		dos.write(cData);
+		dos.writeInt(0);
+		dos.writeShort(ENDTAG);
+	}
+
+	private void writePingTail(LittleEndianDataOutputStream dos) throws IOException {
+		int nElements = 50;
+		dos.writeShort(4);
+		dos.writeShort(0xBFBF);
+		int[] header = {0, 52, 34, nElements, 4};
+		for (int i = 0; i < header.length; i++) {
+			dos.writeInt(header[i]);
+		}
+		for (int i = 0; i < 4; i++) {
+			dos.writeShort(0);
+		}
+		dos.write(new byte[18 + nElements*4]);
+		dos.writeByte(1);
+		dos.writeByte(2);
+		dos.writeShort(ENDTAG);
+	}
+
+	private void writeZoom(LittleEndianDataOutputStream dos) throws IOException {
+		dos.writeShort(5);
+		dos.writeShort(0xAFAF);
+		dos.writeShort(1);
+		dos.writeShort(2);
+		dos.writeInt(3);
+		dos.writeShort(4);
+		dos.writeByte(0);
+		dos.writeShort(ENDTAG);
+	}
+
+	private void writeSensor(LittleEndianDataOutputStream dos) throws IOException {
+		dos.writeShort(1);
+		dos.writeShort(0xEFEF);
+		dos.write(new byte[10 + random.nextInt(190)]);
+		dos.writeShort(ENDTAG);
+	}
+}
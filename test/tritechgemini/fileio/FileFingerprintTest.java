@@ -0,0 +1,100 @@
+package tritechgemini.fileio;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check the states reported by FileFingerprint when a data file is copied,
+ * grows, or is rewritten.
+ * @author Doug Gillespie
+ *
+ */
+public class FileFingerprintTest {
+
+	private File dataFile;
+
+	private FileFingerprint fingerprint;
+
+	@Before
+	public void setUp() throws IOException {
+		dataFile = File.createTempFile("fingerprint", ".dat");
+		byte[] data = new byte[1<<20];
+		new Random(3).nextBytes(data);
+		Files.write(dataFile.toPath(), data);
+		fingerprint = FileFingerprint.make(dataFile);
+	}
+
+	@After
+	public void tearDown() {
+		dataFile.delete();
+	}
+
+	@Test
+	public void testUnchanged() {
+		assertEquals(FileFingerprint.UNCHANGED, fingerprint.check(dataFile));
+	}
+
+	@Test
+	public void testMoved() {
+		dataFile.setLastModified(fingerprint.getLastModified() - 10000);
+		assertEquals(FileFingerprint.MOVED, fingerprint.check(dataFile));
+	}
+
+	@Test
+	public void testGrown() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+		try {
+			raf.seek(raf.length());
+			raf.write(new byte[1000]);
+		}
+		finally {
+			raf.close();
+		}
+		assertEquals(FileFingerprint.GROWN, fingerprint.check(dataFile));
+	}
+
+	@Test
+	public void testChanged() throws IOException {
+		// same length and time, but different data at the start.
+		RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+		try {
+			int b = raf.read();
+			raf.seek(0);
+			raf.write(~b);
+		}
+		finally {
+			raf.close();
+		}
+		dataFile.setLastModified(fingerprint.getLastModified() - 10000);
+		assertEquals(FileFingerprint.CHANGED, fingerprint.check(dataFile));
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+		try {
+			raf.setLength(raf.length() - 1000);
+		}
+		finally {
+			raf.close();
+		}
+		assertEquals(FileFingerprint.CHANGED, fingerprint.check(dataFile));
+	}
+
+	@Test
+	public void testNoHash() {
+		// older catalogues have no hash, so a moved file can only be checked by length.
+		dataFile.setLastModified(fingerprint.getLastModified() - 10000);
+		assertEquals(FileFingerprint.MOVED, FileFingerprint.check(dataFile, fingerprint.getLength(),
+				fingerprint.getLastModified(), 0));
+	}
+}